@@ -0,0 +1,112 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed loop HTTP load against a running instance, for comparing spring.threads.virtual.enabled=true with
+ * false. Each simulated client sends its next request as soon as the last one returns. Start the app in one
+ * mode, run this, restart in the other mode and run it again with the same arguments.
+ *
+ * Arguments: url, concurrent clients, duration in seconds.
+ */
+public class LoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        URI uri = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/api/v1/students?pageSize=20");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+
+        // A short warm up so the JIT and the connection pools are settled before anything is recorded
+        run(httpClient, request, clients, System.nanoTime() + Duration.ofSeconds(5).toNanos(), new AtomicLong());
+
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long[] latencies = run(httpClient, request, clients, start + Duration.ofSeconds(seconds).toNanos(), errors);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.printf("%s with %d clients for %.1fs%n", uri, clients, elapsed);
+        System.out.printf("requests: %d, errors: %d, throughput: %.1f req/s%n",
+                latencies.length, errors.get(), latencies.length / elapsed);
+        System.out.printf("p50: %.2f ms, p99: %.2f ms, max: %.2f ms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0));
+    }
+
+    // Latencies of every completed request in nanos, failed requests are only counted
+    private static long[] run(HttpClient httpClient, HttpRequest request, int clients, long deadline,
+            AtomicLong errors) throws Exception {
+        List<Future<long[]>> results = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                results.add(executor.submit(() -> {
+                    long[] recorded = new long[1024];
+                    int count = 0;
+
+                    while (System.nanoTime() < deadline) {
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = httpClient.send(request,
+                                    HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+
+                        if (count == recorded.length) {
+                            recorded = Arrays.copyOf(recorded, count * 2);
+                        }
+                        recorded[count++] = System.nanoTime() - sent;
+                    }
+
+                    return Arrays.copyOf(recorded, count);
+                }));
+            }
+        }
+
+        long[][] perClient = new long[results.size()][];
+        int total = 0;
+        for (int i = 0; i < perClient.length; i++) {
+            perClient[i] = results.get(i).get();
+            total += perClient[i].length;
+        }
+
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (long[] client : perClient) {
+            System.arraycopy(client, 0, latencies, offset, client.length);
+            offset += client.length;
+        }
+
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
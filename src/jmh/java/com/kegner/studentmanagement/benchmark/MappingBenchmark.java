@@ -0,0 +1,104 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.modelmapper.ModelMapper;
+import org.modelmapper.config.Configuration.AccessLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kegner.studentmanagement.mapper.CourseMapper;
+import com.kegner.studentmanagement.mapper.CourseMapperImpl;
+import com.kegner.studentmanagement.mapper.StudentMapper;
+import com.kegner.studentmanagement.mapper.StudentMapperImpl;
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.CourseEntity;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.persistence.CourseResultSetExtractor;
+import com.kegner.studentmanagement.persistence.StudentResultSetExtractor;
+
+/**
+ * Per-page cost of turning entities into DTOs, comparing the generated mappers with the reflective
+ * ModelMapper setup the services used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+    @Param({ "100", "1000" })
+    private int pageSize;
+
+    private List<StudentEntity> students;
+    private List<CourseEntity> courses;
+
+    private final StudentMapper studentMapper = new StudentMapperImpl();
+    private final CourseMapper courseMapper = new CourseMapperImpl();
+    private ModelMapper modelMapper;
+
+    @Setup
+    public void setup() throws SQLException {
+        // Ten ids per parent, a typical course load
+        students = new ArrayList<>(new StudentResultSetExtractor().extractData(SyntheticResultSet.of(
+                SyntheticData.STUDENT_COLUMNS, SyntheticData.studentRows(pageSize * 10, 10))).values());
+        courses = new ArrayList<>(new CourseResultSetExtractor().extractData(SyntheticResultSet.of(
+                SyntheticData.COURSE_COLUMNS, SyntheticData.courseRows(pageSize * 10, 10))).values());
+
+        // Same configuration the application used before the generated mappers
+        modelMapper = new ModelMapper();
+        modelMapper.getConfiguration()
+                .setFieldMatchingEnabled(true)
+                .setFieldAccessLevel(AccessLevel.PRIVATE);
+    }
+
+    @Benchmark
+    public List<StudentDto> studentGenerated() {
+        List<StudentDto> dtos = new ArrayList<>(students.size());
+        for (StudentEntity entity : students) {
+            dtos.add(studentMapper.toDto(entity));
+        }
+        return dtos;
+    }
+
+    @Benchmark
+    public List<StudentDto> studentModelMapper() {
+        List<StudentDto> dtos = new ArrayList<>(students.size());
+        for (StudentEntity entity : students) {
+            dtos.add(modelMapper.map(entity, StudentDto.class));
+        }
+        return dtos;
+    }
+
+    @Benchmark
+    public List<CourseDto> courseGenerated() {
+        List<CourseDto> dtos = new ArrayList<>(courses.size());
+        for (CourseEntity entity : courses) {
+            dtos.add(courseMapper.toDto(entity));
+        }
+        return dtos;
+    }
+
+    @Benchmark
+    public List<CourseDto> courseModelMapper() {
+        List<CourseDto> dtos = new ArrayList<>(courses.size());
+        for (CourseEntity entity : courses) {
+            dtos.add(modelMapper.map(entity, CourseDto.class));
+        }
+        return dtos;
+    }
+}
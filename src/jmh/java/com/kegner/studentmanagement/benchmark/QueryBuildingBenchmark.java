@@ -0,0 +1,74 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.persistence.BaseRepository;
+import com.kegner.studentmanagement.persistence.PageCursor;
+import com.kegner.studentmanagement.persistence.PageQuery;
+import com.kegner.studentmanagement.persistence.SortKey;
+
+/**
+ * Per-request cost of validating the sort and building the page clauses, which runs on every list call
+ * before the database is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuildingBenchmark {
+    private static final List<String> validColumns = List.of(
+            "id", "first_name", "last_name", "email",
+            "phone_number", "date_of_birth", "gpa", "major", "created_date", "modified_date");
+
+    // Default, a camel case column, and a sort that fails validation and falls back
+    @Param({ "", "lastName:asc", "lastName;drop:asc" })
+    private String sort;
+
+    private DataQuery query;
+    private DataQuery cursorQuery;
+
+    @Setup
+    public void setup() {
+        query = DataQuery.builder().sort(sort).build();
+
+        // A cursor for whatever sort the query resolves to, so decoding it always succeeds
+        SortKey sortKey = BaseRepository.getSortKey(query, validColumns);
+        cursorQuery = query.toBuilder()
+                .cursor(new PageCursor(sortKey.getColumn(), sortKey.getDirection(), 12345L, "Smith").encode())
+                .build();
+    }
+
+    @Benchmark
+    public String orderByClause() {
+        return BaseRepository.getOrderByClause(query, validColumns);
+    }
+
+    @Benchmark
+    public PageQuery pageQuery() {
+        return BaseRepository.getPageQuery(query, validColumns, "courseIds", " WHERE 1=1 ",
+                new MapSqlParameterSource());
+    }
+
+    @Benchmark
+    public PageQuery pageQueryWithCursor() {
+        return BaseRepository.getPageQuery(cursorQuery, validColumns, "courseIds", " WHERE 1=1 ",
+                new MapSqlParameterSource());
+    }
+}
@@ -0,0 +1,75 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kegner.studentmanagement.model.CourseEntity;
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.persistence.CourseResultSetExtractor;
+import com.kegner.studentmanagement.persistence.StudentResultSetExtractor;
+
+/**
+ * Compares the single-pass extractors with the previous rebuild-per-row versions. Run with -prof gc to
+ * see the allocation difference as well as the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultSetExtractorBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    private int joinedRows;
+
+    // Junction rows per parent, a heavy course load and a mid sized class
+    @Param({ "40" })
+    private int idsPerParent;
+
+    private Object[][] studentRows;
+    private Object[][] courseRows;
+
+    private final StudentResultSetExtractor studentExtractor = new StudentResultSetExtractor();
+    private final CourseResultSetExtractor courseExtractor = new CourseResultSetExtractor();
+    private final LegacyStudentResultSetExtractor legacyStudentExtractor = new LegacyStudentResultSetExtractor();
+    private final LegacyCourseResultSetExtractor legacyCourseExtractor = new LegacyCourseResultSetExtractor();
+
+    @Setup
+    public void setup() {
+        studentRows = SyntheticData.studentRows(joinedRows, idsPerParent);
+        courseRows = SyntheticData.courseRows(joinedRows, idsPerParent);
+    }
+
+    @Benchmark
+    public Map<Long, StudentEntity> studentCurrent() throws SQLException {
+        return studentExtractor.extractData(SyntheticResultSet.of(SyntheticData.STUDENT_COLUMNS, studentRows));
+    }
+
+    @Benchmark
+    public Map<Long, StudentEntity> studentLegacy() throws SQLException {
+        return legacyStudentExtractor.extractData(SyntheticResultSet.of(SyntheticData.STUDENT_COLUMNS, studentRows));
+    }
+
+    @Benchmark
+    public Map<Long, CourseEntity> courseCurrent() throws SQLException {
+        return courseExtractor.extractData(SyntheticResultSet.of(SyntheticData.COURSE_COLUMNS, courseRows));
+    }
+
+    @Benchmark
+    public Map<Long, CourseEntity> courseLegacy() throws SQLException {
+        return legacyCourseExtractor.extractData(SyntheticResultSet.of(SyntheticData.COURSE_COLUMNS, courseRows));
+    }
+}
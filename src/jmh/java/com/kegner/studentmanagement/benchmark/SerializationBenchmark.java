@@ -0,0 +1,147 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.kegner.studentmanagement.mapper.CourseMapper;
+import com.kegner.studentmanagement.mapper.CourseMapperImpl;
+import com.kegner.studentmanagement.mapper.StudentMapper;
+import com.kegner.studentmanagement.mapper.StudentMapperImpl;
+import com.kegner.studentmanagement.model.CountMode;
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.CourseEntity;
+import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.persistence.CourseResultSetExtractor;
+import com.kegner.studentmanagement.persistence.StudentResultSetExtractor;
+
+/**
+ * Writing a list response body, a page of students or courses as the controller returns it, in each format the
+ * API negotiates and with or without gzip. The bytes column of the results is the size of one page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    // The frontend's page size, a large page, and the MAX_LIMIT cap
+    @Param({ "20", "100", "1000" })
+    private int pageSize;
+
+    @Param({ "json", "cbor", "smile" })
+    private String format;
+
+    @Param({ "false", "true" })
+    private boolean gzip;
+
+    private ListWrapper<StudentDto> studentPage;
+    private ListWrapper<CourseDto> coursePage;
+    private ObjectWriter studentWriter;
+    private ObjectWriter courseWriter;
+
+    // Size of the last page written, it's the same every call so no reset is needed between iterations
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long bytes;
+    }
+
+    @Setup
+    public void setup() throws SQLException {
+        StudentMapper studentMapper = new StudentMapperImpl();
+        List<StudentDto> students = new ArrayList<>();
+        for (StudentEntity entity : new StudentResultSetExtractor().extractData(SyntheticResultSet.of(
+                SyntheticData.STUDENT_COLUMNS, SyntheticData.studentRows(pageSize * 10, 10))).values()) {
+            students.add(studentMapper.toDto(entity));
+        }
+
+        CourseMapper courseMapper = new CourseMapperImpl();
+        List<CourseDto> courses = new ArrayList<>();
+        for (CourseEntity entity : new CourseResultSetExtractor().extractData(SyntheticResultSet.of(
+                SyntheticData.COURSE_COLUMNS, SyntheticData.courseRows(pageSize * 10, 10))).values()) {
+            courses.add(courseMapper.toDto(entity));
+        }
+
+        studentPage = page(students);
+        coursePage = page(courses);
+
+        // Same date handling as the ObjectMapper Spring Boot builds for the controllers
+        ObjectMapper objectMapper = new ObjectMapper(getFactory()).findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        studentWriter = objectMapper.writerFor(objectMapper.getTypeFactory()
+                .constructParametricType(ListWrapper.class, StudentDto.class));
+        courseWriter = objectMapper.writerFor(objectMapper.getTypeFactory()
+                .constructParametricType(ListWrapper.class, CourseDto.class));
+    }
+
+    @Benchmark
+    public byte[] studentPage(Size size) throws IOException {
+        return write(studentWriter, studentPage, size);
+    }
+
+    @Benchmark
+    public byte[] coursePage(Size size) throws IOException {
+        return write(courseWriter, coursePage, size);
+    }
+
+    private byte[] write(ObjectWriter writer, ListWrapper<?> page, Size size) throws IOException {
+        byte[] body;
+        if (gzip) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                writer.writeValue(out, page);
+            }
+            body = bytes.toByteArray();
+        } else {
+            body = writer.writeValueAsBytes(page);
+        }
+
+        size.bytes = body.length;
+        return body;
+    }
+
+    private JsonFactory getFactory() {
+        return switch (format) {
+            case "cbor" -> new CBORFactory();
+            case "smile" -> new SmileFactory();
+            default -> new JsonFactory();
+        };
+    }
+
+    private static <T> ListWrapper<T> page(List<T> rows) {
+        return ListWrapper.<T>builder()
+                .data(rows)
+                .count(rows.size())
+                .total(1_000_000)
+                .countMode(CountMode.EXACT)
+                .hasMore(true)
+                .build();
+    }
+}
@@ -0,0 +1,48 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Builds joined rows shaped like the repository queries, with a fixed number of junction rows per parent.
+ */
+public final class SyntheticData {
+    public static final String[] STUDENT_COLUMNS = { "id", "first_name", "last_name", "email", "phone_number",
+            "date_of_birth", "gpa", "major", "created_date", "modified_date", "course_id" };
+
+    public static final String[] COURSE_COLUMNS = { "id", "course_name", "department_name", "semester",
+            "course_year", "credits", "professor_name", "created_date", "modified_date", "student_id" };
+
+    private static final OffsetDateTime TIMESTAMP = OffsetDateTime.of(2025, 1, 15, 9, 30, 0, 0, ZoneOffset.UTC);
+
+    private SyntheticData() {
+    }
+
+    public static Object[][] studentRows(int joinedRows, int coursesPerStudent) {
+        Object[][] rows = new Object[joinedRows][];
+
+        for (int i = 0; i < joinedRows; i++) {
+            long id = i / coursesPerStudent + 1;
+            rows[i] = new Object[] { id, "First" + id, "Last" + id, "student" + id + "@example.edu",
+                    "555-010-" + (id % 10000), LocalDate.of(2000, 1, 1).plusDays(id % 3000),
+                    2.0 + (id % 20) / 10.0, "Major" + (id % 25), TIMESTAMP, TIMESTAMP.plusSeconds(id),
+                    (long) (i % coursesPerStudent) + 1 };
+        }
+
+        return rows;
+    }
+
+    public static Object[][] courseRows(int joinedRows, int studentsPerCourse) {
+        Object[][] rows = new Object[joinedRows][];
+
+        for (int i = 0; i < joinedRows; i++) {
+            long id = i / studentsPerCourse + 1;
+            rows[i] = new Object[] { id, "Course " + id, "Department" + (id % 12), id % 2 == 0 ? "Fall" : "Spring",
+                    2025, 3, "Professor" + (id % 40), TIMESTAMP, TIMESTAMP.plusSeconds(id),
+                    (long) (i % studentsPerCourse) + 1 };
+        }
+
+        return rows;
+    }
+}
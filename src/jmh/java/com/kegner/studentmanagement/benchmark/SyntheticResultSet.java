@@ -0,0 +1,108 @@
+package com.kegner.studentmanagement.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory, forward-only ResultSet over pre-built rows so extractors can be benchmarked without a
+ * database. Only the accessors the extractors use are supported. Columns can be read by index or by
+ * label, and label lookups go through a map the same way the Postgres driver does.
+ */
+public final class SyntheticResultSet implements InvocationHandler {
+    private final String[] columns;
+    private final Object[][] rows;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private int cursor = -1;
+    private boolean wasNull;
+
+    private SyntheticResultSet(String[] columns, Object[][] rows) {
+        this.columns = columns;
+        this.rows = rows;
+
+        for (int i = 0; i < columns.length; i++) {
+            indexes.putIfAbsent(columns[i], i + 1);
+        }
+    }
+
+    public static ResultSet of(String[] columns, Object[][] rows) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, new SyntheticResultSet(columns, rows));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "next":
+                return ++cursor < rows.length;
+            case "wasNull":
+                return wasNull;
+            case "findColumn":
+                return indexOf((String) args[0]);
+            case "getMetaData":
+                return metaData();
+            case "close":
+                return null;
+            case "isClosed":
+                return false;
+            case "getString": {
+                Object value = value(args[0]);
+                return value == null ? null : value.toString();
+            }
+            case "getLong": {
+                Number value = (Number) value(args[0]);
+                return value == null ? 0L : value.longValue();
+            }
+            case "getInt": {
+                Number value = (Number) value(args[0]);
+                return value == null ? 0 : value.intValue();
+            }
+            case "getDouble": {
+                Number value = (Number) value(args[0]);
+                return value == null ? 0d : value.doubleValue();
+            }
+            case "getObject": {
+                Object value = value(args[0]);
+                return value == null || args.length == 1 ? value : ((Class<?>) args[1]).cast(value);
+            }
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private Object value(Object column) {
+        int index = column instanceof Integer i ? i : indexOf((String) column);
+        Object value = rows[cursor][index - 1];
+        wasNull = value == null;
+        return value;
+    }
+
+    private int indexOf(String label) {
+        Integer index = indexes.get(label);
+
+        if (index == null) {
+            throw new IllegalArgumentException("No column " + label);
+        }
+
+        return index;
+    }
+
+    private ResultSetMetaData metaData() {
+        return (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(),
+                new Class<?>[] { ResultSetMetaData.class }, (metaProxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return columns.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return columns[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
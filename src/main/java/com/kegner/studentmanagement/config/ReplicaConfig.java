@@ -0,0 +1,110 @@
+package com.kegner.studentmanagement.config;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Read-only transactions on the replicas, everything else on the primary. The application's data source is a
+ * lazy proxy that only fetches a real connection at the first statement, once the transaction has said whether
+ * it's read only, and then takes it from the replicas or the primary pool. Without this configuration Boot's
+ * single pool is used as before.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replicas.enabled", havingValue = "true")
+public class ReplicaConfig {
+    @Value("${datasource.replicas.urls}")
+    private List<String> replicaUrls;
+
+    @Value("${datasource.replicas.max-lag}")
+    private Duration maxLag;
+
+    @Value("${datasource.replicas.lag-query}")
+    private String lagQuery;
+
+    // Built the way Boot would build its own pool, spring.datasource.hikari.* included
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // One pool per replica with the primary's settings, read only so a stray write fails instead of diverging
+    @Bean
+    public ReplicaDataSource replicaDataSource(HikariDataSource primaryDataSource, MeterRegistry meterRegistry) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariConfig config = new HikariConfig();
+            primaryDataSource.copyStateTo(config);
+            config.setJdbcUrl(replicaUrls.get(i));
+            config.setPoolName("replica-" + (i + 1));
+            config.setReadOnly(true);
+            replicas.put(config.getPoolName(), new HikariDataSource(config));
+        }
+
+        ReplicaDataSource replicaDataSource = new ReplicaDataSource(primaryDataSource, replicas, lagQuery, maxLag,
+                meterRegistry);
+        replicaDataSource.check();
+        return replicaDataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        return dataSource;
+    }
+
+    // A request that writes reads from the primary throughout, so it sees its own write however far behind the
+    // replicas are
+    @Bean
+    public FilterRegistrationBean<OncePerRequestFilter> primaryForWrites() {
+        return new FilterRegistrationBean<>(new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                    FilterChain chain) throws ServletException, IOException {
+                if ("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod())) {
+                    chain.doFilter(request, response);
+                    return;
+                }
+
+                try (ReplicaDataSource.Pin pin = ReplicaDataSource.pinToPrimary()) {
+                    chain.doFilter(request, response);
+                }
+            }
+        });
+    }
+
+    // Reported under /actuator/health, UP while the primary can take the reads of replicas that are down
+    @Bean
+    public HealthIndicator replicasHealthIndicator(ReplicaDataSource replicaDataSource) {
+        return () -> Health.up().withDetails(replicaDataSource.getStatus()).build();
+    }
+}
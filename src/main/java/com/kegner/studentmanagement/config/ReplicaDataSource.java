@@ -0,0 +1,162 @@
+package com.kegner.studentmanagement.config;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The read-only side of the routing data source: connections for read-only transactions come from the next
+ * healthy replica in turn. A replica is healthy when its last check could run the lag query and the lag was within
+ * the limit. Connections come from the primary instead when no replica is healthy, or while the current thread
+ * is pinned to it, e.g. for the rest of a request that writes, so it reads what it just wrote.
+ */
+public class ReplicaDataSource extends AbstractDataSource {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSource.class);
+
+    private static final ThreadLocal<Boolean> pinned = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final String lagQuery;
+    private final Duration maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        // Unhealthy until the first check says otherwise
+        private volatile boolean healthy;
+        private volatile double lagSeconds = Double.NaN;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    public ReplicaDataSource(DataSource primary, Map<String, DataSource> replicas, String lagQuery, Duration maxLag,
+            MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+
+        replicas.forEach((name, dataSource) -> {
+            Replica replica = new Replica(name, dataSource);
+            this.replicas.add(replica);
+
+            Gauge.builder("datasource.replica.lag", replica, r -> r.lagSeconds)
+                    .description("Replication lag reported by the replica's last check")
+                    .baseUnit("seconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+            Gauge.builder("datasource.replica.healthy", replica, r -> r.healthy ? 1 : 0)
+                    .description("Whether read-only transactions are sent to the replica")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        });
+    }
+
+    /**
+     * Sends every connection on this thread to the primary until the returned pin is closed. Pins nest, only the
+     * outermost one unpins.
+     */
+    public static Pin pinToPrimary() {
+        boolean outermost = pinned.get() == null;
+        pinned.set(true);
+        return () -> {
+            if (outermost) {
+                pinned.remove();
+            }
+        };
+    }
+
+    @FunctionalInterface
+    public interface Pin extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getTarget().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getTarget().getConnection(username, password);
+    }
+
+    // Health and lag by replica name, for the actuator
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        for (Replica replica : replicas) {
+            status.put(replica.name, Map.of("healthy", replica.healthy, "lagSeconds", replica.lagSeconds));
+        }
+
+        return status;
+    }
+
+    // Each replica on its own virtual thread, so one that hangs until its connection timeout doesn't hold back
+    // the others' state. Returns once every check has finished.
+    @Scheduled(fixedDelayString = "${datasource.replicas.check-interval}")
+    public void check() {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            replicas.forEach(replica -> executor.execute(() -> check(replica)));
+        }
+    }
+
+    private void check(Replica replica) {
+        boolean healthy;
+        try (Connection connection = replica.dataSource.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(lagQuery)) {
+            rs.next();
+            replica.lagSeconds = rs.getDouble(1);
+            healthy = replica.lagSeconds * 1000 <= maxLag.toMillis();
+        } catch (SQLException e) {
+            replica.lagSeconds = Double.NaN;
+            healthy = false;
+            logger.debug("Replica {} check failed.", replica.name, e);
+        }
+
+        if (healthy != replica.healthy) {
+            logger.warn("Replica {} is now {}, lag {}s.", replica.name, healthy ? "in use" : "skipped",
+                    replica.lagSeconds);
+        }
+        replica.healthy = healthy;
+    }
+
+    // Round robin over the healthy replicas, starting one further along each time
+    private DataSource getTarget() {
+        if (pinned.get() == null) {
+            int start = Math.floorMod(next.getAndIncrement(), Math.max(1, replicas.size()));
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (replica.healthy) {
+                    return replica.dataSource;
+                }
+            }
+        }
+
+        return primary;
+    }
+}
@@ -1,21 +1,139 @@
 package com.kegner.studentmanagement.config;
 
-import org.modelmapper.ModelMapper;
-import org.modelmapper.config.Configuration.AccessLevel;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.StringUtils;
+import org.springframework.web.cors.CorsConfiguration;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kegner.studentmanagement.controller.Bulkhead;
+import com.kegner.studentmanagement.controller.Bulkheads;
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.CourseEntity;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.persistence.CourseRepository;
+import com.kegner.studentmanagement.persistence.StudentRepository;
+import com.kegner.studentmanagement.service.BatchLoader;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 
 @Configuration
+@EnableScheduling
 public class StudentManagementConfig {
+    @Value("${cache.entity.spec}")
+    private String entityCacheSpec;
+
+    @Value("${statement.cache.limit}")
+    private int statementCacheLimit;
+
+    @Value("${lookup.batch.window}")
+    private Duration batchWindow;
+
+    @Value("${lookup.batch.max-size}")
+    private int batchMaxSize;
+
+    @Value("${cors.allowed-origins}")
+    private String corsAllowedOrigins;
+
+    @Value("${bulkhead.enabled}")
+    private boolean bulkheadsEnabled;
+
+    @Value("${bulkhead.detail.spec}")
+    private String detailBulkheadSpec;
+
+    @Value("${bulkhead.list.spec}")
+    private String listBulkheadSpec;
+
+    @Value("${bulkhead.write.spec}")
+    private String writeBulkheadSpec;
+
+    @Value("${bulkhead.export.spec}")
+    private String exportBulkheadSpec;
+
+    // Parsed named parameter SQL is cached by statement text, sized so every statement shape stays parsed
     @Bean
-    ModelMapper modelMapper() {
+    public NamedParameterJdbcTemplate namedParameterJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        namedParameterJdbcTemplate.setCacheLimit(statementCacheLimit);
+        return namedParameterJdbcTemplate;
+    }
 
-        ModelMapper modelMapper = new ModelMapper();
+    // Binary formats for clients that send Accept: application/cbor or application/x-jackson-smile. Built from
+    // Boot's builder so dates and sparse fieldsets are handled the same as in JSON, Spring MVC's own defaults
+    // for these skip the application's customizers.
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
 
-        modelMapper.getConfiguration()
-                .setFieldMatchingEnabled(true)
-                .setFieldAccessLevel(AccessLevel.PRIVATE);
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+
+    @Bean
+    public AsyncCache<Long, StudentDto> studentCache(MeterRegistry registry) {
+        return CaffeineCacheMetrics.monitor(registry, entityCache(), "students");
+    }
+
+    @Bean
+    public AsyncCache<Long, CourseDto> courseCache(MeterRegistry registry) {
+        return CaffeineCacheMetrics.monitor(registry, entityCache(), "courses");
+    }
+
+    @Bean
+    public BatchLoader<StudentEntity> studentLoader(StudentRepository repository, MeterRegistry registry) {
+        return new BatchLoader<>("students", repository, StudentEntity::getId, batchWindow, batchMaxSize, registry);
+    }
+
+    @Bean
+    public BatchLoader<CourseEntity> courseLoader(CourseRepository repository, MeterRegistry registry) {
+        return new BatchLoader<>("courses", repository, CourseEntity::getId, batchWindow, batchMaxSize, registry);
+    }
+
+    // Ahead of everything else, so a request that's turned away costs as little as possible. Rejections carry
+    // the same CORS headers as the controllers' @CrossOrigin, with Retry-After readable by the frontend.
+    @Bean
+    public FilterRegistrationBean<Bulkheads> bulkheads(MeterRegistry registry) {
+        Map<String, Bulkhead> bulkheads = Map.of(
+                Bulkheads.DETAIL, new Bulkhead(Bulkheads.DETAIL, detailBulkheadSpec, registry),
+                Bulkheads.LIST, new Bulkhead(Bulkheads.LIST, listBulkheadSpec, registry),
+                Bulkheads.WRITE, new Bulkhead(Bulkheads.WRITE, writeBulkheadSpec, registry),
+                Bulkheads.EXPORT, new Bulkhead(Bulkheads.EXPORT, exportBulkheadSpec, registry));
+
+        CorsConfiguration cors = new CorsConfiguration();
+        cors.setAllowedOrigins(List.of(StringUtils.tokenizeToStringArray(corsAllowedOrigins, ",")));
+        cors.addAllowedMethod(CorsConfiguration.ALL);
+        cors.addExposedHeader(HttpHeaders.RETRY_AFTER);
+
+        FilterRegistrationBean<Bulkheads> registration = new FilterRegistrationBean<>(new Bulkheads(bulkheads, cors));
+        registration.setEnabled(bulkheadsEnabled);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
 
-        return modelMapper;
+    // Stats have to be recorded for the hit/miss/eviction meters to report anything. Async so loads run
+    // outside of the map's locks, see ReadThroughCache.
+    private <V> AsyncCache<Long, V> entityCache() {
+        return Caffeine.from(entityCacheSpec).recordStats().buildAsync();
     }
 }
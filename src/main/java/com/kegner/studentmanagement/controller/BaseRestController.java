@@ -1,17 +1,57 @@
 package com.kegner.studentmanagement.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.kegner.studentmanagement.model.CountMode;
+import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
 
 public interface BaseRestController<T> {
-    public T get(Long id);
+    public ResponseEntity<T> get(Long id, WebRequest request);
+
+    public ResponseEntity<ListWrapper<T>> getAll(List<Long> ids, String sort, String search, Integer page,
+            Integer pageSize, String cursor, String count, List<String> fields, WebRequest request)
+            throws IOException;
 
-    public ListWrapper<T> getAll(List<Long> ids, String sort, String search, Integer page, Integer pageSize);
+    public ResponseEntity<StreamingResponseBody> export();
 
     public void insert(T object);
 
     public void update(T object);
 
     public void delete(Long id);
+
+    public ImportResult bulkInsert(MediaType contentType, InputStream body) throws IOException;
+
+    // shared method for the paging parameters every list endpoint takes
+    public static DataQuery.DataQueryBuilder getQuery(String search, String sort, Integer page, Integer pageSize,
+            String cursor, String count) {
+        DataQuery.DataQueryBuilder builder = DataQuery.builder()
+                .search(search)
+                .sort(sort)
+                .cursor(cursor);
+
+        // Only override page defaults if they were provided
+        if (page != null) {
+            builder.page(page);
+        }
+
+        if (pageSize != null) {
+            builder.pageSize(pageSize);
+        }
+
+        if (count != null) {
+            builder.countMode(CountMode.fromValue(count));
+        }
+
+        return builder;
+    }
 }
@@ -0,0 +1,181 @@
+package com.kegner.studentmanagement.controller;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * A concurrency limit for one class of endpoints with a bounded queue in front of it. Requests over the limit wait
+ * in arrival order, up to the queue size and the longest wait, and are turned away with a 503 and Retry-After
+ * after that. The limit adapts to latency, AIMD style: a request that finishes within the target latency raises
+ * it by 1/limit, about one per limit's worth of requests, and a slower one cuts it by a tenth, always between the
+ * minimum and maximum. Configured with a spec like the caches, e.g. limit=8,min=2,max=16,queue=16,wait=250ms,
+ * latency=300ms. An optional retry=2s sets the Retry-After, which is otherwise the wait, or a second without one.
+ */
+public class Bulkhead {
+    private static final double backoff = 0.9;
+    private static final Duration defaultRetryAfter = Duration.ofSeconds(1);
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final long targetLatencyNanos;
+    private final Duration retryAfter;
+    private final Counter queueFull;
+    private final Counter timedOut;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    // Guarded by lock
+    private double limit;
+    private int inFlight;
+    private int waiting;
+
+    // Released once, when the request finishes
+    public class Permit {
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        public void release() {
+            if (done.compareAndSet(false, true)) {
+                onRelease(System.nanoTime() - start);
+            }
+        }
+    }
+
+    public Bulkhead(String name, String spec, MeterRegistry meterRegistry) {
+        Map<String, String> options = new HashMap<>();
+        for (String option : spec.split(",")) {
+            String[] pair = option.trim().split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Bulkhead " + name + " has an invalid option: " + option);
+            }
+            options.put(pair[0].trim(), pair[1].trim());
+        }
+
+        this.name = name;
+        this.minLimit = Integer.parseInt(options.remove("min"));
+        this.maxLimit = Integer.parseInt(options.remove("max"));
+        this.limit = Math.clamp(Integer.parseInt(options.remove("limit")), minLimit, maxLimit);
+        this.maxQueue = Integer.parseInt(options.remove("queue"));
+        this.maxWait = DurationStyle.detectAndParse(options.remove("wait"));
+        this.targetLatencyNanos = DurationStyle.detectAndParse(options.remove("latency")).toNanos();
+        String retry = options.remove("retry");
+        this.retryAfter = retry != null ? DurationStyle.detectAndParse(retry)
+                : maxWait.isZero() ? defaultRetryAfter : maxWait;
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Bulkhead " + name + " has unknown options: " + options.keySet());
+        }
+
+        Gauge.builder("bulkhead.limit", this, bulkhead -> bulkhead.read(() -> bulkhead.limit))
+                .description("Requests the bulkhead currently lets run at once")
+                .tag("endpoint", name)
+                .register(meterRegistry);
+        Gauge.builder("bulkhead.in-flight", this, bulkhead -> bulkhead.read(() -> bulkhead.inFlight))
+                .description("Requests running inside the bulkhead")
+                .tag("endpoint", name)
+                .register(meterRegistry);
+        Gauge.builder("bulkhead.queue", this, bulkhead -> bulkhead.read(() -> bulkhead.waiting))
+                .description("Requests waiting for the bulkhead")
+                .tag("endpoint", name)
+                .register(meterRegistry);
+        queueFull = getRejected(meterRegistry, "queue-full");
+        timedOut = getRejected(meterRegistry, "timeout");
+    }
+
+    // Blocks for up to the longest wait. Throws a ServiceUnavailableException when the request is turned away.
+    public Permit acquire() {
+        lock.lock();
+        try {
+            // Nobody to overtake, so take a free slot straight away
+            if (waiting == 0 && inFlight < (int) limit) {
+                inFlight++;
+                return new Permit();
+            }
+
+            if (waiting >= maxQueue) {
+                queueFull.increment();
+                throw reject();
+            }
+
+            waiting++;
+            try {
+                long remaining = maxWait.toNanos();
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        timedOut.increment();
+                        throw reject();
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                timedOut.increment();
+                throw reject();
+            } finally {
+                waiting--;
+            }
+
+            inFlight++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onRelease(long latencyNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            limit = latencyNanos <= targetLatencyNanos ? Math.min(maxLimit, limit + 1 / limit)
+                    : Math.max(minLimit, limit * backoff);
+
+            // The limit may have grown by a slot as well as this one freeing up
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // By default a client can expect a slot about as soon as a queued request would have given up
+    private ServiceUnavailableException reject() {
+        return new ServiceUnavailableException("Too many " + name + " requests are running, try again shortly.",
+                retryAfter);
+    }
+
+    private Counter getRejected(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("bulkhead.rejected")
+                .description("Requests turned away by the bulkhead")
+                .tag("endpoint", name)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private double read(DoubleSupplier value) {
+        lock.lock();
+        try {
+            return value.getAsDouble();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double getLimit() {
+        return read(() -> limit);
+    }
+}
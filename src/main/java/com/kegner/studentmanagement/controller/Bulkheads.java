@@ -0,0 +1,118 @@
+package com.kegner.studentmanagement.controller;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.CorsProcessor;
+import org.springframework.web.cors.DefaultCorsProcessor;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Puts each API request through the bulkhead for its class of endpoint, so a storm of one kind (e.g. large
+ * unfiltered list pages) queues and is turned away on its own instead of taking every pooled connection from
+ * lookups and writes. Anything outside the API, like the actuator, isn't limited. CORS is applied by the
+ * controllers, which a turned away request never reaches, so the rejection adds the same headers itself;
+ * otherwise the browser hides the 503 and its Retry-After behind a network error.
+ */
+public class Bulkheads extends OncePerRequestFilter {
+    public static final String DETAIL = "detail";
+    public static final String LIST = "list";
+    public static final String WRITE = "write";
+    public static final String EXPORT = "export";
+
+    // A single row by id, e.g. /api/v1/students/5
+    private static final Pattern detailPath = Pattern.compile("/api/v1/[^/]+/\\d+");
+
+    private final Map<String, Bulkhead> bulkheads;
+    private final CorsConfiguration cors;
+    private final CorsProcessor corsProcessor = new DefaultCorsProcessor();
+
+    public Bulkheads(Map<String, Bulkhead> bulkheads, CorsConfiguration cors) {
+        this.bulkheads = bulkheads;
+        this.cors = cors;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Bulkhead bulkhead = bulkheads.get(getEndpointClass(request.getMethod(), request.getRequestURI()));
+        if (bulkhead == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Bulkhead.Permit permit;
+        try {
+            permit = bulkhead.acquire();
+        } catch (ServiceUnavailableException e) {
+            // An origin that isn't allowed has already been answered with a 403
+            if (!corsProcessor.processRequest(cors, request, response)) {
+                return;
+            }
+
+            response.setHeader(HttpHeaders.RETRY_AFTER, e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+            response.sendError(e.getStatusCode().value(), e.getReason());
+            return;
+        }
+
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            // A streamed export is still running, hold the slot until it's written
+            if (async) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        permit.release();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                permit.release();
+            }
+        }
+    }
+
+    // Null for requests outside the API, CORS preflights and change streams, which stay open for as long as the
+    // client listens and have their own limit
+    static String getEndpointClass(String method, String path) {
+        if (!path.startsWith("/api/") || "OPTIONS".equals(method) || path.startsWith("/api/v1/changes/")) {
+            return null;
+        }
+
+        if (path.endsWith("/export")) {
+            return EXPORT;
+        }
+
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return WRITE;
+        }
+
+        return detailPath.matcher(path).matches() ? DETAIL : LIST;
+    }
+}
@@ -0,0 +1,28 @@
+package com.kegner.studentmanagement.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@CrossOrigin(origins = "${cors.allowed-origins}", exposedHeaders = HttpHeaders.RETRY_AFTER)
+@RequestMapping("/api/v1/changes")
+public class ChangeController {
+    @Autowired
+    private ChangeStreams changeStreams;
+
+    // EventSource sends Last-Event-ID on its own when it reconnects, since is for picking up from a stored
+    // sequence. With neither only changes from now on are sent.
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+            @RequestParam(required = false) Long since) {
+        return changeStreams.subscribe(lastEventId != null ? lastEventId : since);
+    }
+}
@@ -0,0 +1,133 @@
+package com.kegner.studentmanagement.controller;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+import com.kegner.studentmanagement.model.Change;
+import com.kegner.studentmanagement.service.ChangeFeed;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Server-sent event streams over the change feed, one virtual thread per subscriber that reads the feed from its
+ * own position and writes to its own response. A slow client only blocks its own thread on the socket, never a
+ * writer or another subscriber, and nothing is queued for it beyond the one batch being written: if it falls
+ * behind the ring buffer it gets a reload event instead. A comment is written when nothing has changed for a
+ * while, which keeps proxies from closing the connection and notices clients that went away.
+ */
+@Component
+public class ChangeStreams {
+    @Value("${changes.max-subscribers}")
+    private int maxSubscribers;
+
+    @Value("${changes.batch-size}")
+    private int batchSize;
+
+    @Value("${changes.heartbeat}")
+    private Duration heartbeat;
+
+    // The client reconnects with Last-Event-ID when it runs out, so nothing is missed
+    @Value("${changes.timeout}")
+    private Duration timeout;
+
+    @Autowired
+    private ChangeFeed feed;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("changes.subscribers", subscribers, AtomicInteger::get)
+                .description("Open change streams")
+                .register(meterRegistry);
+    }
+
+    // Interrupts the subscribers waiting on the feed so their responses complete
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Streams the changes after the given sequence, or only new ones when it's null. Too many open streams are
+     * turned away with a 503 and Retry-After.
+     */
+    public SseEmitter subscribe(Long after) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new ServiceUnavailableException("Too many open change streams.", heartbeat);
+        }
+
+        long cursor = after != null ? after : feed.getLastSequence();
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+
+        AtomicBoolean open = new AtomicBoolean(true);
+        emitter.onCompletion(() -> open.set(false));
+        emitter.onTimeout(() -> open.set(false));
+        emitter.onError(e -> open.set(false));
+
+        try {
+            executor.execute(() -> {
+                try {
+                    stream(emitter, cursor, open::get);
+                } finally {
+                    subscribers.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            subscribers.decrementAndGet();
+            throw e;
+        }
+
+        return emitter;
+    }
+
+    // Runs until the response is closed on either side
+    void stream(SseEmitter emitter, long after, BooleanSupplier open) {
+        long cursor = after;
+
+        try {
+            while (open.getAsBoolean()) {
+                List<Change> changes = feed.read(cursor, batchSize, heartbeat);
+                if (changes.isEmpty()) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    continue;
+                }
+
+                for (Change change : changes) {
+                    emitter.send(SseEmitter.event()
+                            .id(String.valueOf(change.getSequence()))
+                            .name(change.getType().getValue())
+                            .data(change, MediaType.APPLICATION_JSON));
+                    cursor = change.getSequence();
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // The client went away or the emitter already completed, the container cleans up the response
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+}
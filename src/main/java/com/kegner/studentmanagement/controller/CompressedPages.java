@@ -0,0 +1,166 @@
+package com.kegner.studentmanagement.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ListWrapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Unfiltered list pages kept serialized and gzipped, one entry per table, page parameters and format. Each
+ * entry is stored with the page's ETag, and a request only gets the cached bytes when the version query still
+ * produces that ETag, so a write is never served stale and nothing has to be invalidated. Caffeine's frequency
+ * based admission keeps the pages that are asked for most, e.g. the first page of the default sort.
+ */
+@Component
+public class CompressedPages {
+    @Autowired
+    private MappingJackson2HttpMessageConverter jsonConverter;
+
+    @Autowired
+    private MappingJackson2CborHttpMessageConverter cborConverter;
+
+    @Autowired
+    private MappingJackson2SmileHttpMessageConverter smileConverter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${cache.page.spec}")
+    private String pageCacheSpec;
+
+    private Cache<String, Page> pages;
+
+    // In preference order, JSON first for */*
+    private List<AbstractJackson2HttpMessageConverter> converters;
+
+    private record Page(String eTag, MediaType contentType, byte[] body) {
+    }
+
+    private record Format(AbstractJackson2HttpMessageConverter converter, MediaType contentType) {
+    }
+
+    @PostConstruct
+    public void init() {
+        pages = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.from(pageCacheSpec).recordStats()
+                .weigher((String key, Page page) -> page.body().length).build(), "pages");
+        converters = List.of(jsonConverter, cborConverter, smileConverter);
+    }
+
+    // Only whole pages of the full table are worth keeping, and only for clients that take gzip as is
+    public boolean isCacheable(DataQuery query, WebRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+
+        return CollectionUtils.isEmpty(query.getIds())
+                && StringUtils.isBlank(query.getSearch())
+                && CollectionUtils.isEmpty(query.getFields())
+                && query.getEnrolledWith() == null
+                && acceptEncoding != null && acceptEncoding.contains("gzip")
+                && request instanceof ServletWebRequest;
+    }
+
+    /**
+     * Writes the page for the table and query straight to the response, from the cache when the entry's ETag
+     * matches, otherwise from the loader. Returns false without writing anything when none of the formats is
+     * acceptable, so the caller can fall back to normal content negotiation and its 406.
+     */
+    public <T> boolean write(String table, DataQuery query, String eTag, WebRequest request,
+            Supplier<ListWrapper<T>> loader) throws IOException {
+        Format format = getFormat(request.getHeader(HttpHeaders.ACCEPT));
+        if (format == null) {
+            return false;
+        }
+
+        String key = String.join("|", table, format.contentType().toString(), String.valueOf(query.getSort()),
+                String.valueOf(query.getCursor()), String.valueOf(query.getPage()),
+                String.valueOf(query.getPageSize()), String.valueOf(query.getCountMode()));
+
+        Page page = pages.getIfPresent(key);
+        if (page == null || !page.eTag().equals(eTag)) {
+            page = new Page(eTag, format.contentType(), compress(format.converter(), loader.get()));
+            pages.put(key, page);
+        }
+
+        HttpServletResponse response = ((ServletWebRequest) request).getResponse();
+        response.setContentType(page.contentType().toString());
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        response.setHeader(HttpHeaders.ETAG, page.eTag());
+        response.setContentLength(page.body().length);
+
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(page.body());
+        }
+
+        return true;
+    }
+
+    // The first converter that can write one of the accepted types, in the client's order of preference
+    private Format getFormat(String accept) {
+        List<MediaType> accepted = new ArrayList<>();
+        try {
+            accepted.addAll(StringUtils.isBlank(accept) ? List.of(MediaType.ALL) : MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+
+        // Sorted by quality first, q=0 means not acceptable at all
+        MimeTypeUtils.sortBySpecificity(accepted);
+        for (MediaType mediaType : accepted) {
+            if (mediaType.getQualityValue() == 0) {
+                continue;
+            }
+
+            for (AbstractJackson2HttpMessageConverter converter : converters) {
+                for (MediaType supported : converter.getSupportedMediaTypes()) {
+                    if (mediaType.includes(supported) && !supported.isWildcardSubtype()) {
+                        return new Format(converter, supported);
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static byte[] compress(AbstractJackson2HttpMessageConverter converter, ListWrapper<?> page) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            converter.getObjectMapper().writeValue(gzip, page);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+}
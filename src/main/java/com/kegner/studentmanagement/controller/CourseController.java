@@ -1,8 +1,16 @@
 package com.kegner.studentmanagement.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,51 +18,169 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.kegner.studentmanagement.model.CountMode;
 import com.kegner.studentmanagement.model.CourseDto;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.Roster;
+import com.kegner.studentmanagement.model.RowVersion;
 import com.kegner.studentmanagement.service.CourseService;
+import com.kegner.studentmanagement.service.StudentService;
 
 @RestController
-@CrossOrigin(origins = "${cors.allowed-origins}")
+@CrossOrigin(origins = "${cors.allowed-origins}", exposedHeaders = HttpHeaders.RETRY_AFTER)
 @RequestMapping("/api/v1/courses")
 public class CourseController implements BaseRestController<CourseDto> {
     @Autowired
     private CourseService service;
 
+    @Autowired
+    private CompressedPages pages;
+
+    // Rosters embed the students of a course
+    @Autowired
+    private StudentService studentService;
+
     @GetMapping("/{id}")
     @Override
-    public CourseDto get(@PathVariable Long id) {
-        return service.get(id);
+    public ResponseEntity<CourseDto> get(@PathVariable Long id, WebRequest request) {
+        // Revalidate against the modified date alone, the 304 is already set up when this returns true
+        if (ETags.isConditional(request)) {
+            RowVersion version = service.getVersion(id);
+            if (request.checkNotModified(ETags.of(version.getId(), version.getModifiedDate()),
+                    ETags.lastModified(version.getModifiedDate()))) {
+                return null;
+            }
+        }
+
+        CourseDto dto = service.get(id);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(ETags.of(dto.getId(), dto.getModifiedDate()))
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (dto.getModifiedDate() != null) {
+            response.lastModified(dto.getModifiedDate().toInstant());
+        }
+
+        return response.body(dto);
     }
 
     @GetMapping
     @Override
-    public ListWrapper<CourseDto> getAll(
+    public ResponseEntity<ListWrapper<CourseDto>> getAll(
             @RequestParam(required = false) List<Long> ids,
             @RequestParam(required = false) String search,
             @RequestParam(required = false) String sort,
             @RequestParam(required = false) Integer page,
-            @RequestParam(required = false) Integer pageSize) {
-        DataQuery.DataQueryBuilder builder = DataQuery.builder()
-                .ids(ids)
-                .search(search)
-                .sort(sort);
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String count,
+            @RequestParam(required = false) List<String> fields,
+            WebRequest request) throws IOException {
+        DataQuery.DataQueryBuilder builder = BaseRestController.getQuery(search, sort, page, pageSize, cursor, count)
+                .ids(ids);
+
+        if (fields != null) {
+            builder.fields(fields);
+        }
+
+        DataQuery query = builder.build();
+
+        // Same page with only ids and modified dates, so an unchanged page skips the join and serialization.
+        // No Last-Modified here, the newest modified date can't tell that a row left the page.
+        ListWrapper<RowVersion> versions = null;
+        if (ETags.isConditional(request)) {
+            versions = service.getAllVersions(query);
+            if (request.checkNotModified(ETags.of(versions, RowVersion::getId, RowVersion::getModifiedDate))) {
+                return null;
+            }
+        }
+
+        // Popular unfiltered pages are served already serialized and gzipped while their ETag still matches
+        if (pages.isCacheable(query, request)) {
+            if (versions == null) {
+                versions = service.getAllVersions(query);
+            }
+
+            String eTag = ETags.of(versions, RowVersion::getId, RowVersion::getModifiedDate);
+            if (pages.write("courses", query, eTag, request, () -> service.getAll(query))) {
+                return null;
+            }
+        }
+
+        ListWrapper<CourseDto> courses = service.getAll(query);
+        return ResponseEntity.ok()
+                .eTag(ETags.of(courses, CourseDto::getId, CourseDto::getModifiedDate))
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                .body(courses);
+    }
+
+    // The course with a page of its students in one request, instead of a request per student id
+    @GetMapping("/{id}/roster")
+    public Roster getRoster(
+            @PathVariable Long id,
+            @RequestParam(required = false) String search,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String count) {
+        DataQuery query = BaseRestController.getQuery(search, sort, page, pageSize, cursor, count).build();
 
-        // Only override page defaults if they were provided
-        if (page != null) {
-            builder.page(page);
+        return Roster.builder()
+                .course(service.get(id))
+                .students(studentService.getRoster(id, query))
+                .build();
+    }
+
+    // Rosters for several courses with the same page of students each, in the order of the ids. Unknown ids are
+    // left out. The page size defaults to a small one since it applies per course.
+    @GetMapping("/rosters")
+    public List<Roster> getRosters(
+            @RequestParam List<Long> ids,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(defaultValue = "20") Integer pageSize) {
+        if (ids.isEmpty()) {
+            return List.of();
         }
 
-        if (pageSize != null) {
-            builder.pageSize(pageSize);
+        DataQuery query = BaseRestController.getQuery(null, sort, page, pageSize, null, null).build();
+
+        Map<Long, CourseDto> courses = new HashMap<>();
+        for (CourseDto course : service.getAll(DataQuery.builder()
+                .ids(ids)
+                .pageSize(ids.size())
+                .countMode(CountMode.NONE)
+                .build()).getData()) {
+            courses.put(course.getId(), course);
         }
 
-        return service.getAll(builder.build());
+        List<Long> found = ids.stream().distinct().filter(courses::containsKey).toList();
+        List<Roster> rosters = new ArrayList<>();
+        studentService.getRosters(found, query).forEach((courseId, students) -> rosters.add(Roster.builder()
+                .course(courses.get(courseId))
+                .students(students)
+                .build()));
+
+        return rosters;
+    }
+
+    // Every row as NDJSON, streamed from a database cursor so memory use doesn't grow with the table
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Override
+    public ResponseEntity<StreamingResponseBody> export() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(service::export);
     }
 
     @PostMapping
@@ -74,4 +200,12 @@ public class CourseController implements BaseRestController<CourseDto> {
     public void delete(@PathVariable Long id) {
         service.delete(id);
     }
+
+    // Streams the body into the database, rows are never all held in memory
+    @PostMapping(value = "/bulk", consumes = { ImportFormat.CSV_VALUE, ImportFormat.NDJSON_VALUE })
+    @Override
+    public ImportResult bulkInsert(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body)
+            throws IOException {
+        return service.bulkInsert(body, ImportFormat.fromMediaType(contentType));
+    }
 }
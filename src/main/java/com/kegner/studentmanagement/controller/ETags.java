@@ -0,0 +1,63 @@
+package com.kegner.studentmanagement.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.function.Function;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.WebRequest;
+
+import com.kegner.studentmanagement.model.ListWrapper;
+
+/**
+ * Weak validators for the GET endpoints, built from ids and modified dates. The full response and the
+ * version only query produce the same value, so a conditional request can be answered without the join. They're
+ * weak because the same rows go out as JSON, CBOR or Smile and gzipped or not, which aren't byte for byte equal.
+ */
+final class ETags {
+    private ETags() {
+    }
+
+    // The version query is only worth running when the client has something to compare against
+    static boolean isConditional(WebRequest request) {
+        return request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+    }
+
+    static String of(Long id, OffsetDateTime modifiedDate) {
+        return hash(append(new StringBuilder(), id, modifiedDate));
+    }
+
+    // Covers the page metadata too, a row added past the end changes the total and hasMore but not the data
+    static <T> String of(ListWrapper<T> page, Function<T, Long> id, Function<T, OffsetDateTime> modifiedDate) {
+        StringBuilder builder = new StringBuilder();
+
+        for (T row : page.getData()) {
+            append(builder, id.apply(row), modifiedDate.apply(row)).append(',');
+        }
+
+        builder.append(page.getTotal()).append(',').append(page.getHasMore()).append(',').append(page.getCountMode());
+        return hash(builder);
+    }
+
+    // Milliseconds for the Last-Modified header, -1 leaves it off
+    static long lastModified(OffsetDateTime modifiedDate) {
+        return modifiedDate == null ? -1 : modifiedDate.toInstant().toEpochMilli();
+    }
+
+    // Compared as an instant so the offset the driver hands back doesn't matter
+    private static StringBuilder append(StringBuilder builder, Long id, OffsetDateTime modifiedDate) {
+        builder.append(id).append(':');
+
+        if (modifiedDate != null) {
+            builder.append(modifiedDate.toInstant());
+        }
+
+        return builder;
+    }
+
+    private static String hash(StringBuilder builder) {
+        return "W/\"" + DigestUtils.md5DigestAsHex(builder.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+}
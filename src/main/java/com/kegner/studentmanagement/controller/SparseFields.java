@@ -0,0 +1,73 @@
+package com.kegner.studentmanagement.controller;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.AbstractMappingJacksonResponseBodyAdvice;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.StudentDto;
+
+/**
+ * Serializes only the fields named in a fields request parameter, e.g. fields=firstName,email. The repository
+ * already selected just those columns for a list page, this keeps the unselected ones out of the response
+ * instead of writing them as nulls. The id is always written. Without the parameter every field is written, which
+ * is also what the export and any other use of the object mapper get.
+ */
+@ControllerAdvice
+public class SparseFields extends AbstractMappingJacksonResponseBodyAdvice
+        implements Jackson2ObjectMapperBuilderCustomizer {
+    private static final String FILTER = "fields";
+
+    @JsonFilter(FILTER)
+    private interface Filtered {
+    }
+
+    @Override
+    public void customize(Jackson2ObjectMapperBuilder builder) {
+        builder.mixIn(StudentDto.class, Filtered.class)
+                .mixIn(CourseDto.class, Filtered.class)
+                .filters(new SimpleFilterProvider().addFilter(FILTER, SimpleBeanPropertyFilter.serializeAll()));
+    }
+
+    @Override
+    protected void beforeBodyWriteInternal(MappingJacksonValue bodyContainer, MediaType contentType,
+            MethodParameter returnType, ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(request instanceof ServletServerHttpRequest servletRequest)) {
+            return;
+        }
+
+        // Repeated parameters and comma separated values both work, the same as binding to a list
+        String[] values = servletRequest.getServletRequest().getParameterValues(FILTER);
+        if (values == null) {
+            return;
+        }
+
+        Set<String> fields = new HashSet<>();
+        for (String value : values) {
+            Arrays.stream(value.split(",")).map(String::trim).filter(field -> !field.isEmpty()).forEach(fields::add);
+        }
+
+        // An empty parameter means every field, the same as the repository treats it
+        if (fields.isEmpty()) {
+            return;
+        }
+
+        fields.add("id");
+        bodyContainer.setFilters(new SimpleFilterProvider().addFilter(FILTER,
+                SimpleBeanPropertyFilter.filterOutAllExcept(fields)));
+    }
+}
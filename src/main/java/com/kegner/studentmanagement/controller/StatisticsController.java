@@ -0,0 +1,32 @@
+package com.kegner.studentmanagement.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.kegner.studentmanagement.model.EnrollmentStatistics;
+import com.kegner.studentmanagement.model.GpaStatistics;
+import com.kegner.studentmanagement.service.StatisticsService;
+
+// Read only aggregates for dashboards, served from memory rather than queried per request
+@RestController
+@CrossOrigin(origins = "${cors.allowed-origins}", exposedHeaders = HttpHeaders.RETRY_AFTER)
+@RequestMapping("/api/v1/statistics")
+public class StatisticsController {
+    @Autowired
+    private StatisticsService service;
+
+    @GetMapping("/gpa")
+    public ResponseEntity<GpaStatistics> getGpa() {
+        return ResponseEntity.ok(service.getGpa());
+    }
+
+    @GetMapping("/enrollment")
+    public ResponseEntity<EnrollmentStatistics> getEnrollment() {
+        return ResponseEntity.ok(service.getEnrollment());
+    }
+}
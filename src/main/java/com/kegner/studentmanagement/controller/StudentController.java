@@ -1,8 +1,13 @@
 package com.kegner.studentmanagement.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,51 +15,145 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.EnrollmentChange;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.QueuedEnrollmentChange;
+import com.kegner.studentmanagement.model.RowVersion;
+import com.kegner.studentmanagement.model.Schedule;
 import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.service.CourseService;
 import com.kegner.studentmanagement.service.StudentService;
 
 @RestController
-@CrossOrigin(origins = "${cors.allowed-origins}")
+@CrossOrigin(origins = "${cors.allowed-origins}", exposedHeaders = { HttpHeaders.RETRY_AFTER, HttpHeaders.LOCATION })
 @RequestMapping("/api/v1/students")
 public class StudentController implements BaseRestController<StudentDto> {
     @Autowired
     private StudentService service;
 
+    @Autowired
+    private CompressedPages pages;
+
+    // Schedules embed the courses of a student
+    @Autowired
+    private CourseService courseService;
+
     @GetMapping("/{id}")
     @Override
-    public StudentDto get(@PathVariable Long id) {
-        return service.get(id);
+    public ResponseEntity<StudentDto> get(@PathVariable Long id, WebRequest request) {
+        // Revalidate against the modified date alone, the 304 is already set up when this returns true. Queued
+        // enrollment changes show in the body but not in the modified date, so until they're written there is
+        // nothing to revalidate against.
+        if (ETags.isConditional(request) && !service.hasPendingEnrollments(List.of(id))) {
+            RowVersion version = service.getVersion(id);
+            if (request.checkNotModified(ETags.of(version.getId(), version.getModifiedDate()),
+                    ETags.lastModified(version.getModifiedDate()))) {
+                return null;
+            }
+        }
+
+        StudentDto dto = service.get(id);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (!service.hasPendingEnrollments(List.of(id))) {
+            response.eTag(ETags.of(dto.getId(), dto.getModifiedDate()));
+            if (dto.getModifiedDate() != null) {
+                response.lastModified(dto.getModifiedDate().toInstant());
+            }
+        }
+
+        return response.body(dto);
     }
 
     @GetMapping
     @Override
-    public ListWrapper<StudentDto> getAll(
+    public ResponseEntity<ListWrapper<StudentDto>> getAll(
             @RequestParam(required = false) List<Long> ids,
             @RequestParam(required = false) String search,
             @RequestParam(required = false) String sort,
             @RequestParam(required = false) Integer page,
-            @RequestParam(required = false) Integer pageSize) {
-        DataQuery.DataQueryBuilder builder = DataQuery.builder()
-                .ids(ids)
-                .search(search)
-                .sort(sort);
-
-        // Only override page defaults if they were provided
-        if (page != null) {
-            builder.page(page);
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String count,
+            @RequestParam(required = false) List<String> fields,
+            WebRequest request) throws IOException {
+        DataQuery.DataQueryBuilder builder = BaseRestController.getQuery(search, sort, page, pageSize, cursor, count)
+                .ids(ids);
+
+        if (fields != null) {
+            builder.fields(fields);
+        }
+
+        DataQuery query = builder.build();
+
+        // Same page with only ids and modified dates, so an unchanged page skips the join and serialization.
+        // No Last-Modified here, the newest modified date can't tell that a row left the page. A page with
+        // queued enrollment changes shows them but its versions don't, so it's always built fresh.
+        if (ETags.isConditional(request) || pages.isCacheable(query, request)) {
+            ListWrapper<RowVersion> versions = service.getAllVersions(query);
+            String eTag = ETags.of(versions, RowVersion::getId, RowVersion::getModifiedDate);
+
+            if (!service.hasPendingEnrollments(versions.getData().stream().map(RowVersion::getId).toList())) {
+                if (ETags.isConditional(request) && request.checkNotModified(eTag)) {
+                    return null;
+                }
+
+                // Popular unfiltered pages are served already serialized and gzipped while their ETag still matches
+                if (pages.isCacheable(query, request)
+                        && pages.write("students", query, eTag, request, () -> service.getAll(query))) {
+                    return null;
+                }
+            }
         }
 
-        if (pageSize != null) {
-            builder.pageSize(pageSize);
+        ListWrapper<StudentDto> students = service.getAll(query);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (!service.hasPendingEnrollments(students.getData().stream().map(StudentDto::getId).toList())) {
+            response.eTag(ETags.of(students, StudentDto::getId, StudentDto::getModifiedDate));
         }
 
-        return service.getAll(builder.build());
+        return response.body(students);
+    }
+
+    // The student with a page of their courses in full, instead of a request per course id
+    @GetMapping("/{id}/schedule")
+    public Schedule getSchedule(
+            @PathVariable Long id,
+            @RequestParam(required = false) String search,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String count) {
+        DataQuery query = BaseRestController.getQuery(search, sort, page, pageSize, cursor, count)
+                .enrolledWith(id)
+                .build();
+
+        return Schedule.builder()
+                .student(service.get(id))
+                .courses(courseService.getAll(query))
+                .build();
+    }
+
+    // Every row as NDJSON, streamed from a database cursor so memory use doesn't grow with the table
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Override
+    public ResponseEntity<StreamingResponseBody> export() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(service::export);
     }
 
     @PostMapping
@@ -69,9 +168,39 @@ public class StudentController implements BaseRestController<StudentDto> {
         service.update(dto);
     }
 
+    // Enroll in or drop courses without resending the student. With write-behind on, this answers 202 once the
+    // change is stored and queued, or 200 once it's written when wait=true. The body shows the change either way,
+    // and a 202's Location is where the client can see whether it was written or failed.
+    @PostMapping("/{id}/enrollments")
+    public ResponseEntity<StudentDto> updateEnrollments(@PathVariable Long id, @RequestBody EnrollmentChange change,
+            @RequestParam(defaultValue = "false") boolean wait) {
+        QueuedEnrollmentChange queued = service.updateEnrollments(id, change, wait);
+        if (queued == null) {
+            return ResponseEntity.ok(service.get(id));
+        }
+
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequestUri().path("/{changeId}")
+                        .buildAndExpand(queued.getId()).toUri())
+                .body(service.get(id));
+    }
+
+    @GetMapping("/{id}/enrollments/{changeId}")
+    public QueuedEnrollmentChange getEnrollmentChange(@PathVariable Long id, @PathVariable Long changeId) {
+        return service.getEnrollmentChange(id, changeId);
+    }
+
     @DeleteMapping("/{id}")
     @Override
     public void delete(@PathVariable Long id) {
         service.delete(id);
     }
+
+    // Streams the body into the database, rows are never all held in memory
+    @PostMapping(value = "/bulk", consumes = { ImportFormat.CSV_VALUE, ImportFormat.NDJSON_VALUE })
+    @Override
+    public ImportResult bulkInsert(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body)
+            throws IOException {
+        return service.bulkInsert(body, ImportFormat.fromMediaType(contentType));
+    }
 }
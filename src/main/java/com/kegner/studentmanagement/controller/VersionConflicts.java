@@ -0,0 +1,20 @@
+package com.kegner.studentmanagement.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.kegner.studentmanagement.exceptions.VersionConflictException;
+
+/**
+ * Answers a lost update with a 409 whose body is the row as it is now, so the client doesn't need another GET
+ * before it merges and retries. The body's modifiedDate is the version to send with the retry.
+ */
+@RestControllerAdvice
+public class VersionConflicts {
+    @ExceptionHandler(VersionConflictException.class)
+    public ResponseEntity<Object> handle(VersionConflictException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getCurrent());
+    }
+}
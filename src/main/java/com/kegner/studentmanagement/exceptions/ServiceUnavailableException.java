@@ -0,0 +1,29 @@
+package com.kegner.studentmanagement.exceptions;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+// A 503 with Retry-After, so clients back off for a while instead of retrying straight away
+public class ServiceUnavailableException extends ResponseStatusException {
+    private final Duration retryAfter;
+
+    public ServiceUnavailableException(String message, Duration retryAfter) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    // Whole seconds, at least one
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (retryAfter.toMillis() + 999) / 1000)));
+        return headers;
+    }
+}
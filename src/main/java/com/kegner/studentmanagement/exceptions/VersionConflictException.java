@@ -0,0 +1,15 @@
+package com.kegner.studentmanagement.exceptions;
+
+// The row changed since the client read it, carries the current state for the 409 VersionConflicts writes
+public class VersionConflictException extends RuntimeException {
+    private final transient Object current;
+
+    public VersionConflictException(String message, Object current) {
+        super(message);
+        this.current = current;
+    }
+
+    public Object getCurrent() {
+        return current;
+    }
+}
@@ -0,0 +1,13 @@
+package com.kegner.studentmanagement.mapper;
+
+import org.mapstruct.Mapper;
+
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.CourseEntity;
+
+@Mapper(config = MappingConfig.class)
+public interface CourseMapper {
+    public CourseDto toDto(CourseEntity entity);
+
+    public CourseEntity toEntity(CourseDto dto);
+}
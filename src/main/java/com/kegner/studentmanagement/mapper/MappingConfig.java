@@ -0,0 +1,15 @@
+package com.kegner.studentmanagement.mapper;
+
+import org.mapstruct.MapperConfig;
+import org.mapstruct.MappingConstants;
+import org.mapstruct.ReportingPolicy;
+
+/**
+ * Shared settings for the generated mappers. Any property on one side without a match on the other
+ * fails the build, so an entity and its DTO can't drift apart silently.
+ */
+@MapperConfig(componentModel = MappingConstants.ComponentModel.SPRING,
+        unmappedSourcePolicy = ReportingPolicy.ERROR,
+        unmappedTargetPolicy = ReportingPolicy.ERROR)
+public interface MappingConfig {
+}
@@ -0,0 +1,21 @@
+package com.kegner.studentmanagement.mapper;
+
+import org.mapstruct.BeanMapping;
+import org.mapstruct.Mapper;
+
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.model.StudentSummary;
+
+@Mapper(config = MappingConfig.class)
+public interface StudentMapper {
+    public StudentDto toDto(StudentEntity entity);
+
+    // fullName is derived from the first and last name, so there's nothing to store
+    @BeanMapping(ignoreUnmappedSourceProperties = "fullName")
+    public StudentEntity toEntity(StudentDto dto);
+
+    @BeanMapping(ignoreUnmappedSourceProperties = { "phoneNumber", "dateOfBirth", "gpa", "courseIds", "createdDate",
+            "modifiedDate" })
+    public StudentSummary toSummary(StudentEntity entity);
+}
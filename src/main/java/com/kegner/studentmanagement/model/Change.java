@@ -0,0 +1,24 @@
+package com.kegner.studentmanagement.model;
+
+import java.time.OffsetDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// One committed write in the change feed
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class Change {
+    // Position in the feed and the SSE event id, a reconnect resumes after it
+    private final long sequence;
+    private final ChangeType type;
+    // The student or course, null for a reload
+    private final Long id;
+    // Only set for enrollments
+    private final Long courseId;
+    private final OffsetDateTime timestamp;
+}
@@ -0,0 +1,25 @@
+package com.kegner.studentmanagement.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * What a change in the change feed did, also the SSE event name.
+ */
+public enum ChangeType {
+    STUDENT_CREATED,
+    STUDENT_UPDATED,
+    STUDENT_DELETED,
+    COURSE_CREATED,
+    COURSE_UPDATED,
+    COURSE_DELETED,
+    // The id is the student, the course id the course they enrolled in or dropped
+    ENROLLED,
+    UNENROLLED,
+    // Rows changed that the feed doesn't list one by one, e.g. a bulk import or changes the client missed
+    RELOAD;
+
+    @JsonValue
+    public String getValue() {
+        return name().toLowerCase().replace('_', '-');
+    }
+}
@@ -0,0 +1,31 @@
+package com.kegner.studentmanagement.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+
+/**
+ * How the total row count is calculated for a list query.
+ */
+public enum CountMode {
+    // Runs a COUNT(*) over the filtered rows
+    EXACT,
+    // Uses planner statistics, or an EXPLAIN row estimate when filters are applied
+    ESTIMATED,
+    // Skips the total and only reports whether there are more rows
+    NONE;
+
+    @JsonValue
+    public String getValue() {
+        return name().toLowerCase();
+    }
+
+    public static CountMode fromValue(String value) {
+        for (CountMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+
+        throw new InvalidRequestException("The count mode " + value + " is not valid.");
+    }
+}
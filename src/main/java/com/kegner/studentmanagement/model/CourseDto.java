@@ -28,6 +28,6 @@ public class CourseDto {
     private final List<Long> studentIds = new ArrayList<>();
     @JsonProperty(access = Access.READ_ONLY)
     private final OffsetDateTime createdDate;
-    @JsonProperty(access = Access.READ_ONLY)
+    // Read back on a PUT as the version the client based its change on
     private final OffsetDateTime modifiedDate;
 }
@@ -18,9 +18,18 @@ public class DataQuery {
     @Builder.Default
     private final List<Long> ids = new ArrayList<>();
     private final String search;
+    // Only rows enrolled with this id, a course id when listing students and a student id when listing courses
+    private final Long enrolledWith;
     private final String sort;
+    // Opaque keyset cursor from a previous page, replaces the page offset when present
+    private final String cursor;
     @Builder.Default
     private final Integer page = 0;
     @Builder.Default
     private final Integer pageSize = BaseRepository.MAX_LIMIT;
+    @Builder.Default
+    private final CountMode countMode = CountMode.EXACT;
+    // Sparse fieldset by API field name, empty for every field
+    @Builder.Default
+    private final List<String> fields = new ArrayList<>();
 }
\ No newline at end of file
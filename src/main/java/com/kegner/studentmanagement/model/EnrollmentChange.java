@@ -0,0 +1,21 @@
+package com.kegner.studentmanagement.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// Courses a student enrolls in or drops, leaving the rest of their enrollments as they are
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class EnrollmentChange {
+    @Builder.Default
+    private final List<Long> add = new ArrayList<>();
+    @Builder.Default
+    private final List<Long> remove = new ArrayList<>();
+}
@@ -0,0 +1,19 @@
+package com.kegner.studentmanagement.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Where a write-behind enrollment change is, stored by name in enrollment_change.status.
+ */
+public enum EnrollmentChangeStatus {
+    // Accepted and durable, but not in student_course yet
+    PENDING,
+    WRITTEN,
+    // Couldn't be written, e.g. the student was deleted meanwhile. The error says why.
+    FAILED;
+
+    @JsonValue
+    public String getValue() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,45 @@
+package com.kegner.studentmanagement.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class EnrollmentStatistics {
+    @Builder.Default
+    private final List<Course> courses = new ArrayList<>();
+    @Builder.Default
+    private final List<Group> departments = new ArrayList<>();
+    @Builder.Default
+    private final List<Group> semesters = new ArrayList<>();
+
+    @Getter
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @NoArgsConstructor(force = true)
+    public static class Course {
+        private final Long id;
+        private final String departmentName;
+        private final String semester;
+        private final long students;
+    }
+
+    // A department or semester
+    @Getter
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @NoArgsConstructor(force = true)
+    public static class Group {
+        private final String name;
+        private final long courses;
+        private final long students;
+        private final Double meanStudents;
+    }
+}
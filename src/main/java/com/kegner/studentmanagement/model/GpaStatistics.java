@@ -0,0 +1,39 @@
+package com.kegner.studentmanagement.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class GpaStatistics {
+    private final Distribution overall;
+    @Builder.Default
+    private final List<Distribution> majors = new ArrayList<>();
+
+    @Getter
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @NoArgsConstructor(force = true)
+    public static class Distribution {
+        // Null for the overall distribution and for students without a major
+        private final String major;
+        private final long students;
+        // Students with a GPA, the rest aren't in the mean, percentiles or histogram
+        private final long graded;
+        private final Double mean;
+        // Keyed p10, p25, p50, p75 and p90, each the lower bound of the histogram bucket it falls in
+        private final Map<String, Double> percentiles;
+        private final double bucketWidth;
+        // Student count per bucket starting at 0.0, the last one also holds anything above 4.0
+        @Builder.Default
+        private final List<Long> histogram = new ArrayList<>();
+    }
+}
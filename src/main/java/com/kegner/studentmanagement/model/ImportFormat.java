@@ -0,0 +1,28 @@
+package com.kegner.studentmanagement.model;
+
+import org.springframework.http.MediaType;
+
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+
+/**
+ * Body formats accepted by the bulk import endpoints.
+ */
+public enum ImportFormat {
+    CSV,
+    NDJSON;
+
+    public static final String CSV_VALUE = "text/csv";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    public static ImportFormat fromMediaType(MediaType mediaType) {
+        if (MediaType.valueOf(CSV_VALUE).includes(mediaType)) {
+            return CSV;
+        }
+
+        if (MediaType.valueOf(NDJSON_VALUE).includes(mediaType)) {
+            return NDJSON;
+        }
+
+        throw new InvalidRequestException("The content type " + mediaType + " can't be imported.");
+    }
+}
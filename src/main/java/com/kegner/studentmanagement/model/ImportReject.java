@@ -0,0 +1,15 @@
+package com.kegner.studentmanagement.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class ImportReject {
+    private final Long line;
+    private final String reason;
+}
@@ -0,0 +1,23 @@
+package com.kegner.studentmanagement.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class ImportResult {
+    public static final int MAX_REJECTS = 1000;
+
+    private final Integer inserted;
+    private final Integer rejected;
+    // Capped, so a badly broken file can't blow up the response. rejected always has the full count.
+    @Builder.Default
+    private final List<ImportReject> rejects = new ArrayList<>();
+}
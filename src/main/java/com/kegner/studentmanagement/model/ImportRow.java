@@ -0,0 +1,14 @@
+package com.kegner.studentmanagement.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A parsed import row along with the line it came from, so database rejects can be reported per line.
+ */
+@Getter
+@AllArgsConstructor
+public class ImportRow<T> {
+    private final long line;
+    private final T value;
+}
@@ -16,5 +16,10 @@ public class ListWrapper<T> {
     @Builder.Default
     private final List<T> data = new ArrayList<>();
     private final Integer count;
+    // Null when the count mode is none
     private final Integer total;
+    private final CountMode countMode;
+    private final Boolean hasMore;
+    // Cursor for continuing after the last row, null when there are no more rows
+    private final String nextCursor;
 }
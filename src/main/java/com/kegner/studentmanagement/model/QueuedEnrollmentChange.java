@@ -0,0 +1,28 @@
+package com.kegner.studentmanagement.model;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// An enrollment change accepted by the write-behind queue, and what became of it
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class QueuedEnrollmentChange {
+    private final Long id;
+    private final Long studentId;
+    @Builder.Default
+    private final List<Long> add = new ArrayList<>();
+    @Builder.Default
+    private final List<Long> remove = new ArrayList<>();
+    private final EnrollmentChangeStatus status;
+    private final String error;
+    private final OffsetDateTime createdDate;
+    private final OffsetDateTime modifiedDate;
+}
@@ -0,0 +1,16 @@
+package com.kegner.studentmanagement.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// A course with a page of its enrolled students
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class Roster {
+    private final CourseDto course;
+    private final ListWrapper<StudentSummary> students;
+}
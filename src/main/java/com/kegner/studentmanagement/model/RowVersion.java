@@ -0,0 +1,18 @@
+package com.kegner.studentmanagement.model;
+
+import java.time.OffsetDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// Just enough of a row to tell whether it changed, read without the junction table join
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class RowVersion {
+    private final Long id;
+    private final OffsetDateTime modifiedDate;
+}
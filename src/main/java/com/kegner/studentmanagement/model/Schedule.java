@@ -0,0 +1,16 @@
+package com.kegner.studentmanagement.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// A student with a page of the courses they are enrolled in
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class Schedule {
+    private final StudentDto student;
+    private final ListWrapper<CourseDto> courses;
+}
@@ -30,7 +30,7 @@ public class StudentDto {
     private final List<Long> courseIds = new ArrayList<>();
     @JsonProperty(access = Access.READ_ONLY)
     private final OffsetDateTime createdDate;
-    @JsonProperty(access = Access.READ_ONLY)
+    // Read back on a PUT as the version the client based its change on
     private final OffsetDateTime modifiedDate;
 
     @JsonProperty("fullName")
@@ -0,0 +1,26 @@
+package com.kegner.studentmanagement.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+// Enough of a student to list them on a course roster, read without the junction table
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class StudentSummary {
+    private final Long id;
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+    private final String major;
+
+    @JsonProperty("fullName")
+    public String getFullName() {
+        return firstName + " " + lastName;
+    }
+}
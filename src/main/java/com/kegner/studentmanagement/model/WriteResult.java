@@ -0,0 +1,36 @@
+package com.kegner.studentmanagement.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class WriteResult {
+    private final Long id;
+    // Ids on the other side of student_course whose enrollment changed with this write
+    @Builder.Default
+    private final List<Long> addedIds = new ArrayList<>();
+    @Builder.Default
+    private final List<Long> removedIds = new ArrayList<>();
+    // Rows actually inserted, updated or deleted, 0 when the write turned out to be a no-op
+    private final int rowsAffected;
+    // The row changed after the version the write was based on, so nothing was written
+    private final boolean conflict;
+
+    public boolean isChanged() {
+        return rowsAffected > 0;
+    }
+
+    public List<Long> getLinkedIds() {
+        List<Long> linkedIds = new ArrayList<>(addedIds);
+        linkedIds.addAll(removedIds);
+        return linkedIds;
+    }
+}
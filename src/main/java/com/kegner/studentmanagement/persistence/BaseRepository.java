@@ -1,41 +1,337 @@
 package com.kegner.studentmanagement.persistence;
 
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.util.CollectionUtils;
 
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+import com.kegner.studentmanagement.model.CountMode;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportResult;
+import com.kegner.studentmanagement.model.ImportRow;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.RowVersion;
+import com.kegner.studentmanagement.model.WriteResult;
 
 public interface BaseRepository<T> {
     static final int MAX_LIMIT = 1000;
+    // Rows pulled per round trip while streaming an export
+    static final int EXPORT_FETCH_SIZE = 500;
     static final List<String> validSorting = List.of("ASC", "DESC");
+    static final Pattern planRows = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
+    // Computed per row from the search term, only selectable alongside a search
+    static final String RELEVANCE = "relevance";
 
     public T get(Long Id);
 
     public ListWrapper<T> getAll(DataQuery query);
 
-    public void insert(T object);
+    // Several rows by id in one query, through the same ids filter as a list request. Missing ids are left out.
+    // Calls getAll on the repository itself rather than its proxy, so like get it reads from the primary: both
+    // fill the entity cache, which would otherwise keep whatever a lagging replica returned until it expires.
+    public default List<T> getAllById(List<Long> ids) {
+        return getAll(DataQuery.builder()
+                .ids(ids)
+                .pageSize(ids.size())
+                .countMode(CountMode.NONE)
+                .build()).getData();
+    }
 
-    public void update(T object);
+    public RowVersion getVersion(Long id);
 
-    public void delete(Long id);
+    public ListWrapper<RowVersion> getAllVersions(DataQuery query);
 
-    // shared method for creating order by clause
-    public static String getOrderByClause(DataQuery query, List<String> validColumns) {
-        String orderBy = " ORDER BY modified_date DESC NULLS LAST ";
+    public void export(Consumer<T> consumer);
+
+    public WriteResult insert(T object);
+
+    public WriteResult update(T object);
+
+    public WriteResult delete(Long id);
 
+    public ImportResult bulkInsert(Iterator<ImportRow<T>> rows);
+
+    // shared method for resolving the validated sort column and direction
+    public static SortKey getSortKey(DataQuery query, List<String> validColumns) {
         if (StringUtils.isNotBlank(query.getSort())) {
             String[] sort = query.getSort().split(":");
 
             if (sort.length == 2) {
                 String dbField = sort[0].replaceAll("([A-Z])", "_$1").toLowerCase();
-                if (validColumns.contains(dbField) && validSorting.contains(sort[1].toUpperCase())) {
-                    orderBy = " ORDER BY " + dbField + " " + sort[1] + " ";
+                String direction = sort[1].toUpperCase();
+                if (validColumns.contains(dbField) && validSorting.contains(direction)) {
+                    return new SortKey(dbField, direction);
                 }
             }
         }
 
-        return orderBy;
+        // Searches are ranked best match first unless another sort was asked for
+        if (StringUtils.isNotBlank(query.getSearch())) {
+            return new SortKey(RELEVANCE, "DESC");
+        }
+
+        return new SortKey("modified_date", "DESC");
+    }
+
+    // shared method for the pagination values, seek clause and sparse fieldset, added on to the table's own where
+    // clause. The link field is the one filled from student_course, e.g. courseIds.
+    public static PageQuery getPageQuery(DataQuery query, List<String> validColumns, String linkField,
+            String whereClause, MapSqlParameterSource params) {
+        SortKey sortKey = getSortKey(query, validColumns);
+        boolean keyset = StringUtils.isNotBlank(query.getCursor());
+        int limit = Math.min(query.getPageSize(), MAX_LIMIT);
+
+        // A cursor replaces the offset entirely. One extra row is fetched to tell whether there is
+        // another page without needing the total.
+        params.addValue("limit", limit + 1)
+                .addValue("offset", keyset ? 0 : query.getPage() * query.getPageSize());
+
+        boolean relevance = RELEVANCE.equals(sortKey.getColumn());
+
+        // The score isn't stored anywhere, so there is nothing for a cursor to seek on
+        if (keyset && relevance) {
+            throw new InvalidRequestException("Search results ranked by relevance are paged with page, not cursor.");
+        }
+
+        // Seek past the last row of the previous page, only applies to the page and not the total
+        String seekClause = "";
+        String paging = "offset";
+        if (keyset) {
+            PageCursor cursor = PageCursor.decode(query.getCursor(), sortKey);
+            seekClause = getSeekClause(sortKey, cursor, params);
+            paging = cursor.getValue() == null ? "seek-null" : "seek";
+        }
+
+        // Scored with the same term getSearchClause added, it's the word_similarity behind <%
+        String relevanceColumn = relevance ? ", word_similarity(:search, search_text) AS " + RELEVANCE + " " : "";
+
+        boolean linked = CollectionUtils.isEmpty(query.getFields()) || query.getFields().contains(linkField);
+
+        return new PageQuery(sortKey, limit, whereClause, seekClause, relevanceColumn, params,
+                getFilterShape(query), paging, getSelectColumns(query, validColumns, linkField, sortKey), linked);
+    }
+
+    // shared method for the columns a sparse fieldset selects, empty when every column is wanted. The id and
+    // modified date are always read for the ETag and so is the sort column for the cursor. Kept in the table's
+    // column order so the same fields always give the same statement.
+    public static List<String> getSelectColumns(DataQuery query, List<String> validColumns, String linkField,
+            SortKey sortKey) {
+        if (CollectionUtils.isEmpty(query.getFields())) {
+            return List.of();
+        }
+
+        Set<String> requested = new HashSet<>(List.of("id", "modified_date", sortKey.getColumn()));
+        for (String field : query.getFields()) {
+            if (field.equals(linkField)) {
+                continue;
+            }
+
+            String dbField = field.replaceAll("([A-Z])", "_$1").toLowerCase();
+            if (!validColumns.contains(dbField)) {
+                throw new InvalidRequestException("The field " + field + " is not valid.");
+            }
+
+            requested.add(dbField);
+        }
+
+        return validColumns.stream().filter(requested::contains).toList();
+    }
+
+    // shared method naming the filters a query uses, the tables all support the same ones
+    public static String getFilterShape(DataQuery query) {
+        List<String> filters = new ArrayList<>();
+
+        if (!CollectionUtils.isEmpty(query.getIds())) {
+            filters.add("ids");
+        }
+
+        if (StringUtils.isNotBlank(query.getSearch())) {
+            filters.add("search");
+        }
+
+        if (query.getEnrolledWith() != null) {
+            filters.add("enrolled");
+        }
+
+        return filters.isEmpty() ? "all" : String.join("+", filters);
+    }
+
+    // shared method for binding ids as one bigint[] for id = ANY(:ids). A list would be expanded into one
+    // placeholder per id, giving a different statement for every list length.
+    public static SqlParameterValue getIdArray(Collection<Long> ids) {
+        return new SqlParameterValue(Types.ARRAY, ids.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    // shared method for reading a bigint[] column, e.g. ids returned from a data modifying CTE
+    public static List<Long> getIds(Array array) throws SQLException {
+        if (array == null) {
+            return new ArrayList<>();
+        }
+
+        try {
+            return new ArrayList<>(Arrays.asList((Long[]) array.getArray()));
+        } finally {
+            array.free();
+        }
+    }
+
+    // shared method for the search filter over the table's generated, trigram indexed search_text column.
+    // Substring matches use LIKE and typos fall back to word similarity, both are served by the GIN index.
+    public static String getSearchClause(String search, MapSqlParameterSource params) {
+        String term = search.trim().toLowerCase(Locale.ROOT);
+        String escaped = term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+
+        params.addValue("search", term)
+                .addValue("searchPattern", "%" + escaped + "%");
+
+        return " AND (search_text LIKE :searchPattern OR :search <% search_text) ";
+    }
+
+    // shared method for creating order by clause
+    public static String getOrderByClause(DataQuery query, List<String> validColumns) {
+        return getSortKey(query, validColumns).getOrderByClause();
+    }
+
+    // shared method for creating the keyset condition that continues after the cursor row
+    public static String getSeekClause(SortKey sortKey, PageCursor cursor, MapSqlParameterSource params) {
+        String operator = sortKey.isAscending() ? ">" : "<";
+        String column = sortKey.getColumn();
+
+        params.addValue("cursorId", cursor.getId());
+
+        if ("id".equals(column)) {
+            return " AND id " + operator + " :cursorId ";
+        }
+
+        // Nulls sort last, so a null cursor value means only the remaining null rows are left
+        if (cursor.getValue() == null) {
+            return " AND " + column + " IS NULL AND id " + operator + " :cursorId ";
+        }
+
+        // Sent untyped so Postgres casts the value to whatever type the sort column has
+        params.addValue("cursorValue", new SqlParameterValue(Types.OTHER, cursor.getValue()));
+
+        return " AND ((" + column + ", id) " + operator + " (:cursorValue, :cursorId) OR " + column + " IS NULL) ";
+    }
+
+    // shared method for the total row count, using the strategy requested by the count mode
+    public static Integer getTotal(NamedParameterJdbcTemplate jdbcTemplate, StatementRegistry statements,
+            String table, PageQuery pageQuery, CountMode countMode) {
+        if (countMode == CountMode.NONE) {
+            return null;
+        }
+
+        if (countMode == CountMode.ESTIMATED) {
+            Integer estimate = getEstimatedCount(jdbcTemplate, statements, table, pageQuery);
+
+            if (estimate != null) {
+                return estimate;
+            }
+        }
+
+        String sql = statements.get(table, "count", pageQuery.getFilterShape(),
+                () -> "SELECT COUNT(*) FROM " + table + pageQuery.getWhereClause());
+
+        return jdbcTemplate.queryForObject(sql, pageQuery.getParams(), Integer.class);
+    }
+
+    // Returns null when Postgres has no estimate to give, so the caller can fall back to an exact count
+    private static Integer getEstimatedCount(NamedParameterJdbcTemplate jdbcTemplate, StatementRegistry statements,
+            String table, PageQuery pageQuery) {
+        // Unfiltered, so the table statistics are enough. reltuples is -1 until the table is analyzed.
+        if ("all".equals(pageQuery.getFilterShape())) {
+            Long reltuples = jdbcTemplate.queryForObject(
+                    "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(:table)",
+                    new MapSqlParameterSource("table", table), Long.class);
+
+            if (reltuples != null && reltuples >= 0) {
+                return (int) Math.min(reltuples, Integer.MAX_VALUE);
+            }
+        }
+
+        // Filtered, so ask the planner how many rows it expects the where clause to match
+        String sql = statements.get(table, "estimate", pageQuery.getFilterShape(),
+                () -> "EXPLAIN (FORMAT JSON) SELECT 1 FROM " + table + pageQuery.getWhereClause());
+        String plan = jdbcTemplate.queryForObject(sql, pageQuery.getParams(), String.class);
+
+        Matcher matcher = planRows.matcher(plan == null ? "" : plan);
+        if (matcher.find()) {
+            return (int) Math.min(Long.parseLong(matcher.group(1)), Integer.MAX_VALUE);
+        }
+
+        return null;
+    }
+
+    // shared method for the id and modified date of a single row, null if it doesn't exist
+    public static RowVersion getVersion(NamedParameterJdbcTemplate jdbcTemplate, StatementRegistry statements,
+            String table, Long id) {
+        String sql = statements.get(table, "version", "by-id",
+                () -> "SELECT id, modified_date FROM " + table + " WHERE id = :id");
+        List<RowVersion> versions = jdbcTemplate.query(sql, new MapSqlParameterSource("id", id),
+                BaseRepository::mapVersion);
+
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    // shared method for the same page getAll would return, but only the ids and modified dates and no join
+    public static ListWrapper<RowVersion> getVersions(NamedParameterJdbcTemplate jdbcTemplate,
+            StatementRegistry statements, String table, PageQuery pageQuery, CountMode countMode) {
+        String sql = statements.get(table, "versions", pageQuery.getShape(),
+                () -> "SELECT id, modified_date" + pageQuery.getRelevanceColumn() + " FROM " + table
+                        + pageQuery.getWhereClause() + pageQuery.getSeekClause()
+                        + pageQuery.getOrderByClause() + " LIMIT :limit OFFSET :offset");
+        List<RowVersion> versions = new ArrayList<>(jdbcTemplate.query(sql, pageQuery.getParams(),
+                BaseRepository::mapVersion));
+
+        Integer total = getTotal(jdbcTemplate, statements, table, pageQuery, countMode);
+
+        boolean hasMore = versions.size() > pageQuery.getLimit();
+        if (hasMore) {
+            versions.remove(pageQuery.getLimit());
+        }
+
+        return ListWrapper.<RowVersion>builder()
+                .data(versions)
+                .count(versions.size())
+                .total(total)
+                .countMode(countMode)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    // shared method for bumping modified_date on the other side of student_course when its enrollments change,
+    // since those ids are part of that side's representation and its ETag
+    public static void touch(NamedParameterJdbcTemplate jdbcTemplate, String table, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update("UPDATE " + table + " SET modified_date = :modifiedDate WHERE id = ANY(:ids)",
+                new MapSqlParameterSource()
+                        .addValue("modifiedDate", OffsetDateTime.now())
+                        .addValue("ids", getIdArray(ids)));
+    }
+
+    private static RowVersion mapVersion(ResultSet rs, int rowNum) throws SQLException {
+        return new RowVersion(rs.getLong("id"), rs.getObject("modified_date", OffsetDateTime.class));
     }
 }
@@ -0,0 +1,94 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * Streams rows into a COPY ... FROM STDIN WITH (FORMAT csv) statement. Rows go out as the driver's
+ * buffer fills, so nothing beyond that buffer is held in memory.
+ */
+final class CopyWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PGCopyOutputStream copyStream;
+    private final Writer writer;
+
+    CopyWriter(Connection connection, String copySql) throws SQLException {
+        copyStream = new PGCopyOutputStream(connection.unwrap(PGConnection.class), copySql, BUFFER_SIZE);
+        writer = new BufferedWriter(new OutputStreamWriter(copyStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    void writeRow(Object... values) {
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+
+                writeValue(values[i]);
+            }
+
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Ends the copy and returns the number of rows Postgres received
+    long finish() throws IOException, SQLException {
+        writer.flush();
+        return copyStream.endCopy();
+    }
+
+    // Cancels the copy if it didn't finish, otherwise the connection is left stuck in copy mode
+    @Override
+    public void close() throws IOException {
+        if (copyStream.isActive()) {
+            try {
+                copyStream.cancelCopy();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        // An unquoted empty field is NULL in csv format
+        if (value == null) {
+            return;
+        }
+
+        String text;
+        if (value instanceof Collection<?> collection) {
+            // Array literal, only used for id lists so the elements never need quoting
+            StringBuilder builder = new StringBuilder("{");
+            for (Object element : collection) {
+                if (element == null) {
+                    continue;
+                }
+                if (builder.length() > 1) {
+                    builder.append(',');
+                }
+                builder.append(element);
+            }
+            text = builder.append('}').toString();
+        } else {
+            text = value.toString();
+        }
+
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,30 @@
+package com.kegner.studentmanagement.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A course row inserted, changed or deleted, published inside the writing transaction so listeners only hear
+ * about it once it commits. Carries the fields the statistics are grouped by.
+ */
+@Getter
+@AllArgsConstructor
+public class CourseChangedEvent {
+    private final long id;
+    private final String departmentName;
+    private final String semester;
+    private final boolean created;
+    private final boolean deleted;
+
+    public static CourseChangedEvent created(long id, String departmentName, String semester) {
+        return new CourseChangedEvent(id, departmentName, semester, true, false);
+    }
+
+    public static CourseChangedEvent saved(long id, String departmentName, String semester) {
+        return new CourseChangedEvent(id, departmentName, semester, false, false);
+    }
+
+    public static CourseChangedEvent deleted(long id) {
+        return new CourseChangedEvent(id, null, null, false, true);
+    }
+}
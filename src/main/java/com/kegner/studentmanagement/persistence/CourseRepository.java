@@ -1,22 +1,39 @@
 package com.kegner.studentmanagement.persistence;
 
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
 import com.kegner.studentmanagement.model.CourseEntity;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportReject;
+import com.kegner.studentmanagement.model.ImportResult;
+import com.kegner.studentmanagement.model.ImportRow;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.RowVersion;
+import com.kegner.studentmanagement.model.WriteResult;
 
 @Repository
 public class CourseRepository implements BaseRepository<CourseEntity> {
@@ -34,20 +51,48 @@ public class CourseRepository implements BaseRepository<CourseEntity> {
             "id", "course_name", "department_name", "semester",
             "course_year", "credits", "professor_name", "created_date", "modified_date");
 
+    // Sort column values used to build the cursor for the last row of a page
+    private static final Map<String, Function<CourseEntity, Object>> sortValues = Map.of(
+            "id", CourseEntity::getId,
+            "course_name", CourseEntity::getCourseName,
+            "department_name", CourseEntity::getDepartmentName,
+            "semester", CourseEntity::getSemester,
+            "course_year", CourseEntity::getCourseYear,
+            "credits", CourseEntity::getCredits,
+            "professor_name", CourseEntity::getProfessorName,
+            "created_date", CourseEntity::getCreatedDate,
+            "modified_date", CourseEntity::getModifiedDate);
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Autowired
     private CourseResultSetExtractor resultSetExtractor;
 
+    @Autowired
+    private EnrollmentIndex enrollmentIndex;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Autowired
+    private StatementRegistry statements;
+
     @Override
     public CourseEntity get(Long id) {
         MapSqlParameterSource params = new MapSqlParameterSource().addValue("id", id);
 
-        // Includes the student ids
-        Map<Long, CourseEntity> courses = jdbcTemplate.query(
-                GET_QUERY_JOIN + " FROM course c LEFT JOIN student_course sc ON c.id = sc.course_id WHERE c.id = :id",
-                params, resultSetExtractor);
+        // Includes the student ids, from the enrollment index when it is on so the join can be skipped
+        String joinShape = getJoinShape();
+        String sql = statements.get("course", "get", joinShape, () -> enrollmentIndex.isEnabled()
+                ? GET_QUERY + " FROM course WHERE id = :id"
+                : GET_QUERY_JOIN + " FROM course c LEFT JOIN student_course sc ON c.id = sc.course_id"
+                        + " WHERE c.id = :id");
+        Map<Long, CourseEntity> courses = queryMetrics.time("course", "get", joinShape,
+                () -> jdbcTemplate.query(sql, params, queryMetrics.timeExtraction("course", resultSetExtractor)));
 
         if (courses == null) {
             return null;
@@ -57,56 +102,136 @@ public class CourseRepository implements BaseRepository<CourseEntity> {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public ListWrapper<CourseEntity> getAll(DataQuery query) {
-        // Pagination values
-        MapSqlParameterSource params = new MapSqlParameterSource()
-                .addValue("limit", Math.min(query.getPageSize(), MAX_LIMIT))
-                .addValue("offset", query.getPage() * query.getPageSize());
+        PageQuery pageQuery = getPageQuery(query);
+        SortKey sortKey = pageQuery.getSortKey();
+        MapSqlParameterSource params = pageQuery.getParams();
+        int limit = pageQuery.getLimit();
+        String joinShape = pageQuery.isLinked() ? getJoinShape() : "none";
+        String shape = pageQuery.getShape() + ":" + joinShape;
 
-        String whereClause = " WHERE 1=1 ";
+        // Get the paginated values, joined for the student ids unless the enrollment index has them or a sparse
+        // fieldset left them out. Only built the first time this statement is seen, after that every request
+        // runs the same string.
+        String sql = statements.get("course", "page", pageQuery.getStatementKey() + ":" + joinShape, () -> {
+            String select = pageQuery.getSelectClause(GET_QUERY);
+            String orderBy = sortKey.getOrderByClause();
+            String pageSql = select + pageQuery.getRelevanceColumn() + " FROM course "
+                    + pageQuery.getWhereClause() + pageQuery.getSeekClause() + orderBy + " LIMIT :limit OFFSET :offset";
 
-        // Where clause for ids
-        if (!CollectionUtils.isEmpty(query.getIds())) {
-            params.addValue("ids", query.getIds());
-            whereClause += " AND id IN (:ids) ";
-        }
-
-        // Where clause for search field
-        if (StringUtils.isNotBlank(query.getSearch())) {
-            params.addValue("search", query.getSearch() + "%");
-            whereClause += " AND course_name ILIKE :search ";
-        }
-
-        String orderBy = BaseRepository.getOrderByClause(query, validColumns);
-
-        // Get the paginated values
-        Map<Long, CourseEntity> courseMap = jdbcTemplate.query(
-                GET_QUERY_JOIN + " FROM( " + GET_QUERY + " FROM course "
-                        + whereClause + orderBy + " LIMIT :limit OFFSET :offset) as c "
-                        + " LEFT JOIN student_course sc ON c.id = sc.course_id " + orderBy,
-                params, resultSetExtractor);
+            return !"join".equals(joinShape)
+                    ? pageSql
+                    : select + ", student_id FROM( " + pageSql + ") as c LEFT JOIN student_course sc"
+                            + " ON c.id = sc.course_id " + orderBy;
+        });
+        ResultSetExtractor<Map<Long, CourseEntity>> extractor = queryMetrics.timeExtraction("course",
+                pageQuery.isLinked() ? resultSetExtractor : resultSetExtractor.withoutStudentIds());
+        Map<Long, CourseEntity> courseMap = queryMetrics.time("course", "page", shape,
+                () -> jdbcTemplate.query(sql, params, extractor));
 
         if (courseMap == null) {
             courseMap = new HashMap<>();
         }
 
         // Get the total count to calculate how many pages there are for the frontend
-        Integer total = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM course " + whereClause,
-                params, Integer.class);
+        Integer total = queryMetrics.time("course", "count", pageQuery.getCountShape(query.getCountMode()),
+                () -> BaseRepository.getTotal(jdbcTemplate, statements, "course", pageQuery, query.getCountMode()));
 
         List<CourseEntity> courseList = new ArrayList<>(courseMap.values());
+        queryMetrics.recordRows("course", "page", courseList.size());
+
+        // Drop the look-ahead row, it only tells us that there is more
+        boolean hasMore = courseList.size() > limit;
+        if (hasMore) {
+            courseList.remove(limit);
+        }
+
+        // Hand back a cursor for the last row so the next page can seek past it, unless ranked by relevance
+        String nextCursor = null;
+        if (hasMore && sortValues.containsKey(sortKey.getColumn())) {
+            CourseEntity last = courseList.get(courseList.size() - 1);
+            Object value = sortValues.get(sortKey.getColumn()).apply(last);
+            nextCursor = new PageCursor(sortKey.getColumn(), sortKey.getDirection(), last.getId(),
+                    value == null ? null : value.toString()).encode();
+        }
 
         return ListWrapper.<CourseEntity>builder()
                 .data(courseList)
                 .count(courseList.size())
                 .total(total)
+                .countMode(query.getCountMode())
+                .hasMore(hasMore)
+                .nextCursor(nextCursor)
                 .build();
     }
 
+    @Override
+    public RowVersion getVersion(Long id) {
+        return queryMetrics.time("course", "version", "by-id",
+                () -> BaseRepository.getVersion(jdbcTemplate, statements, "course", id));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ListWrapper<RowVersion> getAllVersions(DataQuery query) {
+        PageQuery pageQuery = getPageQuery(query);
+
+        return queryMetrics.time("course", "versions", pageQuery.getShape(),
+                () -> BaseRepository.getVersions(jdbcTemplate, statements, "course", pageQuery,
+                        query.getCountMode()));
+    }
+
+    // Filters, sort and pagination shared by the full page and the version only page
+    private PageQuery getPageQuery(DataQuery query) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        String whereClause = " WHERE 1=1 ";
+
+        // Where clause for ids
+        if (!CollectionUtils.isEmpty(query.getIds())) {
+            params.addValue("ids", BaseRepository.getIdArray(query.getIds()));
+            whereClause += " AND id = ANY(:ids) ";
+        }
+
+        // Where clause for search field
+        if (StringUtils.isNotBlank(query.getSearch())) {
+            whereClause += BaseRepository.getSearchClause(query.getSearch(), params);
+        }
+
+        // Where clause for the courses of a student
+        if (query.getEnrolledWith() != null) {
+            params.addValue("enrolledWith", query.getEnrolledWith());
+            whereClause += " AND id IN (SELECT course_id FROM student_course WHERE student_id = :enrolledWith) ";
+        }
+
+        return BaseRepository.getPageQuery(query, validColumns, "studentIds", whereClause, params);
+    }
+
+    // Read only so the driver can use a server-side cursor, which only works outside of autocommit
+    @Override
+    @Transactional(readOnly = true)
+    public void export(Consumer<CourseEntity> consumer) {
+        // Ordered by id so each course's joined rows arrive together and can be emitted as soon as they end
+        String joinShape = getJoinShape();
+        String sql = statements.get("course", "export", joinShape, () -> enrollmentIndex.isEnabled()
+                ? GET_QUERY + " FROM course ORDER BY id"
+                : GET_QUERY_JOIN + " FROM course c LEFT JOIN student_course sc ON c.id = sc.course_id"
+                        + " ORDER BY c.id");
+
+        queryMetrics.time("course", "export", joinShape, () -> jdbcTemplate.getJdbcTemplate().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            return statement;
+        }, rs -> {
+            resultSetExtractor.extractOrdered(rs, consumer);
+            return null;
+        }));
+    }
+
     @Override
     @Transactional
-    public void insert(CourseEntity student) {
+    public WriteResult insert(CourseEntity student) {
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("courseName", student.getCourseName())
                 .addValue("departmentName", student.getDepartmentName())
@@ -115,16 +240,27 @@ public class CourseRepository implements BaseRepository<CourseEntity> {
                 .addValue("credits", student.getCredits())
                 .addValue("professorName", student.getProfessorName());
 
-        jdbcTemplate.update("""
+        KeyHolder holder = new GeneratedKeyHolder();
+
+        int inserted = queryMetrics.time("course", "insert", "by-id", () -> jdbcTemplate.update("""
                     INSERT INTO course (course_name, department_name, semester, course_year, credits, professor_name)
                     VALUES (:courseName, :departmentName, :semester, :courseYear, :credits, :professorName)
                 """,
-                params);
+                params, holder, new String[] { "id" }));
+
+        // Course writes don't touch the junction table, so there are no linked ids
+        Number key = holder.getKey();
+        if (key != null) {
+            eventPublisher.publishEvent(
+                    CourseChangedEvent.created(key.longValue(), student.getDepartmentName(), student.getSemester()));
+        }
+
+        return WriteResult.builder().id(key != null ? key.longValue() : null).rowsAffected(inserted).build();
     }
 
     @Override
     @Transactional
-    public void update(CourseEntity student) {
+    public WriteResult update(CourseEntity student) {
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("id", student.getId())
                 .addValue("courseName", student.getCourseName())
@@ -133,25 +269,169 @@ public class CourseRepository implements BaseRepository<CourseEntity> {
                 .addValue("courseYear", student.getCourseYear())
                 .addValue("credits", student.getCredits())
                 .addValue("professorName", student.getProfessorName())
-                .addValue("modifiedDate", OffsetDateTime.now());
-
-        jdbcTemplate.update("""
-                    UPDATE course
-                    SET course_name = :courseName, department_name = :departmentName, semester = :semester,
-                    course_year = :courseYear, credits = :credits, professor_name = :professorName,
-                    modified_date = :modifiedDate
-                    WHERE id = :id
-                """, params);
+                .addValue("modifiedDate", OffsetDateTime.now())
+                .addValue("expected", student.getModifiedDate(), Types.TIMESTAMP_WITH_TIMEZONE);
+
+        // Skipped when nothing changed, so modified_date and the ETag stay as they were. The modified date the
+        // client read is the version, nothing is written unless it's still current; the row lock only lasts
+        // for this statement, and a request without one writes unconditionally.
+        String sql = """
+                    WITH current AS (
+                        SELECT modified_date FROM course WHERE id = :id FOR UPDATE
+                    ),
+                    updated AS (
+                        UPDATE course
+                        SET course_name = :courseName, department_name = :departmentName, semester = :semester,
+                        course_year = :courseYear, credits = :credits, professor_name = :professorName,
+                        modified_date = :modifiedDate
+                        WHERE id = :id
+                        AND (CAST(:expected AS timestamptz) IS NULL OR modified_date = :expected)
+                        AND (course_name IS DISTINCT FROM :courseName
+                        OR department_name IS DISTINCT FROM :departmentName OR semester IS DISTINCT FROM :semester
+                        OR course_year IS DISTINCT FROM :courseYear OR credits IS DISTINCT FROM :credits
+                        OR professor_name IS DISTINCT FROM :professorName)
+                        RETURNING id
+                    )
+                    SELECT (SELECT COUNT(*) FROM updated) AS updated,
+                    EXISTS (SELECT 1 FROM current WHERE CAST(:expected AS timestamptz) IS NOT NULL
+                        AND modified_date IS DISTINCT FROM :expected) AS conflict
+                """;
+
+        WriteResult result = queryMetrics.time("course", "update", "by-id",
+                () -> jdbcTemplate.queryForObject(sql, params, (rs, rowNum) -> WriteResult.builder()
+                        .id(student.getId())
+                        .rowsAffected(rs.getInt("updated"))
+                        .conflict(rs.getBoolean("conflict"))
+                        .build()));
+
+        if (result.isChanged()) {
+            eventPublisher.publishEvent(
+                    CourseChangedEvent.saved(student.getId(), student.getDepartmentName(), student.getSemester()));
+        }
+
+        return result;
     }
 
     @Override
     @Transactional
-    public void delete(Long id) {
+    public WriteResult delete(Long id) {
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("id", id);
 
-        // Delete from the junction table first
-        jdbcTemplate.update("DELETE FROM student_course WHERE course_id = :id", params);
-        jdbcTemplate.update("DELETE FROM course WHERE id = :id", params);
+        // Delete from the junction table first, keeping the students that lose this course
+        String enrollmentSql = "DELETE FROM student_course WHERE course_id = :id RETURNING student_id";
+        List<Long> studentIds = queryMetrics.time("course", "enroll-delete", "by-course",
+                () -> jdbcTemplate.queryForList(enrollmentSql, params, Long.class));
+        int deleted = queryMetrics.time("course", "delete", "by-id",
+                () -> jdbcTemplate.update("DELETE FROM course WHERE id = :id", params));
+
+        if (!studentIds.isEmpty()) {
+            queryMetrics.time("student", "touch", "by-ids",
+                    () -> BaseRepository.touch(jdbcTemplate, "student", studentIds));
+        }
+
+        eventPublisher.publishEvent(EnrollmentChangedEvent.forCourseRemoval(id, studentIds));
+
+        if (deleted > 0) {
+            eventPublisher.publishEvent(CourseChangedEvent.deleted(id));
+        }
+
+        return WriteResult.builder().id(id).removedIds(studentIds).rowsAffected(deleted + studentIds.size()).build();
+    }
+
+    @Override
+    @Transactional
+    public ImportResult bulkInsert(Iterator<ImportRow<CourseEntity>> rows) {
+        // Staging table only lives until the transaction ends
+        jdbcTemplate.getJdbcTemplate().execute("""
+                    CREATE TEMP TABLE course_import (
+                    line bigint NOT NULL, course_name text, department_name text, semester text, course_year int,
+                    credits int, professor_name text, student_ids bigint[]
+                    ) ON COMMIT DROP
+                """);
+
+        // Stream the rows straight into the staging table as they are read from the request
+        Long copied = queryMetrics.time("course", "bulk-copy", "staging",
+                () -> jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Long>) connection -> {
+            try (CopyWriter copyWriter = new CopyWriter(connection, """
+                        COPY course_import (line, course_name, department_name, semester, course_year, credits,
+                        professor_name, student_ids) FROM STDIN WITH (FORMAT csv)
+                    """)) {
+                while (rows.hasNext()) {
+                    ImportRow<CourseEntity> row = rows.next();
+                    CourseEntity course = row.getValue();
+                    copyWriter.writeRow(row.getLine(), course.getCourseName(), course.getDepartmentName(),
+                            course.getSemester(), course.getCourseYear(), course.getCredits(),
+                            course.getProfessorName(), course.getStudentIds());
+                }
+
+                return copyWriter.finish();
+            } catch (IOException e) {
+                throw new SQLException("Could not copy the import rows.", e);
+            }
+        }));
+        queryMetrics.recordRows("course", "bulk-copy", copied == null ? 0 : copied.intValue());
+
+        // So the planner knows how big the staging table is
+        jdbcTemplate.getJdbcTemplate().execute("ANALYZE course_import");
+
+        // Rows pointing at students that don't exist are rejected instead of failing the whole import
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("maxRejects", ImportResult.MAX_REJECTS);
+        List<ImportReject> rejects = new ArrayList<>();
+        int[] rejected = { 0 };
+
+        queryMetrics.time("course", "bulk-reject", "staging", () -> jdbcTemplate.query("""
+                    WITH rejected AS (
+                        DELETE FROM course_import i
+                        WHERE EXISTS (SELECT 1 FROM unnest(i.student_ids) AS sc(student_id)
+                        WHERE NOT EXISTS (SELECT 1 FROM student s WHERE s.id = sc.student_id))
+                        RETURNING line
+                    )
+                    SELECT line, COUNT(*) OVER () AS total FROM rejected ORDER BY line LIMIT :maxRejects
+                """, params, rs -> {
+            rejected[0] = rs.getInt("total");
+            rejects.add(new ImportReject(rs.getLong("line"), "One or more student ids do not exist."));
+        }));
+
+        // Ids are drawn up front so the courses and their junction rows go in with one statement
+        Integer inserted = queryMetrics.time("course", "bulk-merge", "staging",
+                () -> jdbcTemplate.getJdbcTemplate().queryForObject("""
+                    WITH numbered AS MATERIALIZED (
+                        SELECT nextval(pg_get_serial_sequence('course', 'id')) AS id, course_name, department_name,
+                        semester, course_year, credits, professor_name, student_ids
+                        FROM course_import
+                    ),
+                    courses AS (
+                        INSERT INTO course (id, course_name, department_name, semester, course_year, credits,
+                        professor_name)
+                        SELECT id, course_name, department_name, semester, course_year, credits, professor_name
+                        FROM numbered
+                        RETURNING id
+                    ),
+                    enrollments AS (
+                        INSERT INTO student_course (student_id, course_id)
+                        SELECT DISTINCT sc.student_id, n.id FROM numbered n
+                        CROSS JOIN LATERAL unnest(n.student_ids) AS sc(student_id)
+                    ),
+                    touched AS (
+                        UPDATE student SET modified_date = CURRENT_TIMESTAMP
+                        WHERE id IN (SELECT unnest(student_ids) FROM numbered)
+                    )
+                    SELECT COUNT(*) FROM courses
+                """, Integer.class));
+        queryMetrics.recordRows("course", "bulk-merge", inserted == null ? 0 : inserted);
+
+        eventPublisher.publishEvent(EnrollmentChangedEvent.reload());
+
+        return ImportResult.builder()
+                .inserted(inserted)
+                .rejected(rejected[0])
+                .rejects(rejects)
+                .build();
+    }
+
+    // Whether the student ids come from the join or from the enrollment index
+    private String getJoinShape() {
+        return enrollmentIndex.isEnabled() ? "index" : "join";
     }
 }
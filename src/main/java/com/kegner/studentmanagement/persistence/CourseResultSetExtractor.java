@@ -1,12 +1,17 @@
 package com.kegner.studentmanagement.persistence;
 
+import static com.kegner.studentmanagement.persistence.ResultSetColumns.getInteger;
+import static com.kegner.studentmanagement.persistence.ResultSetColumns.getObject;
+import static com.kegner.studentmanagement.persistence.ResultSetColumns.getString;
+
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Component;
@@ -15,40 +20,154 @@ import com.kegner.studentmanagement.model.CourseEntity;
 
 @Component
 public class CourseResultSetExtractor implements ResultSetExtractor<Map<Long, CourseEntity>> {
+    // Not set when constructed outside of Spring, which is the same as the index being off
+    @Autowired(required = false)
+    private EnrollmentIndex enrollmentIndex;
+
     @Override
     public @NonNull Map<Long, CourseEntity> extractData(@NonNull ResultSet rs) throws SQLException {
-        Map<Long, CourseEntity> map = new LinkedHashMap<>();
+        return extract(rs, true);
+    }
+
+    // For sparse fieldsets that leave out the student ids, so the index isn't asked for them either
+    public ResultSetExtractor<Map<Long, CourseEntity>> withoutStudentIds() {
+        return rs -> extract(rs, false);
+    }
+
+    private Map<Long, CourseEntity> extract(ResultSet rs, boolean linked) throws SQLException {
+        Columns columns = new Columns(new ResultSetColumns(rs));
+        EnrollmentIndex index = linked ? getIndex(columns) : null;
+        Map<Long, PendingCourse> pending = new LinkedHashMap<>();
+        PendingCourse current = null;
 
         while (rs.next()) {
-            Long id = rs.getLong("id");
-
-            if (!map.containsKey(id)) {
-                CourseEntity newEntity = CourseEntity.builder()
-                        .id(id)
-                        .courseName(rs.getString("course_name"))
-                        .departmentName(rs.getString("department_name"))
-                        .semester(rs.getString("semester"))
-                        .courseYear(rs.getInt("course_year"))
-                        .credits(rs.getInt("credits"))
-                        .professorName(rs.getString("professor_name"))
-                        .createdDate(rs.getObject("created_date", OffsetDateTime.class))
-                        .modifiedDate(rs.getObject("modified_date", OffsetDateTime.class))
-                        .build();
-
-                map.put(id, newEntity);
+            long id = rs.getLong(columns.id);
+
+            // Joined rows for the same course are usually next to each other, so skip the map lookup
+            if (current == null || current.id != id) {
+                current = pending.get(id);
+
+                if (current == null) {
+                    current = new PendingCourse(id, columns.read(rs, id));
+                    pending.put(id, current);
+                }
             }
 
-            Long studentId = rs.getObject("student_id", Long.class);
+            if (columns.studentId != 0) {
+                long studentId = rs.getLong(columns.studentId);
 
-            if (studentId != null) {
-                CourseEntity entity = map.get(id);
-                List<Long> studentIds = entity.getStudentIds();
-                studentIds.add(studentId);
-                CourseEntity entityWithStudentId = entity.toBuilder().studentIds(studentIds).build();
-                map.put(id, entityWithStudentId);
+                if (!rs.wasNull()) {
+                    current.studentIds.add(studentId);
+                }
             }
         }
 
+        // Every entity is built once, after all of its student ids are known
+        Map<Long, CourseEntity> map = new LinkedHashMap<>(Math.max(16, pending.size() * 4 / 3 + 1));
+        for (PendingCourse course : pending.values()) {
+            map.put(course.id, course.build(index));
+        }
+
         return map;
     }
+
+    // Hands each course to the consumer as soon as its last row is read. Rows have to be ordered by id.
+    public void extractOrdered(ResultSet rs, Consumer<CourseEntity> consumer) throws SQLException {
+        Columns columns = new Columns(new ResultSetColumns(rs));
+        EnrollmentIndex index = getIndex(columns);
+        PendingCourse current = null;
+
+        while (rs.next()) {
+            long id = rs.getLong(columns.id);
+
+            if (current == null || current.id != id) {
+                if (current != null) {
+                    consumer.accept(current.build(index));
+                }
+
+                current = new PendingCourse(id, columns.read(rs, id));
+            }
+
+            if (columns.studentId != 0) {
+                long studentId = rs.getLong(columns.studentId);
+
+                if (!rs.wasNull()) {
+                    current.studentIds.add(studentId);
+                }
+            }
+        }
+
+        if (current != null) {
+            consumer.accept(current.build(index));
+        }
+    }
+
+    // The index only stands in when the query left out the junction table join
+    private EnrollmentIndex getIndex(Columns columns) {
+        if (columns.studentId == 0 && enrollmentIndex != null && enrollmentIndex.isEnabled()) {
+            return enrollmentIndex;
+        }
+
+        return null;
+    }
+
+    // Column indexes resolved once per ResultSet
+    private static class Columns {
+        private final int id;
+        private final int courseName;
+        private final int departmentName;
+        private final int semester;
+        private final int courseYear;
+        private final int credits;
+        private final int professorName;
+        private final int createdDate;
+        private final int modifiedDate;
+        private final int studentId;
+
+        private Columns(ResultSetColumns columns) {
+            id = columns.indexOf("id");
+            courseName = columns.indexOf("course_name");
+            departmentName = columns.indexOf("department_name");
+            semester = columns.indexOf("semester");
+            courseYear = columns.indexOf("course_year");
+            credits = columns.indexOf("credits");
+            professorName = columns.indexOf("professor_name");
+            createdDate = columns.indexOf("created_date");
+            modifiedDate = columns.indexOf("modified_date");
+            studentId = columns.indexOf("student_id");
+        }
+
+        private CourseEntity.CourseEntityBuilder read(ResultSet rs, long id) throws SQLException {
+            return CourseEntity.builder()
+                    .id(id)
+                    .courseName(getString(rs, courseName))
+                    .departmentName(getString(rs, departmentName))
+                    .semester(getString(rs, semester))
+                    .courseYear(getInteger(rs, courseYear))
+                    .credits(getInteger(rs, credits))
+                    .professorName(getString(rs, professorName))
+                    .createdDate(getObject(rs, createdDate, OffsetDateTime.class))
+                    .modifiedDate(getObject(rs, modifiedDate, OffsetDateTime.class));
+        }
+    }
+
+    // A course whose scalar columns have been read but whose student ids are still being collected
+    private static class PendingCourse {
+        private final long id;
+        private final CourseEntity.CourseEntityBuilder builder;
+        private final LongBuffer studentIds = new LongBuffer();
+
+        private PendingCourse(long id, CourseEntity.CourseEntityBuilder builder) {
+            this.id = id;
+            this.builder = builder;
+        }
+
+        private CourseEntity build(EnrollmentIndex index) {
+            if (index != null) {
+                return builder.studentIds(index.getStudentIds(id)).build();
+            }
+
+            return builder.studentIds(studentIds.toList()).build();
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.kegner.studentmanagement.model.EnrollmentChangeStatus;
+import com.kegner.studentmanagement.model.QueuedEnrollmentChange;
+
+/**
+ * The durable side of the enrollment write-behind queue. A change is appended to enrollment_change before it's
+ * acknowledged and marked written in the same transaction that writes it to student_course, so it's neither lost
+ * nor written twice when the process dies in between. Nothing here is read only, the lookups have to see the row
+ * that was just appended, which a replica may not have yet.
+ */
+@Repository
+public class EnrollmentChangeRepository {
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Transactional
+    public QueuedEnrollmentChange append(long studentId, List<Long> add, List<Long> remove) {
+        return queryMetrics.time("enrollment_change", "insert", "single", () -> jdbcTemplate.queryForObject("""
+                    INSERT INTO enrollment_change (student_id, added, removed)
+                    VALUES (:studentId, :added, :removed)
+                    RETURNING *
+                """, new MapSqlParameterSource()
+                .addValue("studentId", studentId)
+                .addValue("added", BaseRepository.getIdArray(add))
+                .addValue("removed", BaseRepository.getIdArray(remove)), EnrollmentChangeRepository::mapChange));
+    }
+
+    // Oldest first, the order they have to be written in
+    @Transactional
+    public List<QueuedEnrollmentChange> getPending() {
+        return queryMetrics.time("enrollment_change", "get", "pending", () -> jdbcTemplate.query("""
+                    SELECT * FROM enrollment_change WHERE status = 'PENDING' ORDER BY id
+                """, EnrollmentChangeRepository::mapChange));
+    }
+
+    // Null when there's no such change for the student, or it was pruned
+    @Transactional
+    public QueuedEnrollmentChange get(long studentId, long id) {
+        List<QueuedEnrollmentChange> changes = queryMetrics.time("enrollment_change", "get", "by-id",
+                () -> jdbcTemplate.query("""
+                            SELECT * FROM enrollment_change WHERE id = :id AND student_id = :studentId
+                        """, new MapSqlParameterSource().addValue("id", id).addValue("studentId", studentId),
+                        EnrollmentChangeRepository::mapChange));
+
+        return changes.isEmpty() ? null : changes.get(0);
+    }
+
+    // Writes the coalesced pairs of the given changes and marks them written, all or nothing
+    @Transactional
+    public int write(Collection<Long> ids, List<EnrollmentChangedEvent.Enrollment> added,
+            List<EnrollmentChangedEvent.Enrollment> removed) {
+        int changed = studentRepository.updateEnrollments(added, removed);
+        setStatus(ids, EnrollmentChangeStatus.WRITTEN, null);
+        return changed;
+    }
+
+    @Transactional
+    public void fail(Collection<Long> ids, String error) {
+        setStatus(ids, EnrollmentChangeStatus.FAILED, error);
+    }
+
+    // Drops the written and failed changes last touched before the given time
+    @Transactional
+    public int prune(OffsetDateTime before) {
+        return queryMetrics.time("enrollment_change", "delete", "pruned", () -> jdbcTemplate.update("""
+                    DELETE FROM enrollment_change WHERE status <> 'PENDING' AND modified_date < :before
+                """, new MapSqlParameterSource("before", before)));
+    }
+
+    private void setStatus(Collection<Long> ids, EnrollmentChangeStatus status, String error) {
+        queryMetrics.time("enrollment_change", "update", "status", () -> jdbcTemplate.update("""
+                    UPDATE enrollment_change SET status = :status, error = :error, modified_date = CURRENT_TIMESTAMP
+                    WHERE id = ANY(:ids)
+                """, new MapSqlParameterSource()
+                .addValue("status", status.name())
+                .addValue("error", error)
+                .addValue("ids", BaseRepository.getIdArray(ids))));
+    }
+
+    private static QueuedEnrollmentChange mapChange(ResultSet rs, int rowNum) throws SQLException {
+        return QueuedEnrollmentChange.builder()
+                .id(rs.getLong("id"))
+                .studentId(rs.getLong("student_id"))
+                .add(BaseRepository.getIds(rs.getArray("added")))
+                .remove(BaseRepository.getIds(rs.getArray("removed")))
+                .status(EnrollmentChangeStatus.valueOf(rs.getString("status")))
+                .error(rs.getString("error"))
+                .createdDate(rs.getObject("created_date", OffsetDateTime.class))
+                .modifiedDate(rs.getObject("modified_date", OffsetDateTime.class))
+                .build();
+    }
+}
@@ -0,0 +1,54 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Rows added to or removed from student_course by a write, published inside the writing transaction so the
+ * enrollment index only hears about them once they commit. Bulk imports ask for a reload instead.
+ */
+@Getter
+@AllArgsConstructor
+public class EnrollmentChangedEvent {
+    private final List<Enrollment> added;
+    private final List<Enrollment> removed;
+    private final boolean reload;
+
+    public static EnrollmentChangedEvent forStudent(long studentId, Iterable<Long> addedCourseIds,
+            Iterable<Long> removedCourseIds) {
+        List<Enrollment> added = new ArrayList<>();
+        for (Long courseId : addedCourseIds) {
+            added.add(new Enrollment(studentId, courseId));
+        }
+
+        List<Enrollment> removed = new ArrayList<>();
+        for (Long courseId : removedCourseIds) {
+            removed.add(new Enrollment(studentId, courseId));
+        }
+
+        return new EnrollmentChangedEvent(added, removed, false);
+    }
+
+    public static EnrollmentChangedEvent forCourseRemoval(long courseId, Iterable<Long> studentIds) {
+        List<Enrollment> removed = new ArrayList<>();
+        for (Long studentId : studentIds) {
+            removed.add(new Enrollment(studentId, courseId));
+        }
+
+        return new EnrollmentChangedEvent(new ArrayList<>(), removed, false);
+    }
+
+    public static EnrollmentChangedEvent reload() {
+        return new EnrollmentChangedEvent(new ArrayList<>(), new ArrayList<>(), true);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Enrollment {
+        private final long studentId;
+        private final long courseId;
+    }
+}
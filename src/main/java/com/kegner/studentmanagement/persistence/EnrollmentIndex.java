@@ -0,0 +1,277 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Optional in-memory copy of student_course in both directions, each side held as sorted primitive arrays.
+ * When enabled, reads take the linked ids from here instead of joining the junction table and the student
+ * update diffs against it. Changes are applied after the writing transaction commits, so a rolled back write
+ * never shows up here.
+ */
+@Component
+public class EnrollmentIndex {
+    private static final long[] EMPTY = new long[0];
+    // Rough per entry cost of the map node, the boxed key and the array header
+    private static final long ENTRY_OVERHEAD_BYTES = 32 + 16 + 16;
+
+    private static final Logger logger = LoggerFactory.getLogger(EnrollmentIndex.class);
+
+    @Value("${enrollment.index.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private volatile Map<Long, long[]> studentCourses = new ConcurrentHashMap<>();
+    private volatile Map<Long, long[]> courseStudents = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    // Serializes writers, reads never wait on it
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Changes applied while a reload is scanning, replayed onto what it read. Null when none is running,
+    // guarded by writeLock.
+    private List<EnrollmentChangedEvent> changedDuringReload;
+
+    // One reload at a time, a second bulk import waits for the first scan and then reads again
+    private final ReentrantLock reloadLock = new ReentrantLock();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+
+        Gauge.builder("enrollment.index.enrollments", this, EnrollmentIndex::getEnrollmentCount)
+                .description("Student and course pairs held by the enrollment index")
+                .register(meterRegistry);
+        Gauge.builder("enrollment.index.memory", this, EnrollmentIndex::getEstimatedBytes)
+                .description("Estimated heap used by the enrollment index")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        reload();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // False until the first load finishes, callers fall back to the junction table until then
+    public boolean isEnabled() {
+        return enabled && loaded;
+    }
+
+    public List<Long> getCourseIds(long studentId) {
+        return toList(studentCourses.getOrDefault(studentId, EMPTY));
+    }
+
+    public List<Long> getStudentIds(long courseId) {
+        return toList(courseStudents.getOrDefault(courseId, EMPTY));
+    }
+
+    @TransactionalEventListener
+    public void onEnrollmentChanged(EnrollmentChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        // A bulk import can touch any row, so read the whole table back rather than tracking it. That's a full
+        // scan, so it runs in the background instead of holding up the importing request's commit.
+        if (event.isReload()) {
+            executor.execute(this::reload);
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            apply(studentCourses, courseStudents, event);
+
+            if (changedDuringReload != null) {
+                changedDuringReload.add(event);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the whole table into new maps and swaps them in. The scan holds no lock, so writers keep applying
+     * their changes to the current maps meanwhile. Those changes are also recorded and replayed onto the new maps
+     * before the swap, in case the scan read the rows before they committed. Both add and remove are no-ops when
+     * the pair is already in that state, so replaying one the scan already saw is harmless.
+     */
+    public void reload() {
+        reloadLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                changedDuringReload = new ArrayList<>();
+            } finally {
+                writeLock.unlock();
+            }
+
+            Map<Long, LongBuffer> byStudent = new HashMap<>();
+            Map<Long, LongBuffer> byCourse = new HashMap<>();
+
+            try {
+                jdbcTemplate.getJdbcTemplate().query("SELECT student_id, course_id FROM student_course", rs -> {
+                    long studentId = rs.getLong(1);
+                    long courseId = rs.getLong(2);
+                    byStudent.computeIfAbsent(studentId, id -> new LongBuffer()).add(courseId);
+                    byCourse.computeIfAbsent(courseId, id -> new LongBuffer()).add(studentId);
+                });
+            } catch (RuntimeException e) {
+                writeLock.lock();
+                try {
+                    changedDuringReload = null;
+                } finally {
+                    writeLock.unlock();
+                }
+
+                throw e;
+            }
+
+            Map<Long, long[]> newStudentCourses = toSortedArrays(byStudent);
+            Map<Long, long[]> newCourseStudents = toSortedArrays(byCourse);
+
+            writeLock.lock();
+            try {
+                for (EnrollmentChangedEvent event : changedDuringReload) {
+                    apply(newStudentCourses, newCourseStudents, event);
+                }
+
+                changedDuringReload = null;
+                studentCourses = newStudentCourses;
+                courseStudents = newCourseStudents;
+                loaded = true;
+            } finally {
+                writeLock.unlock();
+            }
+
+            logger.info("Loaded {} enrollments into the enrollment index.", getEnrollmentCount());
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private static void apply(Map<Long, long[]> studentCourses, Map<Long, long[]> courseStudents,
+            EnrollmentChangedEvent event) {
+        for (EnrollmentChangedEvent.Enrollment enrollment : event.getAdded()) {
+            studentCourses.compute(enrollment.getStudentId(), (id, ids) -> add(ids, enrollment.getCourseId()));
+            courseStudents.compute(enrollment.getCourseId(), (id, ids) -> add(ids, enrollment.getStudentId()));
+        }
+
+        for (EnrollmentChangedEvent.Enrollment enrollment : event.getRemoved()) {
+            studentCourses.computeIfPresent(enrollment.getStudentId(),
+                    (id, ids) -> remove(ids, enrollment.getCourseId()));
+            courseStudents.computeIfPresent(enrollment.getCourseId(),
+                    (id, ids) -> remove(ids, enrollment.getStudentId()));
+        }
+    }
+
+    private long getEnrollmentCount() {
+        long count = 0;
+        for (long[] ids : studentCourses.values()) {
+            count += ids.length;
+        }
+
+        return count;
+    }
+
+    private double getEstimatedBytes() {
+        return estimateBytes(studentCourses) + estimateBytes(courseStudents);
+    }
+
+    private static long estimateBytes(Map<Long, long[]> map) {
+        long bytes = 0;
+        for (long[] ids : map.values()) {
+            bytes += ENTRY_OVERHEAD_BYTES + 8L * ids.length;
+        }
+
+        return bytes;
+    }
+
+    private static Map<Long, long[]> toSortedArrays(Map<Long, LongBuffer> buffers) {
+        Map<Long, long[]> map = new ConcurrentHashMap<>(Math.max(16, buffers.size() * 4 / 3 + 1));
+        for (Map.Entry<Long, LongBuffer> entry : buffers.entrySet()) {
+            long[] ids = entry.getValue().toArray();
+            Arrays.sort(ids);
+            map.put(entry.getKey(), ids);
+        }
+
+        return map;
+    }
+
+    // Arrays are never changed in place, readers holding the old one still see a consistent set
+    private static long[] add(long[] ids, long value) {
+        if (ids == null) {
+            return new long[] { value };
+        }
+
+        int index = Arrays.binarySearch(ids, value);
+        if (index >= 0) {
+            return ids;
+        }
+
+        int insertAt = -index - 1;
+        long[] copy = new long[ids.length + 1];
+        System.arraycopy(ids, 0, copy, 0, insertAt);
+        copy[insertAt] = value;
+        System.arraycopy(ids, insertAt, copy, insertAt + 1, ids.length - insertAt);
+        return copy;
+    }
+
+    // Returning null drops the key, so rows without enrollments don't keep an entry around
+    private static long[] remove(long[] ids, long value) {
+        int index = Arrays.binarySearch(ids, value);
+        if (index < 0) {
+            return ids;
+        }
+
+        if (ids.length == 1) {
+            return null;
+        }
+
+        long[] copy = new long[ids.length - 1];
+        System.arraycopy(ids, 0, copy, 0, index);
+        System.arraycopy(ids, index + 1, copy, index, ids.length - index - 1);
+        return copy;
+    }
+
+    private static List<Long> toList(long[] ids) {
+        List<Long> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+
+        return list;
+    }
+}
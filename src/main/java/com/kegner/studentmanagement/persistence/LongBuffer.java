@@ -0,0 +1,37 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable buffer of primitive longs, used to collect joined ids without boxing each one as it is read.
+ */
+final class LongBuffer {
+    private static final long[] EMPTY = new long[0];
+
+    private long[] values = EMPTY;
+    private int size;
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(8, size * 2));
+        }
+
+        values[size++] = value;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    List<Long> toList() {
+        List<Long> list = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            list.add(values[i]);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,60 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Opaque continuation token for keyset pagination. Holds the sort key and id of the last row on a
+ * page so the next page can seek past it instead of scanning and discarding an offset.
+ */
+@Getter
+@AllArgsConstructor
+public class PageCursor {
+    private static final String SEPARATOR = ":";
+
+    private final String column;
+    private final String direction;
+    private final Long id;
+    // String form of the last sort value, null when the row had no value for the sort column
+    private final String value;
+
+    public String encode() {
+        // Prefix the value so a null can be told apart from an empty string
+        String token = column + SEPARATOR + direction + SEPARATOR + id + SEPARATOR
+                + (value == null ? "n" : "v" + value);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor decode(String cursor, SortKey sortKey) {
+        PageCursor decoded;
+
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(SEPARATOR, 4);
+
+            if (parts.length != 4 || parts[3].isEmpty()) {
+                throw new InvalidRequestException("The cursor " + cursor + " is not valid.");
+            }
+
+            String value = parts[3].charAt(0) == 'v' ? parts[3].substring(1) : null;
+            decoded = new PageCursor(parts[0], parts[1], Long.valueOf(parts[2]), value);
+        } catch (IllegalArgumentException e) {
+            // Covers both bad base64 and a non-numeric id
+            throw new InvalidRequestException("The cursor " + cursor + " is not valid.");
+        }
+
+        // A cursor only makes sense for the ordering it was created with
+        if (!decoded.getColumn().equals(sortKey.getColumn())
+                || !decoded.getDirection().equals(sortKey.getDirection())) {
+            throw new InvalidRequestException("The cursor " + cursor + " does not match the requested sort.");
+        }
+
+        return decoded;
+    }
+}
@@ -0,0 +1,59 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.kegner.studentmanagement.model.CountMode;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The pieces of a single page select. The where clause is shared with the total count, the seek clause only
+ * applies to the page itself. The params already hold the limit (plus the look-ahead row) and offset.
+ */
+@Getter
+@AllArgsConstructor
+public class PageQuery {
+    private final SortKey sortKey;
+    private final int limit;
+    private final String whereClause;
+    private final String seekClause;
+    // Extra select column when ordering by search relevance, empty otherwise
+    private final String relevanceColumn;
+    private final MapSqlParameterSource params;
+    // Which filters are in the where clause, e.g. ids+search
+    private final String filterShape;
+    // offset, seek, or seek-null when the cursor row had no value for the sort column
+    private final String paging;
+    // Sparse fieldset columns, empty for all of them
+    private final List<String> columns;
+    // Whether the ids from student_course were asked for
+    private final boolean linked;
+
+    public String getOrderByClause() {
+        return sortKey.getOrderByClause();
+    }
+
+    // Filters, sort and paging, which is everything that changes the statement text
+    public String getShape() {
+        return filterShape + ":" + sortKey.getColumn() + ":" + sortKey.getDirection().toLowerCase() + ":" + paging;
+    }
+
+    // The select list, given the one used when every column is wanted
+    public String getSelectClause(String fullSelect) {
+        return columns.isEmpty() ? fullSelect : "SELECT " + String.join(", ", columns) + " ";
+    }
+
+    // Shape plus the sparse columns, which also change the statement text. Kept out of getShape so the
+    // metric tags don't multiply with every combination of fields.
+    public String getStatementKey() {
+        return columns.isEmpty() ? getShape() : getShape() + ":" + String.join(",", columns);
+    }
+
+    // The count only depends on the filters and how it is calculated
+    public String getCountShape(CountMode countMode) {
+        return countMode.getValue() + ":" + filterShape;
+    }
+}
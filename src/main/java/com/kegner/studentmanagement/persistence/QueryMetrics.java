@@ -0,0 +1,77 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers around the repositories' SQL, tagged by table, logical operation and statement shape. Shapes are
+ * built from validated inputs only (which filters, sort column and direction, seek or offset), never from
+ * SQL text or values, so the number of series stays bounded. Meters are looked up once and kept, so a
+ * recording is a map hit and a clock read.
+ */
+@Component
+public class QueryMetrics {
+    private final Map<String, Timer> queryTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> rowSummaries = new ConcurrentHashMap<>();
+    private final Map<String, Timer> extractTimers = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Statement time from execute until the last row is handled, extraction included
+    public <T> T time(String table, String operation, String shape, Supplier<T> statement) {
+        return getQueryTimer(table, operation, shape).record(statement);
+    }
+
+    public void time(String table, String operation, String shape, Runnable statement) {
+        getQueryTimer(table, operation, shape).record(statement);
+    }
+
+    public void recordRows(String table, String operation, int rows) {
+        DistributionSummary summary = rowSummaries.computeIfAbsent(table + "|" + operation,
+                key -> DistributionSummary.builder("repository.rows")
+                        .description("Rows returned or written by a repository operation")
+                        .tag("table", table)
+                        .tag("operation", operation)
+                        .register(meterRegistry));
+
+        summary.record(rows);
+    }
+
+    // Times just the result set walk, so it can be told apart from the database time in the query timer
+    public <T> ResultSetExtractor<T> timeExtraction(String table, ResultSetExtractor<T> extractor) {
+        Timer timer = extractTimers.computeIfAbsent(table, key -> Timer.builder("repository.extract")
+                .description("Time spent turning joined rows into entities")
+                .tag("table", table)
+                .register(meterRegistry));
+
+        return rs -> {
+            long start = System.nanoTime();
+            try {
+                return extractor.extractData(rs);
+            } finally {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    private Timer getQueryTimer(String table, String operation, String shape) {
+        return queryTimers.computeIfAbsent(table + "|" + operation + "|" + shape,
+                key -> Timer.builder("repository.query")
+                        .description("Time spent in repository SQL statements")
+                        .tag("table", table)
+                        .tag("operation", operation)
+                        .tag("shape", shape)
+                        .register(meterRegistry));
+    }
+}
@@ -0,0 +1,55 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves column labels to indexes once per ResultSet so extractors can read each row by index.
+ * Columns that are not in the result resolve to 0 and read back as null.
+ */
+final class ResultSetColumns {
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    ResultSetColumns(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            // First one wins if a label shows up twice
+            indexes.putIfAbsent(metaData.getColumnLabel(i).toLowerCase(), i);
+        }
+    }
+
+    int indexOf(String column) {
+        return indexes.getOrDefault(column, 0);
+    }
+
+    static String getString(ResultSet rs, int index) throws SQLException {
+        return index == 0 ? null : rs.getString(index);
+    }
+
+    static <T> T getObject(ResultSet rs, int index, Class<T> type) throws SQLException {
+        return index == 0 ? null : rs.getObject(index, type);
+    }
+
+    // getInt and getDouble return 0 for a null column, so check wasNull to keep the null
+    static Integer getInteger(ResultSet rs, int index) throws SQLException {
+        if (index == 0) {
+            return null;
+        }
+
+        int value = rs.getInt(index);
+        return rs.wasNull() ? null : value;
+    }
+
+    static Double getDouble(ResultSet rs, int index) throws SQLException {
+        if (index == 0) {
+            return null;
+        }
+
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? null : value;
+    }
+}
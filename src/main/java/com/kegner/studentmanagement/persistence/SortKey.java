@@ -0,0 +1,27 @@
+package com.kegner.studentmanagement.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A validated sort column and direction. Every order by clause also sorts by id so the ordering is
+ * total, which is what lets a keyset cursor pick up exactly where the previous page stopped.
+ */
+@Getter
+@AllArgsConstructor
+public class SortKey {
+    private final String column;
+    private final String direction;
+
+    public boolean isAscending() {
+        return "ASC".equals(direction);
+    }
+
+    public String getOrderByClause() {
+        if ("id".equals(column)) {
+            return " ORDER BY id " + direction + " ";
+        }
+
+        return " ORDER BY " + column + " " + direction + " NULLS LAST, id " + direction + " ";
+    }
+}
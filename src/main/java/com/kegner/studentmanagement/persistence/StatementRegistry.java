@@ -0,0 +1,73 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * One prebuilt SQL string per table, operation and statement shape. A shape is everything that changes the
+ * statement text (which filters, sort column and direction, seek or offset), so every request with the same
+ * shape executes the identical string. That keeps the driver's per connection statement cache hitting, which
+ * is what lets pgjdbc switch to a named server side statement and Postgres reuse its plan, and skips
+ * rebuilding the SQL on every request. Sparse fieldsets make the number of shapes grow with the requests, so
+ * past the driver's statement cache limit new shapes are built every time instead of being kept.
+ */
+@Component
+public class StatementRegistry {
+    private final Map<String, String> statements = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Shapes past the driver's cache would only be evicted from it, so there's no point keeping their SQL
+    @Value("${statement.cache.limit}")
+    private int limit = 1024;
+
+    private Counter hits;
+    private Counter builds;
+
+    @PostConstruct
+    public void registerMeters() {
+        Gauge.builder("repository.statements", statements, Map::size)
+                .description("Distinct SQL statements built, each one is prepared at most once per connection")
+                .register(meterRegistry);
+        hits = Counter.builder("repository.statement.lookups")
+                .description("Statement lookups by whether the SQL was already built")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        builds = Counter.builder("repository.statement.lookups")
+                .description("Statement lookups by whether the SQL was already built")
+                .tag("result", "build")
+                .register(meterRegistry);
+    }
+
+    // The builder only runs the first time a shape is seen, it must not depend on anything outside the shape
+    public String get(String table, String operation, String shape, Supplier<String> builder) {
+        String key = table + "|" + operation + "|" + shape;
+        String sql = statements.get(key);
+
+        if (sql != null) {
+            hits.increment();
+            return sql;
+        }
+
+        if (statements.size() >= limit) {
+            builds.increment();
+            return builder.get();
+        }
+
+        return statements.computeIfAbsent(key, k -> {
+            builds.increment();
+            return builder.get();
+        });
+    }
+}
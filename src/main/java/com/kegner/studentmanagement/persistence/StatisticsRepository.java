@@ -0,0 +1,79 @@
+package com.kegner.studentmanagement.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.kegner.studentmanagement.model.EnrollmentStatistics;
+import com.kegner.studentmanagement.model.StudentEntity;
+
+// Full reads behind a statistics recompute, each row handed over as it's read
+@Repository
+public class StatisticsRepository {
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    // Repeatable read, so the reads below all see the same snapshot of the tables when they run in here
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public void inSnapshot(Runnable reads) {
+        reads.run();
+    }
+
+    // Only the id, major and GPA are set. Read only so the driver can stream with a server-side cursor.
+    @Transactional(readOnly = true)
+    public void getGrades(Consumer<StudentEntity> consumer) {
+        queryMetrics.time("student", "statistics", "grades", () -> jdbcTemplate.getJdbcTemplate().query(connection -> {
+            var statement = connection.prepareStatement("SELECT id, major, gpa FROM student");
+            statement.setFetchSize(BaseRepository.EXPORT_FETCH_SIZE);
+            return statement;
+        }, rs -> {
+            double gpa = rs.getDouble("gpa");
+            boolean graded = !rs.wasNull();
+            consumer.accept(StudentEntity.builder()
+                    .id(rs.getLong("id"))
+                    .major(rs.getString("major"))
+                    .gpa(graded ? gpa : null)
+                    .build());
+        }));
+    }
+
+    // Every course with its enrollment count, courses without students included
+    @Transactional(readOnly = true)
+    public void getEnrollments(Consumer<EnrollmentStatistics.Course> consumer) {
+        queryMetrics.time("course", "statistics", "enrollments", () -> jdbcTemplate.getJdbcTemplate().query("""
+                    SELECT c.id, c.department_name, c.semester, COUNT(sc.student_id) AS students
+                    FROM course c LEFT JOIN student_course sc ON sc.course_id = c.id
+                    GROUP BY c.id
+                """, rs -> {
+            consumer.accept(EnrollmentStatistics.Course.builder()
+                    .id(rs.getLong("id"))
+                    .departmentName(rs.getString("department_name"))
+                    .semester(rs.getString("semester"))
+                    .students(rs.getLong("students"))
+                    .build());
+        }));
+    }
+
+    // The given pairs that are in student_course
+    @Transactional(readOnly = true)
+    public List<EnrollmentChangedEvent.Enrollment> getEnrolled(List<EnrollmentChangedEvent.Enrollment> enrollments) {
+        if (enrollments.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return queryMetrics.time("student", "statistics", "enrolled", () -> jdbcTemplate.query("""
+                    SELECT sc.student_id, sc.course_id
+                    FROM unnest(:studentIds, :courseIds) AS r(student_id, course_id)
+                    JOIN student_course sc ON sc.student_id = r.student_id AND sc.course_id = r.course_id
+                """, StudentRepository.getEnrollmentParams(enrollments), StudentRepository::mapEnrollment));
+    }
+}
@@ -0,0 +1,30 @@
+package com.kegner.studentmanagement.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A student row inserted, changed or deleted, published inside the writing transaction so listeners only hear
+ * about it once it commits. Carries the fields the statistics are grouped and measured by.
+ */
+@Getter
+@AllArgsConstructor
+public class StudentChangedEvent {
+    private final long id;
+    private final String major;
+    private final Double gpa;
+    private final boolean created;
+    private final boolean deleted;
+
+    public static StudentChangedEvent created(long id, String major, Double gpa) {
+        return new StudentChangedEvent(id, major, gpa, true, false);
+    }
+
+    public static StudentChangedEvent saved(long id, String major, Double gpa) {
+        return new StudentChangedEvent(id, major, gpa, false, false);
+    }
+
+    public static StudentChangedEvent deleted(long id) {
+        return new StudentChangedEvent(id, null, null, false, true);
+    }
+}
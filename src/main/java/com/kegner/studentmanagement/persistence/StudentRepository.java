@@ -1,18 +1,31 @@
 package com.kegner.studentmanagement.persistence;
 
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
@@ -22,9 +35,15 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
+import com.kegner.studentmanagement.model.CountMode;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportReject;
+import com.kegner.studentmanagement.model.ImportResult;
+import com.kegner.studentmanagement.model.ImportRow;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.RowVersion;
 import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.model.WriteResult;
 
 @Repository
 public class StudentRepository implements BaseRepository<StudentEntity> {
@@ -42,6 +61,19 @@ public class StudentRepository implements BaseRepository<StudentEntity> {
             "id", "first_name", "last_name", "email",
             "phone_number", "date_of_birth", "gpa", "major", "created_date", "modified_date");
 
+    // Sort column values used to build the cursor for the last row of a page
+    private static final Map<String, Function<StudentEntity, Object>> sortValues = Map.of(
+            "id", StudentEntity::getId,
+            "first_name", StudentEntity::getFirstName,
+            "last_name", StudentEntity::getLastName,
+            "email", StudentEntity::getEmail,
+            "phone_number", StudentEntity::getPhoneNumber,
+            "date_of_birth", StudentEntity::getDateOfBirth,
+            "gpa", StudentEntity::getGpa,
+            "major", StudentEntity::getMajor,
+            "created_date", StudentEntity::getCreatedDate,
+            "modified_date", StudentEntity::getModifiedDate);
+
     private static final Logger logger = LoggerFactory.getLogger(StudentRepository.class);
 
     @Autowired
@@ -50,14 +82,30 @@ public class StudentRepository implements BaseRepository<StudentEntity> {
     @Autowired
     private StudentResultSetExtractor resultSetExtractor;
 
+    @Autowired
+    private EnrollmentIndex enrollmentIndex;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Autowired
+    private StatementRegistry statements;
+
     @Override
     public StudentEntity get(Long id) {
         MapSqlParameterSource params = new MapSqlParameterSource().addValue("id", id);
 
-        // Includes the course ids
-        Map<Long, StudentEntity> studentMap = jdbcTemplate.query(
-                GET_QUERY_JOIN + " FROM student s LEFT JOIN student_course sc ON s.id = sc.student_id WHERE s.id = :id",
-                params, resultSetExtractor);
+        // Includes the course ids, from the enrollment index when it is on so the join can be skipped
+        String joinShape = getJoinShape();
+        String sql = statements.get("student", "get", joinShape, () -> enrollmentIndex.isEnabled()
+                ? GET_QUERY + " FROM student WHERE id = :id"
+                : GET_QUERY_JOIN + " FROM student s LEFT JOIN student_course sc ON s.id = sc.student_id"
+                        + " WHERE s.id = :id");
+        Map<Long, StudentEntity> studentMap = queryMetrics.time("student", "get", joinShape,
+                () -> jdbcTemplate.query(sql, params, queryMetrics.timeExtraction("student", resultSetExtractor)));
 
         if (studentMap == null) {
             return null;
@@ -67,56 +115,216 @@ public class StudentRepository implements BaseRepository<StudentEntity> {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public ListWrapper<StudentEntity> getAll(DataQuery query) {
-        // Pagination values
+        PageQuery pageQuery = getPageQuery(query);
+        SortKey sortKey = pageQuery.getSortKey();
+        MapSqlParameterSource params = pageQuery.getParams();
+        int limit = pageQuery.getLimit();
+        String joinShape = pageQuery.isLinked() ? getJoinShape() : "none";
+        String shape = pageQuery.getShape() + ":" + joinShape;
+
+        // Get the paginated values, joined for the course ids unless the enrollment index has them or a sparse
+        // fieldset left them out. Only built the first time this statement is seen, after that every request
+        // runs the same string.
+        String sql = statements.get("student", "page", pageQuery.getStatementKey() + ":" + joinShape, () -> {
+            String select = pageQuery.getSelectClause(GET_QUERY);
+            String orderBy = sortKey.getOrderByClause();
+            String pageSql = select + pageQuery.getRelevanceColumn() + " FROM student "
+                    + pageQuery.getWhereClause() + pageQuery.getSeekClause() + orderBy + " LIMIT :limit OFFSET :offset";
+
+            return !"join".equals(joinShape)
+                    ? pageSql
+                    : select + ", course_id FROM( " + pageSql + ") as s LEFT JOIN student_course sc"
+                            + " ON s.id = sc.student_id " + orderBy;
+        });
+        ResultSetExtractor<Map<Long, StudentEntity>> extractor = queryMetrics.timeExtraction("student",
+                pageQuery.isLinked() ? resultSetExtractor : resultSetExtractor.withoutCourseIds());
+        Map<Long, StudentEntity> studentMap = queryMetrics.time("student", "page", shape,
+                () -> jdbcTemplate.query(sql, params, extractor));
+
+        if (studentMap == null) {
+            studentMap = new HashMap<>();
+        }
+
+        // Get the total count to calculate how many pages there are for the frontend
+        Integer total = queryMetrics.time("student", "count", pageQuery.getCountShape(query.getCountMode()),
+                () -> BaseRepository.getTotal(jdbcTemplate, statements, "student", pageQuery, query.getCountMode()));
+
+        List<StudentEntity> studentList = new ArrayList<>(studentMap.values());
+        queryMetrics.recordRows("student", "page", studentList.size());
+
+        // Drop the look-ahead row, it only tells us that there is more
+        boolean hasMore = studentList.size() > limit;
+        if (hasMore) {
+            studentList.remove(limit);
+        }
+
+        // Hand back a cursor for the last row so the next page can seek past it, unless ranked by relevance
+        String nextCursor = null;
+        if (hasMore && sortValues.containsKey(sortKey.getColumn())) {
+            StudentEntity last = studentList.get(studentList.size() - 1);
+            Object value = sortValues.get(sortKey.getColumn()).apply(last);
+            nextCursor = new PageCursor(sortKey.getColumn(), sortKey.getDirection(), last.getId(),
+                    value == null ? null : value.toString()).encode();
+        }
+
+        return ListWrapper.<StudentEntity>builder()
+                .data(studentList)
+                .count(studentList.size())
+                .total(total)
+                .countMode(query.getCountMode())
+                .hasMore(hasMore)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    @Override
+    public RowVersion getVersion(Long id) {
+        return queryMetrics.time("student", "version", "by-id",
+                () -> BaseRepository.getVersion(jdbcTemplate, statements, "student", id));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ListWrapper<RowVersion> getAllVersions(DataQuery query) {
+        PageQuery pageQuery = getPageQuery(query);
+
+        return queryMetrics.time("student", "versions", pageQuery.getShape(),
+                () -> BaseRepository.getVersions(jdbcTemplate, statements, "student", pageQuery,
+                        query.getCountMode()));
+    }
+
+    // A page of students for each of several courses, keyed by course id in the order asked for. One windowed
+    // query over the junction table picks every course's page of ids and its total, a second reads those
+    // students without the join. Only the sort, page and page size of the query apply.
+    @Transactional(readOnly = true)
+    public Map<Long, ListWrapper<StudentEntity>> getRosters(List<Long> courseIds, DataQuery query) {
+        SortKey sortKey = BaseRepository.getSortKey(DataQuery.builder().sort(query.getSort()).build(), validColumns);
+        int limit = Math.min(query.getPageSize(), MAX_LIMIT);
+        String shape = sortKey.getColumn() + ":" + sortKey.getDirection().toLowerCase();
+
+        // One row past the page for hasMore, the same as a list page
         MapSqlParameterSource params = new MapSqlParameterSource()
-                .addValue("limit", Math.min(query.getPageSize(), MAX_LIMIT))
-                .addValue("offset", query.getPage() * query.getPageSize());
+                .addValue("ids", BaseRepository.getIdArray(courseIds))
+                .addValue("limit", limit + 1)
+                .addValue("offset", query.getPage() * limit);
+        String sql = statements.get("student", "roster-ids", shape, () -> """
+                SELECT course_id, id, total FROM (
+                    SELECT sc.course_id, s.id, COUNT(*) OVER (PARTITION BY sc.course_id) AS total,
+                        ROW_NUMBER() OVER (PARTITION BY sc.course_id %s) AS position
+                    FROM student_course sc JOIN student s ON s.id = sc.student_id
+                    WHERE sc.course_id = ANY(:ids)
+                ) AS r
+                WHERE position > :offset AND position <= :offset + :limit
+                ORDER BY course_id, position
+                """.formatted(sortKey.getOrderByClause()));
+
+        Map<Long, List<Long>> idsByCourse = new HashMap<>();
+        Map<Long, Integer> totals = new HashMap<>();
+        queryMetrics.time("student", "roster-ids", shape, () -> jdbcTemplate.query(sql, params, rs -> {
+            long courseId = rs.getLong("course_id");
+            idsByCourse.computeIfAbsent(courseId, k -> new ArrayList<>()).add(rs.getLong("id"));
+            totals.put(courseId, rs.getInt("total"));
+        }));
+
+        // Each student once, however many of the courses they are in
+        Set<Long> studentIds = new HashSet<>();
+        idsByCourse.values().forEach(studentIds::addAll);
+
+        Map<Long, StudentEntity> students = new HashMap<>();
+        if (!studentIds.isEmpty()) {
+            String studentSql = statements.get("student", "roster", "by-ids",
+                    () -> GET_QUERY + " FROM student WHERE id = ANY(:ids)");
+            MapSqlParameterSource studentParams = new MapSqlParameterSource()
+                    .addValue("ids", BaseRepository.getIdArray(studentIds));
+            Map<Long, StudentEntity> found = queryMetrics.time("student", "roster", "by-ids",
+                    () -> jdbcTemplate.query(studentSql, studentParams,
+                            queryMetrics.timeExtraction("student", resultSetExtractor.withoutCourseIds())));
+            if (found != null) {
+                students.putAll(found);
+            }
+        }
+
+        queryMetrics.recordRows("student", "roster", students.size());
+
+        Map<Long, ListWrapper<StudentEntity>> rosters = new LinkedHashMap<>();
+        for (Long courseId : courseIds) {
+            List<StudentEntity> page = new ArrayList<>();
+            for (Long studentId : idsByCourse.getOrDefault(courseId, List.of())) {
+                StudentEntity student = students.get(studentId);
+                if (student != null) {
+                    page.add(student);
+                }
+            }
+
+            boolean hasMore = page.size() > limit;
+            if (hasMore) {
+                page.remove(limit);
+            }
+
+            rosters.put(courseId, ListWrapper.<StudentEntity>builder()
+                    .data(page)
+                    .count(page.size())
+                    .total(totals.getOrDefault(courseId, 0))
+                    .countMode(CountMode.EXACT)
+                    .hasMore(hasMore)
+                    .build());
+        }
+
+        return rosters;
+    }
+
+    // Filters, sort and pagination shared by the full page and the version only page
+    private PageQuery getPageQuery(DataQuery query) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
 
         String whereClause = " WHERE 1=1 ";
 
         // Where clause for ids
         if (!CollectionUtils.isEmpty(query.getIds())) {
-            params.addValue("ids", query.getIds());
-            whereClause += " AND id IN (:ids) ";
+            params.addValue("ids", BaseRepository.getIdArray(query.getIds()));
+            whereClause += " AND id = ANY(:ids) ";
         }
 
         // Where clause for search field
         if (StringUtils.isNotBlank(query.getSearch())) {
-            params.addValue("search", query.getSearch() + "%");
-            whereClause += " AND first_name ILIKE :search OR last_name ILIKE :search ";
+            whereClause += BaseRepository.getSearchClause(query.getSearch(), params);
         }
 
-        String orderBy = BaseRepository.getOrderByClause(query, validColumns);
-
-        // Get the paginated values
-        Map<Long, StudentEntity> studentMap = jdbcTemplate.query(
-                GET_QUERY_JOIN + " FROM( " + GET_QUERY + " FROM student "
-                        + whereClause + orderBy + " LIMIT :limit OFFSET :offset) as s "
-                        + " LEFT JOIN student_course sc ON s.id = sc.student_id " + orderBy,
-                params, resultSetExtractor);
-
-        if (studentMap == null) {
-            studentMap = new HashMap<>();
+        // Where clause for the students of a course
+        if (query.getEnrolledWith() != null) {
+            params.addValue("enrolledWith", query.getEnrolledWith());
+            whereClause += " AND id IN (SELECT student_id FROM student_course WHERE course_id = :enrolledWith) ";
         }
 
-        // Get the total count to calculate how many pages there are for the frontend
-        Integer total = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM student " + whereClause,
-                params, Integer.class);
-
-        List<StudentEntity> studentList = new ArrayList<>(studentMap.values());
+        return BaseRepository.getPageQuery(query, validColumns, "courseIds", whereClause, params);
+    }
 
-        return ListWrapper.<StudentEntity>builder()
-                .data(studentList)
-                .count(studentList.size())
-                .total(total)
-                .build();
+    // Read only so the driver can use a server-side cursor, which only works outside of autocommit
+    @Override
+    @Transactional(readOnly = true)
+    public void export(Consumer<StudentEntity> consumer) {
+        // Ordered by id so each student's joined rows arrive together and can be emitted as soon as they end
+        String joinShape = getJoinShape();
+        String sql = statements.get("student", "export", joinShape, () -> enrollmentIndex.isEnabled()
+                ? GET_QUERY + " FROM student ORDER BY id"
+                : GET_QUERY_JOIN + " FROM student s LEFT JOIN student_course sc ON s.id = sc.student_id"
+                        + " ORDER BY s.id");
+
+        queryMetrics.time("student", "export", joinShape, () -> jdbcTemplate.getJdbcTemplate().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            return statement;
+        }, rs -> {
+            resultSetExtractor.extractOrdered(rs, consumer);
+            return null;
+        }));
     }
 
     @Override
     @Transactional
-    public void insert(StudentEntity student) {
+    public WriteResult insert(StudentEntity student) {
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("firstName", student.getFirstName())
                 .addValue("lastName", student.getLastName())
@@ -128,22 +336,24 @@ public class StudentRepository implements BaseRepository<StudentEntity> {
 
         KeyHolder holder = new GeneratedKeyHolder();
 
-        jdbcTemplate.update("""
+        int inserted = queryMetrics.time("student", "insert", "by-id", () -> jdbcTemplate.update("""
                     INSERT INTO student (first_name, last_name, email, phone_number, date_of_birth, gpa, major)
                     VALUES (:firstName, :lastName, :email, :phoneNumber, :dateOfBirth, :gpa, :major)
-                """, params, holder, new String[] { "id" });
+                """, params, holder, new String[] { "id" }));
 
         // Need to grab the id for the junction table insertions
         Number key = holder.getKey();
 
         if (key == null) {
             logger.error("Insert query did not return a primary key.");
-            return;
+            return WriteResult.builder().build();
         }
 
+        eventPublisher.publishEvent(StudentChangedEvent.created(key.longValue(), student.getMajor(), student.getGpa()));
+
         // No course ids, skip the batch inserts
         if (CollectionUtils.isEmpty(student.getCourseIds())) {
-            return;
+            return WriteResult.builder().id(key.longValue()).rowsAffected(inserted).build();
         }
 
         String sql = "INSERT INTO student_course (student_id, course_id) VALUES (:studentId, :courseId)";
@@ -154,12 +364,23 @@ public class StudentRepository implements BaseRepository<StudentEntity> {
         }
 
         // Batch update to add the course ids in the junction table
-        jdbcTemplate.batchUpdate(sql, batchArgs.toArray(new SqlParameterSource[0]));
+        queryMetrics.time("student", "enroll-insert", "batch",
+                () -> jdbcTemplate.batchUpdate(sql, batchArgs.toArray(new SqlParameterSource[0])));
+        queryMetrics.recordRows("student", "enroll-insert", batchArgs.size());
+        touchCourses(student.getCourseIds());
+        eventPublisher.publishEvent(
+                EnrollmentChangedEvent.forStudent(key.longValue(), student.getCourseIds(), List.of()));
+
+        return WriteResult.builder()
+                .id(key.longValue())
+                .addedIds(new ArrayList<>(student.getCourseIds()))
+                .rowsAffected(inserted + batchArgs.size())
+                .build();
     }
 
     @Override
     @Transactional
-    public void update(StudentEntity student) {
+    public WriteResult update(StudentEntity student) {
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("id", student.getId())
                 .addValue("firstName", student.getFirstName())
@@ -169,54 +390,277 @@ public class StudentRepository implements BaseRepository<StudentEntity> {
                 .addValue("dateOfBirth", student.getDateOfBirth())
                 .addValue("gpa", student.getGpa())
                 .addValue("major", student.getMajor())
-                .addValue("modifiedDate", OffsetDateTime.now());
+                .addValue("courseIds", BaseRepository.getIdArray(new HashSet<>(student.getCourseIds())))
+                .addValue("modifiedDate", OffsetDateTime.now())
+                .addValue("expected", student.getModifiedDate(), Types.TIMESTAMP_WITH_TIMEZONE);
+
+        // One round trip that syncs the enrollments to the given course ids and only updates the student
+        // (and modified_date) when a field or an enrollment actually changed. The delete only removes ids
+        // outside the list and the insert only adds ids in it, so the CTEs never touch the same row.
+        // The modified date the client read is the version: the row is locked for this statement only and
+        // nothing is written unless it's still current, a request without one writes unconditionally.
+        String sql = """
+                    WITH current AS (
+                        SELECT modified_date FROM student WHERE id = :id FOR UPDATE
+                    ),
+                    allowed AS (
+                        SELECT 1 FROM current
+                        WHERE CAST(:expected AS timestamptz) IS NULL OR modified_date = :expected
+                    ),
+                    removed AS (
+                        DELETE FROM student_course
+                        WHERE student_id = :id AND course_id <> ALL(:courseIds) AND EXISTS (SELECT 1 FROM allowed)
+                        RETURNING course_id
+                    ),
+                    added AS (
+                        INSERT INTO student_course (student_id, course_id)
+                        SELECT :id, course_id FROM unnest(:courseIds) AS c(course_id)
+                        WHERE EXISTS (SELECT 1 FROM allowed)
+                        ON CONFLICT DO NOTHING
+                        RETURNING course_id
+                    ),
+                    updated AS (
+                        UPDATE student
+                        SET first_name = :firstName, last_name = :lastName, email = :email,
+                        phone_number = :phoneNumber, date_of_birth = :dateOfBirth, gpa = :gpa, major = :major,
+                        modified_date = :modifiedDate
+                        WHERE id = :id AND EXISTS (SELECT 1 FROM allowed)
+                        AND (first_name IS DISTINCT FROM :firstName OR last_name IS DISTINCT FROM :lastName
+                        OR email IS DISTINCT FROM :email
+                        OR phone_number IS DISTINCT FROM :phoneNumber OR date_of_birth IS DISTINCT FROM :dateOfBirth
+                        OR gpa IS DISTINCT FROM :gpa OR major IS DISTINCT FROM :major
+                        OR EXISTS (SELECT 1 FROM removed) OR EXISTS (SELECT 1 FROM added))
+                        RETURNING id
+                    ),
+                    touched AS (
+                        UPDATE course SET modified_date = :modifiedDate
+                        WHERE id IN (SELECT course_id FROM removed UNION ALL SELECT course_id FROM added)
+                    )
+                    SELECT (SELECT COUNT(*) FROM updated) AS updated, ARRAY(SELECT course_id FROM added) AS added,
+                    ARRAY(SELECT course_id FROM removed) AS removed,
+                    EXISTS (SELECT 1 FROM current) AND NOT EXISTS (SELECT 1 FROM allowed) AS conflict
+                """;
+
+        WriteResult result = queryMetrics.time("student", "update", "enroll-sync",
+                () -> jdbcTemplate.queryForObject(sql, params, (rs, rowNum) -> {
+                    List<Long> added = BaseRepository.getIds(rs.getArray("added"));
+                    List<Long> removed = BaseRepository.getIds(rs.getArray("removed"));
+
+                    return WriteResult.builder()
+                            .id(student.getId())
+                            .addedIds(added)
+                            .removedIds(removed)
+                            .rowsAffected(rs.getInt("updated") + added.size() + removed.size())
+                            .conflict(rs.getBoolean("conflict"))
+                            .build();
+                }));
+
+        queryMetrics.recordRows("student", "update", result.getRowsAffected());
+
+        if (result.isChanged()) {
+            eventPublisher.publishEvent(
+                    StudentChangedEvent.saved(student.getId(), student.getMajor(), student.getGpa()));
+        }
 
-        // Update the main object
-        jdbcTemplate.update("""
-                    UPDATE student
-                    SET first_name = :firstName, last_name = :lastName, email = :email, phone_number = :phoneNumber,
-                    date_of_birth = :dateOfBirth, gpa = :gpa, major = :major, modified_date = :modifiedDate
-                    WHERE id = :id
-                """,
-                params);
+        if (!result.getLinkedIds().isEmpty()) {
+            eventPublisher.publishEvent(
+                    EnrollmentChangedEvent.forStudent(student.getId(), result.getAddedIds(), result.getRemovedIds()));
+        }
+
+        return result;
+    }
 
-        Set<Long> courseIds = new HashSet<>(student.getCourseIds());
+    @Override
+    @Transactional
+    public WriteResult delete(Long id) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("id", id);
 
-        String courseIdSql = "SELECT course_id FROM student_course WHERE student_id = :id";
-        Set<Long> existingCourseIds = new HashSet<>(jdbcTemplate.queryForList(courseIdSql, params, Long.class));
+        // Delete from the junction table first, keeping the courses that lose this student
+        String enrollmentSql = "DELETE FROM student_course WHERE student_id = :id RETURNING course_id";
+        List<Long> courseIds = queryMetrics.time("student", "enroll-delete", "by-student",
+                () -> jdbcTemplate.queryForList(enrollmentSql, params, Long.class));
+        int deleted = queryMetrics.time("student", "delete", "by-id",
+                () -> jdbcTemplate.update("DELETE FROM student WHERE id = :id", params));
+        touchCourses(courseIds);
+        eventPublisher.publishEvent(EnrollmentChangedEvent.forStudent(id, List.of(), courseIds));
+
+        if (deleted > 0) {
+            eventPublisher.publishEvent(StudentChangedEvent.deleted(id));
+        }
 
-        Set<Long> courseIdsToAdd = courseIds.stream()
-                .filter(courseId -> !existingCourseIds.contains(courseId)).collect(Collectors.toSet());
-        Set<Long> courseIdsToRemove = existingCourseIds.stream()
-                .filter(courseId -> !courseIds.contains(courseId)).collect(Collectors.toSet());
+        return WriteResult.builder().id(id).removedIds(courseIds).rowsAffected(deleted + courseIds.size()).build();
+    }
 
-        String insertSql = "INSERT INTO student_course (student_id, course_id) VALUES (:studentId, :courseId)";
-        String removeSql = "DELETE FROM student_course WHERE student_id = :studentId AND course_id = :courseId";
+    /**
+     * Enrollment changes for any number of students in one transaction and a fixed number of statements, however
+     * big the batch. Pairs are written in key order so two batches lock student_course rows in the same order, and
+     * pairs whose student or course is gone by now are skipped rather than failing the batch. Returns the number
+     * of student_course rows that actually changed.
+     */
+    @Transactional
+    public int updateEnrollments(List<EnrollmentChangedEvent.Enrollment> added,
+            List<EnrollmentChangedEvent.Enrollment> removed) {
+        List<EnrollmentChangedEvent.Enrollment> deleted = removed.isEmpty() ? new ArrayList<>()
+                : queryMetrics.time("student", "enroll-delete", "batch", () -> jdbcTemplate.query("""
+                            DELETE FROM student_course sc
+                            USING unnest(:studentIds, :courseIds) AS r(student_id, course_id)
+                            WHERE sc.student_id = r.student_id AND sc.course_id = r.course_id
+                            RETURNING sc.student_id, sc.course_id
+                        """, getEnrollmentParams(removed), StudentRepository::mapEnrollment));
+
+        List<EnrollmentChangedEvent.Enrollment> inserted = added.isEmpty() ? new ArrayList<>()
+                : queryMetrics.time("student", "enroll-insert", "batch", () -> jdbcTemplate.query("""
+                            INSERT INTO student_course (student_id, course_id)
+                            SELECT r.student_id, r.course_id
+                            FROM unnest(:studentIds, :courseIds) AS r(student_id, course_id)
+                            WHERE EXISTS (SELECT 1 FROM student s WHERE s.id = r.student_id)
+                            AND EXISTS (SELECT 1 FROM course c WHERE c.id = r.course_id)
+                            ORDER BY r.student_id, r.course_id
+                            ON CONFLICT DO NOTHING
+                            RETURNING student_id, course_id
+                        """, getEnrollmentParams(added), StudentRepository::mapEnrollment));
+
+        Set<Long> studentIds = new HashSet<>();
+        Set<Long> courseIds = new HashSet<>();
+        for (List<EnrollmentChangedEvent.Enrollment> changed : List.of(inserted, deleted)) {
+            for (EnrollmentChangedEvent.Enrollment enrollment : changed) {
+                studentIds.add(enrollment.getStudentId());
+                courseIds.add(enrollment.getCourseId());
+            }
+        }
 
-        List<SqlParameterSource> addBatchArgs = new ArrayList<>();
-        for (Long courseId : courseIdsToAdd) {
-            addBatchArgs.add(getParamSource(student.getId(), courseId));
+        // Both sides show the change in their ETags
+        if (!studentIds.isEmpty()) {
+            queryMetrics.time("student", "touch", "by-ids",
+                    () -> BaseRepository.touch(jdbcTemplate, "student", studentIds));
         }
+        touchCourses(courseIds);
+        queryMetrics.recordRows("student", "enroll-batch", inserted.size() + deleted.size());
 
-        List<SqlParameterSource> removeBatchArgs = new ArrayList<>();
-        for (Long courseId : courseIdsToRemove) {
-            removeBatchArgs.add(getParamSource(student.getId(), courseId));
+        if (!inserted.isEmpty() || !deleted.isEmpty()) {
+            eventPublisher.publishEvent(new EnrollmentChangedEvent(inserted, deleted, false));
         }
 
-        // Update the courses that were added and the courses that were removed
-        jdbcTemplate.batchUpdate(insertSql, addBatchArgs.toArray(new SqlParameterSource[0]));
-        jdbcTemplate.batchUpdate(removeSql, removeBatchArgs.toArray(new SqlParameterSource[0]));
+        return inserted.size() + deleted.size();
+    }
+
+    // Sorted by student then course, bound as two parallel arrays for unnest
+    static MapSqlParameterSource getEnrollmentParams(List<EnrollmentChangedEvent.Enrollment> enrollments) {
+        List<EnrollmentChangedEvent.Enrollment> sorted = new ArrayList<>(enrollments);
+        sorted.sort(Comparator.comparingLong(EnrollmentChangedEvent.Enrollment::getStudentId)
+                .thenComparingLong(EnrollmentChangedEvent.Enrollment::getCourseId));
+
+        return new MapSqlParameterSource()
+                .addValue("studentIds", BaseRepository.getIdArray(
+                        sorted.stream().map(EnrollmentChangedEvent.Enrollment::getStudentId).toList()))
+                .addValue("courseIds", BaseRepository.getIdArray(
+                        sorted.stream().map(EnrollmentChangedEvent.Enrollment::getCourseId).toList()));
+    }
+
+    static EnrollmentChangedEvent.Enrollment mapEnrollment(ResultSet rs, int rowNum) throws SQLException {
+        return new EnrollmentChangedEvent.Enrollment(rs.getLong("student_id"), rs.getLong("course_id"));
     }
 
     @Override
     @Transactional
-    public void delete(Long id) {
-        MapSqlParameterSource params = new MapSqlParameterSource()
-                .addValue("id", id);
+    public ImportResult bulkInsert(Iterator<ImportRow<StudentEntity>> rows) {
+        // Staging table only lives until the transaction ends
+        jdbcTemplate.getJdbcTemplate().execute("""
+                    CREATE TEMP TABLE student_import (
+                    line bigint NOT NULL, first_name text, last_name text, email text, phone_number text,
+                    date_of_birth date, gpa decimal, major text, course_ids bigint[]
+                    ) ON COMMIT DROP
+                """);
+
+        // Stream the rows straight into the staging table as they are read from the request
+        Long copied = queryMetrics.time("student", "bulk-copy", "staging",
+                () -> jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Long>) connection -> {
+            try (CopyWriter copyWriter = new CopyWriter(connection, """
+                        COPY student_import (line, first_name, last_name, email, phone_number, date_of_birth, gpa,
+                        major, course_ids) FROM STDIN WITH (FORMAT csv)
+                    """)) {
+                while (rows.hasNext()) {
+                    ImportRow<StudentEntity> row = rows.next();
+                    StudentEntity student = row.getValue();
+                    copyWriter.writeRow(row.getLine(), student.getFirstName(), student.getLastName(),
+                            student.getEmail(), student.getPhoneNumber(), student.getDateOfBirth(), student.getGpa(),
+                            student.getMajor(), student.getCourseIds());
+                }
+
+                return copyWriter.finish();
+            } catch (IOException e) {
+                throw new SQLException("Could not copy the import rows.", e);
+            }
+        }));
+        queryMetrics.recordRows("student", "bulk-copy", copied == null ? 0 : copied.intValue());
+
+        // So the planner knows how big the staging table is
+        jdbcTemplate.getJdbcTemplate().execute("ANALYZE student_import");
+
+        // Rows pointing at courses that don't exist are rejected instead of failing the whole import
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("maxRejects", ImportResult.MAX_REJECTS);
+        List<ImportReject> rejects = new ArrayList<>();
+        int[] rejected = { 0 };
+
+        queryMetrics.time("student", "bulk-reject", "staging", () -> jdbcTemplate.query("""
+                    WITH rejected AS (
+                        DELETE FROM student_import i
+                        WHERE EXISTS (SELECT 1 FROM unnest(i.course_ids) AS sc(course_id)
+                        WHERE NOT EXISTS (SELECT 1 FROM course c WHERE c.id = sc.course_id))
+                        RETURNING line
+                    )
+                    SELECT line, COUNT(*) OVER () AS total FROM rejected ORDER BY line LIMIT :maxRejects
+                """, params, rs -> {
+            rejected[0] = rs.getInt("total");
+            rejects.add(new ImportReject(rs.getLong("line"), "One or more course ids do not exist."));
+        }));
+
+        // Ids are drawn up front so the students and their junction rows go in with one statement
+        Integer inserted = queryMetrics.time("student", "bulk-merge", "staging",
+                () -> jdbcTemplate.getJdbcTemplate().queryForObject("""
+                    WITH numbered AS MATERIALIZED (
+                        SELECT nextval(pg_get_serial_sequence('student', 'id')) AS id, first_name, last_name, email,
+                        phone_number, date_of_birth, gpa, major, course_ids
+                        FROM student_import
+                    ),
+                    students AS (
+                        INSERT INTO student (id, first_name, last_name, email, phone_number, date_of_birth, gpa, major)
+                        SELECT id, first_name, last_name, email, phone_number, date_of_birth, gpa, major FROM numbered
+                        RETURNING id
+                    ),
+                    enrollments AS (
+                        INSERT INTO student_course (student_id, course_id)
+                        SELECT DISTINCT n.id, sc.course_id FROM numbered n
+                        CROSS JOIN LATERAL unnest(n.course_ids) AS sc(course_id)
+                    ),
+                    touched AS (
+                        UPDATE course SET modified_date = CURRENT_TIMESTAMP
+                        WHERE id IN (SELECT unnest(course_ids) FROM numbered)
+                    )
+                    SELECT COUNT(*) FROM students
+                """, Integer.class));
+        queryMetrics.recordRows("student", "bulk-merge", inserted == null ? 0 : inserted);
+
+        eventPublisher.publishEvent(EnrollmentChangedEvent.reload());
+
+        return ImportResult.builder()
+                .inserted(inserted)
+                .rejected(rejected[0])
+                .rejects(rejects)
+                .build();
+    }
+
+    private void touchCourses(Collection<Long> courseIds) {
+        if (!CollectionUtils.isEmpty(courseIds)) {
+            queryMetrics.time("course", "touch", "by-ids",
+                    () -> BaseRepository.touch(jdbcTemplate, "course", courseIds));
+        }
+    }
 
-        // Delete from the junction table first
-        jdbcTemplate.update("DELETE FROM student_course WHERE student_id = :id", params);
-        jdbcTemplate.update("DELETE FROM student WHERE id = :id", params);
+    // Whether the course ids come from the join or from the enrollment index
+    private String getJoinShape() {
+        return enrollmentIndex.isEnabled() ? "index" : "join";
     }
 
     private MapSqlParameterSource getParamSource(Long studentId, Long courseId) {
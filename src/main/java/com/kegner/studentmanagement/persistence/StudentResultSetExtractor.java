@@ -1,13 +1,18 @@
 package com.kegner.studentmanagement.persistence;
 
+import static com.kegner.studentmanagement.persistence.ResultSetColumns.getDouble;
+import static com.kegner.studentmanagement.persistence.ResultSetColumns.getObject;
+import static com.kegner.studentmanagement.persistence.ResultSetColumns.getString;
+
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Component;
@@ -16,41 +21,157 @@ import com.kegner.studentmanagement.model.StudentEntity;
 
 @Component
 public class StudentResultSetExtractor implements ResultSetExtractor<Map<Long, StudentEntity>> {
+    // Not set when constructed outside of Spring, which is the same as the index being off
+    @Autowired(required = false)
+    private EnrollmentIndex enrollmentIndex;
+
     @Override
     public @NonNull Map<Long, StudentEntity> extractData(@NonNull ResultSet rs) throws SQLException {
-        Map<Long, StudentEntity> map = new LinkedHashMap<>();
+        return extract(rs, true);
+    }
+
+    // For sparse fieldsets that leave out the course ids, so the index isn't asked for them either
+    public ResultSetExtractor<Map<Long, StudentEntity>> withoutCourseIds() {
+        return rs -> extract(rs, false);
+    }
+
+    private Map<Long, StudentEntity> extract(ResultSet rs, boolean linked) throws SQLException {
+        Columns columns = new Columns(new ResultSetColumns(rs));
+        EnrollmentIndex index = linked ? getIndex(columns) : null;
+        Map<Long, PendingStudent> pending = new LinkedHashMap<>();
+        PendingStudent current = null;
 
         while (rs.next()) {
-            Long id = rs.getLong("id");
-
-            if (!map.containsKey(id)) {
-                StudentEntity newEntity = StudentEntity.builder()
-                        .id(id)
-                        .firstName(rs.getString("first_name"))
-                        .lastName(rs.getString("last_name"))
-                        .email(rs.getString("email"))
-                        .phoneNumber(rs.getString("phone_number"))
-                        .dateOfBirth(rs.getObject("date_of_birth", LocalDate.class))
-                        .gpa(rs.getDouble("gpa"))
-                        .major(rs.getString("major"))
-                        .createdDate(rs.getObject("created_date", OffsetDateTime.class))
-                        .modifiedDate(rs.getObject("modified_date", OffsetDateTime.class))
-                        .build();
-
-                map.put(id, newEntity);
+            long id = rs.getLong(columns.id);
+
+            // Joined rows for the same student are usually next to each other, so skip the map lookup
+            if (current == null || current.id != id) {
+                current = pending.get(id);
+
+                if (current == null) {
+                    current = new PendingStudent(id, columns.read(rs, id));
+                    pending.put(id, current);
+                }
             }
 
-            Long courseId = rs.getObject("course_id", Long.class);
+            if (columns.courseId != 0) {
+                long courseId = rs.getLong(columns.courseId);
 
-            if (courseId != null) {
-                StudentEntity entity = map.get(id);
-                List<Long> courseIds = entity.getCourseIds();
-                courseIds.add(courseId);
-                StudentEntity entityWithCourseId = entity.toBuilder().courseIds(courseIds).build();
-                map.put(id, entityWithCourseId);
+                if (!rs.wasNull()) {
+                    current.courseIds.add(courseId);
+                }
             }
         }
 
+        // Every entity is built once, after all of its course ids are known
+        Map<Long, StudentEntity> map = new LinkedHashMap<>(Math.max(16, pending.size() * 4 / 3 + 1));
+        for (PendingStudent student : pending.values()) {
+            map.put(student.id, student.build(index));
+        }
+
         return map;
     }
+
+    // Hands each student to the consumer as soon as its last row is read. Rows have to be ordered by id.
+    public void extractOrdered(ResultSet rs, Consumer<StudentEntity> consumer) throws SQLException {
+        Columns columns = new Columns(new ResultSetColumns(rs));
+        EnrollmentIndex index = getIndex(columns);
+        PendingStudent current = null;
+
+        while (rs.next()) {
+            long id = rs.getLong(columns.id);
+
+            if (current == null || current.id != id) {
+                if (current != null) {
+                    consumer.accept(current.build(index));
+                }
+
+                current = new PendingStudent(id, columns.read(rs, id));
+            }
+
+            if (columns.courseId != 0) {
+                long courseId = rs.getLong(columns.courseId);
+
+                if (!rs.wasNull()) {
+                    current.courseIds.add(courseId);
+                }
+            }
+        }
+
+        if (current != null) {
+            consumer.accept(current.build(index));
+        }
+    }
+
+    // The index only stands in when the query left out the junction table join
+    private EnrollmentIndex getIndex(Columns columns) {
+        if (columns.courseId == 0 && enrollmentIndex != null && enrollmentIndex.isEnabled()) {
+            return enrollmentIndex;
+        }
+
+        return null;
+    }
+
+    // Column indexes resolved once per ResultSet
+    private static class Columns {
+        private final int id;
+        private final int firstName;
+        private final int lastName;
+        private final int email;
+        private final int phoneNumber;
+        private final int dateOfBirth;
+        private final int gpa;
+        private final int major;
+        private final int createdDate;
+        private final int modifiedDate;
+        private final int courseId;
+
+        private Columns(ResultSetColumns columns) {
+            id = columns.indexOf("id");
+            firstName = columns.indexOf("first_name");
+            lastName = columns.indexOf("last_name");
+            email = columns.indexOf("email");
+            phoneNumber = columns.indexOf("phone_number");
+            dateOfBirth = columns.indexOf("date_of_birth");
+            gpa = columns.indexOf("gpa");
+            major = columns.indexOf("major");
+            createdDate = columns.indexOf("created_date");
+            modifiedDate = columns.indexOf("modified_date");
+            courseId = columns.indexOf("course_id");
+        }
+
+        private StudentEntity.StudentEntityBuilder read(ResultSet rs, long id) throws SQLException {
+            return StudentEntity.builder()
+                    .id(id)
+                    .firstName(getString(rs, firstName))
+                    .lastName(getString(rs, lastName))
+                    .email(getString(rs, email))
+                    .phoneNumber(getString(rs, phoneNumber))
+                    .dateOfBirth(getObject(rs, dateOfBirth, LocalDate.class))
+                    .gpa(getDouble(rs, gpa))
+                    .major(getString(rs, major))
+                    .createdDate(getObject(rs, createdDate, OffsetDateTime.class))
+                    .modifiedDate(getObject(rs, modifiedDate, OffsetDateTime.class));
+        }
+    }
+
+    // A student whose scalar columns have been read but whose course ids are still being collected
+    private static class PendingStudent {
+        private final long id;
+        private final StudentEntity.StudentEntityBuilder builder;
+        private final LongBuffer courseIds = new LongBuffer();
+
+        private PendingStudent(long id, StudentEntity.StudentEntityBuilder builder) {
+            this.id = id;
+            this.builder = builder;
+        }
+
+        private StudentEntity build(EnrollmentIndex index) {
+            if (index != null) {
+                return builder.courseIds(index.getCourseIds(id)).build();
+            }
+
+            return builder.courseIds(courseIds.toList()).build();
+        }
+    }
 }
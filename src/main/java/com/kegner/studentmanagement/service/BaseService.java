@@ -1,16 +1,31 @@
 package com.kegner.studentmanagement.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.RowVersion;
 
 public interface BaseService<T> {
     public T get(Long Id);
 
     public ListWrapper<T> getAll(DataQuery query);
 
+    public RowVersion getVersion(Long id);
+
+    public ListWrapper<RowVersion> getAllVersions(DataQuery query);
+
+    public void export(OutputStream out) throws IOException;
+
     public void insert(T object);
 
     public void update(T object);
 
     public void delete(Long id);
+
+    public ImportResult bulkInsert(InputStream body, ImportFormat format) throws IOException;
 }
@@ -0,0 +1,141 @@
+package com.kegner.studentmanagement.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import com.kegner.studentmanagement.persistence.BaseRepository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Coalesces lookups by id that arrive close together into one query. The caller that opens a batch waits out
+ * the window, then loads every id collected in the meantime on its own thread and completes each caller's
+ * future; a batch that fills up is loaded right away by the caller that filled it. There is no scheduler
+ * thread, callers are virtual threads so the wait doesn't hold a carrier. The same id twice in one batch
+ * shares a future, and across batches the entity cache already lets only one caller load a given id.
+ */
+public class BatchLoader<V> {
+    private final BaseRepository<V> repository;
+    private final Function<V, Long> idFn;
+    private final long windowNanos;
+    private final int maxSize;
+    private final DistributionSummary batchSizes;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // The batch still collecting ids, null when there is none. Guarded by lock.
+    private Map<Long, CompletableFuture<V>> pending;
+
+    public BatchLoader(String name, BaseRepository<V> repository, Function<V, Long> idFn, Duration window,
+            int maxSize, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.idFn = idFn;
+        this.windowNanos = window.toNanos();
+        this.maxSize = Math.min(maxSize, BaseRepository.MAX_LIMIT);
+        this.batchSizes = DistributionSummary.builder("lookup.batch.size")
+                .description("Ids loaded per coalesced lookup query")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    // Null when the id doesn't exist
+    public V load(Long id) {
+        if (windowNanos <= 0) {
+            batchSizes.record(1);
+            return repository.get(id);
+        }
+
+        Map<Long, CompletableFuture<V>> batch;
+        CompletableFuture<V> future;
+        boolean opened;
+        boolean full;
+
+        lock.lock();
+        try {
+            opened = pending == null;
+            if (opened) {
+                pending = new HashMap<>();
+            }
+
+            batch = pending;
+            future = batch.computeIfAbsent(id, key -> new CompletableFuture<>());
+
+            // Stop collecting so the next caller opens a fresh batch
+            full = batch.size() >= maxSize;
+            if (full) {
+                pending = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (full) {
+            run(batch);
+        } else if (opened) {
+            // Wait out the window, or less if the batch fills up and someone else runs it
+            try {
+                future.get(windowNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Timed out is the normal case, a failed load is rethrown by the join below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            boolean ours;
+            lock.lock();
+            try {
+                ours = pending == batch;
+                if (ours) {
+                    pending = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (ours) {
+                run(batch);
+            }
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow what the loading caller saw, e.g. a data access exception
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    // Ids that weren't found complete with null
+    private void run(Map<Long, CompletableFuture<V>> batch) {
+        batchSizes.record(batch.size());
+
+        try {
+            Map<Long, V> found = new HashMap<>();
+            if (batch.size() == 1) {
+                Long id = batch.keySet().iterator().next();
+                found.put(id, repository.get(id));
+            } else {
+                for (V value : repository.getAllById(new ArrayList<>(batch.keySet()))) {
+                    found.put(idFn.apply(value), value);
+                }
+            }
+
+            batch.forEach((id, waiting) -> waiting.complete(found.get(id)));
+        } catch (RuntimeException e) {
+            batch.values().forEach(waiting -> waiting.completeExceptionally(e));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.kegner.studentmanagement.service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.kegner.studentmanagement.model.Change;
+import com.kegner.studentmanagement.model.ChangeType;
+import com.kegner.studentmanagement.persistence.CourseChangedEvent;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
+import com.kegner.studentmanagement.persistence.StudentChangedEvent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Committed writes in order, kept in a fixed size ring buffer for the change stream. Each change gets the next
+ * sequence number, and a reader asks for the changes after the last one it saw, so a reader only costs its
+ * position and a writer only ever takes the lock long enough to store a change. A reader that falls so far
+ * behind that its next change was overwritten, or that asks for a sequence from before a restart, gets a single
+ * reload change instead and carries on from the newest change; the client refetches what it shows. Sequence
+ * numbers start over with the process.
+ */
+@Component
+public class ChangeFeed {
+    @Value("${changes.buffer-size}")
+    private int bufferSize;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private record Pending(ChangeType type, Long id, Long courseId) {
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+
+    // Change n is at n % length. Guarded by lock.
+    private Change[] buffer;
+    private long lastSequence;
+
+    private Counter reloads;
+
+    @PostConstruct
+    public void init() {
+        buffer = new Change[bufferSize];
+
+        Gauge.builder("changes.sequence", this, ChangeFeed::getLastSequence)
+                .description("Sequence number of the newest change in the feed")
+                .register(meterRegistry);
+        reloads = Counter.builder("changes.reloads")
+                .description("Readers told to reload because the changes they needed were gone")
+                .register(meterRegistry);
+    }
+
+    public long getLastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Up to max changes after the given sequence, oldest first. Waits up to the given time for one when there
+     * are none yet and returns an empty list if nothing arrives.
+     */
+    public List<Change> read(long after, int max, Duration wait) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = wait.toNanos();
+            while (after == lastSequence && nanos > 0) {
+                nanos = appended.awaitNanos(nanos);
+            }
+
+            List<Change> changes = new ArrayList<>();
+
+            // Overwritten already, or a sequence this process never handed out
+            if (after < lastSequence - buffer.length || after > lastSequence) {
+                reloads.increment();
+                changes.add(Change.builder()
+                        .sequence(lastSequence)
+                        .type(ChangeType.RELOAD)
+                        .timestamp(OffsetDateTime.now())
+                        .build());
+                return changes;
+            }
+
+            for (long sequence = after + 1; sequence <= lastSequence && changes.size() < max; sequence++) {
+                changes.add(buffer[(int) (sequence % buffer.length)]);
+            }
+
+            return changes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener
+    public void onStudentChanged(StudentChangedEvent event) {
+        ChangeType type = event.isDeleted() ? ChangeType.STUDENT_DELETED
+                : event.isCreated() ? ChangeType.STUDENT_CREATED : ChangeType.STUDENT_UPDATED;
+        append(List.of(new Pending(type, event.getId(), null)));
+    }
+
+    @TransactionalEventListener
+    public void onCourseChanged(CourseChangedEvent event) {
+        ChangeType type = event.isDeleted() ? ChangeType.COURSE_DELETED
+                : event.isCreated() ? ChangeType.COURSE_CREATED : ChangeType.COURSE_UPDATED;
+        append(List.of(new Pending(type, event.getId(), null)));
+    }
+
+    @TransactionalEventListener
+    public void onEnrollmentChanged(EnrollmentChangedEvent event) {
+        // A bulk import doesn't say which rows it wrote
+        if (event.isReload()) {
+            append(List.of(new Pending(ChangeType.RELOAD, null, null)));
+            return;
+        }
+
+        List<Pending> pending = new ArrayList<>();
+        for (EnrollmentChangedEvent.Enrollment enrollment : event.getAdded()) {
+            pending.add(new Pending(ChangeType.ENROLLED, enrollment.getStudentId(), enrollment.getCourseId()));
+        }
+
+        for (EnrollmentChangedEvent.Enrollment enrollment : event.getRemoved()) {
+            pending.add(new Pending(ChangeType.UNENROLLED, enrollment.getStudentId(), enrollment.getCourseId()));
+        }
+
+        append(pending);
+    }
+
+    // Everything from one event gets consecutive sequence numbers
+    private void append(List<Pending> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        OffsetDateTime now = OffsetDateTime.now();
+
+        lock.lock();
+        try {
+            for (Pending change : pending) {
+                lastSequence++;
+                buffer[(int) (lastSequence % buffer.length)] = Change.builder()
+                        .sequence(lastSequence)
+                        .type(change.type())
+                        .id(change.id())
+                        .courseId(change.courseId())
+                        .timestamp(now)
+                        .build();
+            }
+
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
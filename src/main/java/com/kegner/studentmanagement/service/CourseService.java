@@ -1,18 +1,34 @@
 package com.kegner.studentmanagement.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.modelmapper.ModelMapper;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.kegner.studentmanagement.exceptions.ResourceExistsException;
 import com.kegner.studentmanagement.exceptions.ResourceNotFoundException;
+import com.kegner.studentmanagement.exceptions.VersionConflictException;
+import com.kegner.studentmanagement.mapper.CourseMapper;
 import com.kegner.studentmanagement.model.CourseDto;
 import com.kegner.studentmanagement.model.CourseEntity;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.RowVersion;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.WriteResult;
 import com.kegner.studentmanagement.persistence.CourseRepository;
 
 @Service
@@ -21,13 +37,31 @@ public class CourseService implements BaseService<CourseDto> {
     private CourseRepository repository;
 
     @Autowired
-    private ModelMapper modelMapper;
+    private CourseMapper mapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AsyncCache<Long, CourseDto> courseCache;
+
+    // Concurrent lookups by id are answered by one query
+    @Autowired
+    private BatchLoader<CourseEntity> courseLoader;
+
+    // Students embed their course ids, so enrollment changes here have to evict them too
+    @Autowired
+    private AsyncCache<Long, StudentDto> studentCache;
 
     @Override
     public CourseDto get(Long id) {
-        CourseEntity entity = repository.get(id);
-        if (entity != null) {
-            return modelMapper.map(entity, CourseDto.class);
+        // A null from the loader isn't cached, so unknown ids always go back to the database
+        CourseDto dto = ReadThroughCache.get(courseCache, id, key -> {
+            CourseEntity entity = courseLoader.load(key);
+            return entity != null ? mapper.toDto(entity) : null;
+        });
+        if (dto != null) {
+            return dto;
         }
 
         throw new ResourceNotFoundException("A course with the ID " + id + " could not be found.");
@@ -39,16 +73,55 @@ public class CourseService implements BaseService<CourseDto> {
         List<CourseDto> courseDtos = new ArrayList<>();
 
         for (CourseEntity entity : courses.getData()) {
-            courseDtos.add(modelMapper.map(entity, CourseDto.class));
+            courseDtos.add(mapper.toDto(entity));
         }
 
         return ListWrapper.<CourseDto>builder()
                 .data(courseDtos)
                 .count(courses.getCount())
                 .total(courses.getTotal())
+                .countMode(courses.getCountMode())
+                .hasMore(courses.getHasMore())
+                .nextCursor(courses.getNextCursor())
                 .build();
     }
 
+    @Override
+    public RowVersion getVersion(Long id) {
+        RowVersion version = repository.getVersion(id);
+        if (version != null) {
+            return version;
+        }
+
+        throw new ResourceNotFoundException("A course with the ID " + id + " could not be found.");
+    }
+
+    @Override
+    public ListWrapper<RowVersion> getAllVersions(DataQuery query) {
+        return repository.getAllVersions(query);
+    }
+
+    @Override
+    public void export(OutputStream out) throws IOException {
+        // Skip the flush after every row, the response buffer decides when to send
+        ObjectWriter writer = objectMapper.writerFor(CourseDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // One object per line, without the default space between root values
+            generator.setRootValueSeparator(null);
+
+            repository.export(entity -> {
+                try {
+                    writer.writeValue(generator, mapper.toDto(entity));
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
     @Override
     public void insert(CourseDto dto) {
         // enforce that POST should create resources
@@ -56,18 +129,63 @@ public class CourseService implements BaseService<CourseDto> {
             throw new ResourceExistsException("A course with the ID " + dto.getId() + " already exists.");
         }
 
-        CourseEntity entity = modelMapper.map(dto, CourseEntity.class);
-        repository.insert(entity);
+        CourseEntity entity = mapper.toEntity(dto);
+        evict(repository.insert(entity));
     }
 
     @Override
     public void update(CourseDto dto) {
-        CourseEntity entity = modelMapper.map(dto, CourseEntity.class);
-        repository.update(entity);
+        CourseEntity entity = mapper.toEntity(dto);
+        WriteResult result = repository.update(entity);
+
+        // Someone else wrote first, answer with the row as it is now rather than whatever was cached
+        if (result.isConflict()) {
+            courseCache.synchronous().invalidate(dto.getId());
+            throw new VersionConflictException("The course with the ID " + dto.getId()
+                    + " was changed since it was read.", get(dto.getId()));
+        }
+
+        evict(result);
     }
 
     @Override
     public void delete(Long id) {
-        repository.delete(id);
+        evict(repository.delete(id));
+    }
+
+    @Override
+    public ImportResult bulkInsert(InputStream body, ImportFormat format) throws IOException {
+        ImportReader<CourseDto, CourseEntity> reader = new ImportReader<>(body, format, CourseDto.class,
+                objectMapper, this::validateImport, mapper::toEntity);
+
+        // The repository pulls rows from the reader as it copies them, then the parse rejects are added in
+        ImportResult result = reader.merge(repository.bulkInsert(reader));
+
+        // New rows can enroll in any student, so don't try to work out which ones
+        studentCache.synchronous().invalidateAll();
+        return result;
+    }
+
+    // Runs after the repository call has committed, so a concurrent load can't put the old state back
+    private void evict(WriteResult result) {
+        // Nothing was written, so whatever is cached is still current
+        if (!result.isChanged()) {
+            return;
+        }
+
+        if (result.getId() != null) {
+            courseCache.synchronous().invalidate(result.getId());
+        }
+        studentCache.synchronous().invalidateAll(result.getLinkedIds());
+    }
+
+    // Columns the course table requires, checked before the row ever reaches the database
+    private String validateImport(CourseDto dto) {
+        if (StringUtils.isAnyBlank(dto.getCourseName(), dto.getDepartmentName(), dto.getSemester(),
+                dto.getProfessorName()) || dto.getCourseYear() == null || dto.getCredits() == null) {
+            return "courseName, departmentName, semester, courseYear, credits and professorName are required.";
+        }
+
+        return null;
     }
 }
@@ -0,0 +1,447 @@
+package com.kegner.studentmanagement.service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.QueuedEnrollmentChange;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.persistence.EnrollmentChangeRepository;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
+import com.kegner.studentmanagement.persistence.StudentRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Optional write-behind for enrollment changes. When enabled, a change is first appended to enrollment_change,
+ * a cheap insert that doesn't touch student_course, and only then accepted into a bounded in-memory queue. There
+ * the latest change per student and course replaces any earlier one, and everything queued is written in one
+ * transaction on a timer or as soon as a batch fills up; the caller that fills it writes it, the same as the batch
+ * loader. The same transaction marks the stored changes written, and changes still pending when the process
+ * starts are queued again, so an accepted change survives a crash and is written once. A full queue turns changes
+ * away with a 503 and Retry-After. Reads of a student overlay their queued changes, so the client sees its own
+ * writes before they reach the database.
+ * <p>
+ * What became of a change is in its stored status, which the client can look up by the id it was accepted with.
+ * A batch that breaks a constraint is retried a student at a time, and the offending student's changes are marked
+ * failed with the error. Any other failure, e.g. the database being down, leaves the batch pending and it's
+ * retried with the next flush. A caller waiting on the returned future hears about either. This assumes one
+ * instance has write-behind enabled, since each drains what it queued and picks up every pending change on start.
+ * When disabled every change is written straight away.
+ */
+@Component
+public class EnrollmentQueue {
+    private static final Logger logger = LoggerFactory.getLogger(EnrollmentQueue.class);
+
+    @Value("${enrollment.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${enrollment.write-behind.capacity}")
+    private int capacity;
+
+    @Value("${enrollment.write-behind.batch-size}")
+    private int batchSize;
+
+    @Value("${enrollment.write-behind.interval}")
+    private Duration interval;
+
+    @Value("${enrollment.write-behind.retention}")
+    private Duration retention;
+
+    @Autowired
+    private StudentRepository repository;
+
+    @Autowired
+    private EnrollmentChangeRepository changeRepository;
+
+    @Autowired
+    private AsyncCache<Long, StudentDto> studentCache;
+
+    @Autowired
+    private AsyncCache<Long, CourseDto> courseCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private record Key(long studentId, long courseId) {
+    }
+
+    /**
+     * The stored change, null when write-behind is off, and a future that completes once it's written or
+     * exceptionally if it couldn't be.
+     */
+    public record Submission(QueuedEnrollmentChange change, CompletableFuture<Void> written) {
+    }
+
+    // Latest change per pair waiting for a flush, true to enroll, the ids of the stored changes they came from by
+    // student, and the future the flush completes with the students whose changes couldn't be written. Guarded by
+    // lock.
+    private Map<Key, Boolean> pending = new LinkedHashMap<>();
+    private Map<Long, List<Long>> pendingIds = new LinkedHashMap<>();
+    private CompletableFuture<Map<Long, RuntimeException>> pendingWritten = new CompletableFuture<>();
+
+    // Queued and flushing changes by student for the read overlay, dropped once written. Guarded by lock.
+    private final Map<Long, Map<Long, Boolean>> byStudent = new HashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // One flush at a time, so a later batch never commits before an earlier one
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private DistributionSummary batchSizes;
+    private Counter failures;
+
+    @PostConstruct
+    void init() {
+        batchSizes = DistributionSummary.builder("enrollment.write-behind.batch.size")
+                .description("Enrollment changes written per write-behind flush")
+                .register(meterRegistry);
+        failures = Counter.builder("enrollment.write-behind.failures")
+                .description("Write-behind flushes or students whose changes failed to write")
+                .register(meterRegistry);
+        Gauge.builder("enrollment.write-behind.pending", this, EnrollmentQueue::getPendingCount)
+                .description("Enrollment changes waiting for a write-behind flush")
+                .register(meterRegistry);
+
+        // Whatever was accepted before a crash, in the order it was accepted
+        if (enabled) {
+            List<QueuedEnrollmentChange> stored = changeRepository.getPending();
+            lock.lock();
+            try {
+                stored.forEach(this::enqueue);
+            } finally {
+                lock.unlock();
+            }
+
+            if (!stored.isEmpty()) {
+                logger.info("Queued {} enrollment changes left pending from before the restart.", stored.size());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stores and queues the changes for one student, or writes them straight away when write-behind is off. More
+     * changes than the queue can ever hold are turned away with a 400, a full queue with a 503. The room is
+     * checked before the change is stored, so requests that race for the last of it can take the queue a little
+     * past its capacity.
+     */
+    public Submission submit(long studentId, List<Long> add, List<Long> remove) {
+        Map<Key, Boolean> changes = getChanges(studentId, add, remove);
+
+        if (!enabled) {
+            write(changes);
+            return new Submission(null, CompletableFuture.completedFuture(null));
+        }
+
+        // Retrying would never help, unlike a queue that is only full for now
+        if (changes.size() > capacity) {
+            throw new InvalidRequestException("At most " + capacity + " enrollment changes can be made at once.");
+        }
+
+        lock.lock();
+        try {
+            long added = changes.keySet().stream().filter(key -> !pending.containsKey(key)).count();
+            if (pending.size() + added > capacity) {
+                throw new ServiceUnavailableException("Too many enrollment changes are waiting to be written.",
+                        interval);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Durable before it's acknowledged. A request is only answered after this, so one the client sends after
+        // that answer is always queued later and replaces it.
+        QueuedEnrollmentChange stored = changeRepository.append(studentId, add, remove);
+
+        CompletableFuture<Map<Long, RuntimeException>> written;
+        boolean full;
+
+        lock.lock();
+        try {
+            enqueue(stored);
+            written = pendingWritten;
+            full = pending.size() >= batchSize;
+        } finally {
+            lock.unlock();
+        }
+
+        if (full) {
+            flush();
+        }
+
+        return new Submission(stored, written.thenAccept(failed -> {
+            RuntimeException failure = failed.get(studentId);
+            if (failure != null) {
+                throw failure;
+            }
+        }));
+    }
+
+    // What became of a stored change, null if the student has no change with that id or it was pruned
+    public QueuedEnrollmentChange getChange(long studentId, long id) {
+        return changeRepository.get(studentId, id);
+    }
+
+    // The student's course ids with their queued changes applied, the same instance when there are none
+    public StudentDto overlay(StudentDto dto) {
+        if (!enabled || dto == null || dto.getId() == null) {
+            return dto;
+        }
+
+        lock.lock();
+        try {
+            Map<Long, Boolean> changes = byStudent.get(dto.getId());
+            if (changes == null) {
+                return dto;
+            }
+
+            Set<Long> courseIds = new HashSet<>(dto.getCourseIds());
+            List<Long> result = new ArrayList<>();
+            for (Long courseId : dto.getCourseIds()) {
+                if (!Boolean.FALSE.equals(changes.get(courseId))) {
+                    result.add(courseId);
+                }
+            }
+            changes.forEach((courseId, enroll) -> {
+                if (enroll && !courseIds.contains(courseId)) {
+                    result.add(courseId);
+                }
+            });
+
+            return dto.toBuilder().courseIds(result).build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether any of the students has changes that are queued or being written, which reads show but their
+    // modified dates don't yet
+    public boolean hasPending(Collection<Long> studentIds) {
+        if (!enabled) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            return studentIds.stream().anyMatch(byStudent::containsKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes everything queued so far. Changes queued while this runs wait for the next flush.
+    @Scheduled(fixedDelayString = "${enrollment.write-behind.interval}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+
+        flushLock.lock();
+        try {
+            Map<Key, Boolean> batch;
+            Map<Long, List<Long>> batchIds;
+            CompletableFuture<Map<Long, RuntimeException>> written;
+
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+
+                batch = pending;
+                batchIds = pendingIds;
+                written = pendingWritten;
+                pending = new LinkedHashMap<>();
+                pendingIds = new LinkedHashMap<>();
+                pendingWritten = new CompletableFuture<>();
+            } finally {
+                lock.unlock();
+            }
+
+            batchSizes.record(batch.size());
+            try {
+                write(getIds(batchIds), batch);
+                written.complete(Map.of());
+            } catch (DataIntegrityViolationException e) {
+                // Most likely one student deleted after their change was queued, so only fail what has to
+                written.complete(writeEach(batch, batchIds));
+            } catch (RuntimeException e) {
+                failures.increment();
+                logger.error("Failed to write {} queued enrollment changes, retrying with the next flush.",
+                        batch.size(), e);
+                requeue(batch, batchIds);
+                written.completeExceptionally(e);
+                return;
+            }
+
+            // Whatever was queued again for the same pair in the meantime still needs its overlay
+            lock.lock();
+            try {
+                batch.keySet().forEach(key -> {
+                    if (!pending.containsKey(key)) {
+                        byStudent.computeIfPresent(key.studentId(), (id, changes) -> {
+                            changes.remove(key.courseId());
+                            return changes.isEmpty() ? null : changes;
+                        });
+                    }
+                });
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Only the written and failed changes are pruned, pending ones stay until they're written
+    @Scheduled(fixedDelayString = "${enrollment.write-behind.retention}")
+    public void prune() {
+        if (!enabled) {
+            return;
+        }
+
+        int pruned = changeRepository.prune(OffsetDateTime.now().minus(retention));
+        logger.debug("Pruned {} written or failed enrollment changes.", pruned);
+    }
+
+    // Nothing accepted is left behind on a normal shutdown
+    @PreDestroy
+    void shutdown() {
+        flush();
+    }
+
+    // A transaction per student, returns the ones whose changes failed. Those are marked failed, unless that
+    // fails too, then they stay pending and are retried after a restart.
+    private Map<Long, RuntimeException> writeEach(Map<Key, Boolean> batch, Map<Long, List<Long>> batchIds) {
+        Map<Long, Map<Key, Boolean>> byId = new LinkedHashMap<>();
+        batch.forEach((key, enroll) -> byId.computeIfAbsent(key.studentId(), id -> new LinkedHashMap<>())
+                .put(key, enroll));
+
+        Map<Long, RuntimeException> failed = new HashMap<>();
+        byId.forEach((studentId, changes) -> {
+            List<Long> ids = batchIds.getOrDefault(studentId, List.of());
+            try {
+                write(ids, changes);
+            } catch (RuntimeException e) {
+                failures.increment();
+                logger.error("Failed to write {} queued enrollment changes for student {}.", changes.size(),
+                        studentId, e);
+                failed.put(studentId, e);
+
+                try {
+                    changeRepository.fail(ids, NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                } catch (RuntimeException statusFailure) {
+                    logger.error("Failed to mark enrollment changes {} as failed.", ids, statusFailure);
+                }
+            }
+        });
+
+        return failed;
+    }
+
+    // Back under whatever was queued for the same pairs since, which is newer
+    private void requeue(Map<Key, Boolean> batch, Map<Long, List<Long>> batchIds) {
+        lock.lock();
+        try {
+            Map<Key, Boolean> merged = new LinkedHashMap<>(batch);
+            merged.putAll(pending);
+            pending = merged;
+            batchIds.forEach((studentId, ids) -> pendingIds.computeIfAbsent(studentId, id -> new ArrayList<>())
+                    .addAll(0, ids));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Guarded by lock
+    private void enqueue(QueuedEnrollmentChange change) {
+        Map<Key, Boolean> changes = getChanges(change.getStudentId(), change.getAdd(), change.getRemove());
+
+        pending.putAll(changes);
+        changes.forEach((key, enroll) -> byStudent.computeIfAbsent(key.studentId(), id -> new HashMap<>())
+                .put(key.courseId(), enroll));
+        pendingIds.computeIfAbsent(change.getStudentId(), id -> new ArrayList<>()).add(change.getId());
+    }
+
+    private static Map<Key, Boolean> getChanges(long studentId, List<Long> add, List<Long> remove) {
+        Map<Key, Boolean> changes = new LinkedHashMap<>();
+        remove.forEach(courseId -> changes.put(new Key(studentId, courseId), false));
+        add.forEach(courseId -> changes.put(new Key(studentId, courseId), true));
+        return changes;
+    }
+
+    private static List<Long> getIds(Map<Long, List<Long>> idsByStudent) {
+        List<Long> ids = new ArrayList<>();
+        idsByStudent.values().forEach(ids::addAll);
+        return ids;
+    }
+
+    // Straight away when write-behind is off
+    private void write(Map<Key, Boolean> changes) {
+        write(null, changes);
+    }
+
+    // Together with marking the stored changes written, when there are any
+    private void write(List<Long> ids, Map<Key, Boolean> changes) {
+        List<EnrollmentChangedEvent.Enrollment> added = new ArrayList<>();
+        List<EnrollmentChangedEvent.Enrollment> removed = new ArrayList<>();
+        changes.forEach((key, enroll) -> (enroll ? added : removed)
+                .add(new EnrollmentChangedEvent.Enrollment(key.studentId(), key.courseId())));
+
+        if (ids == null) {
+            repository.updateEnrollments(added, removed);
+        } else {
+            changeRepository.write(ids, added, removed);
+        }
+
+        // Evicted after the commit and before the overlay is dropped, so reads never miss the change
+        Set<Long> studentIds = new HashSet<>();
+        Set<Long> courseIds = new HashSet<>();
+        changes.keySet().forEach(key -> {
+            studentIds.add(key.studentId());
+            courseIds.add(key.courseId());
+        });
+        studentCache.synchronous().invalidateAll(studentIds);
+        courseCache.synchronous().invalidateAll(courseIds);
+    }
+
+    private int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.kegner.studentmanagement.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportReject;
+import com.kegner.studentmanagement.model.ImportResult;
+import com.kegner.studentmanagement.model.ImportRow;
+
+/**
+ * Reads a bulk import body one line at a time, so the upload is never held in memory. Lines that
+ * can't be parsed or fail validation are recorded as rejects and skipped.
+ *
+ * CSV bodies need a header row with the DTO field names, list fields are separated by semicolons,
+ * and quoted values can't span lines.
+ */
+public class ImportReader<D, E> implements Iterator<ImportRow<E>> {
+    private static final CsvMapper csvMapper = CsvMapper.builder()
+            .addModule(new JavaTimeModule())
+            .enable(CsvParser.Feature.EMPTY_STRING_AS_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private final BufferedReader reader;
+    private final ObjectReader objectReader;
+    private final Function<D, String> validator;
+    private final Function<D, E> mapper;
+    private final List<ImportReject> rejects = new ArrayList<>();
+    private int rejected;
+    private long line;
+    private ImportRow<E> next;
+
+    public ImportReader(InputStream body, ImportFormat format, Class<D> type, ObjectMapper objectMapper,
+            Function<D, String> validator, Function<D, E> mapper) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        this.validator = validator;
+        this.mapper = mapper;
+
+        if (format == ImportFormat.CSV) {
+            String header = readLine();
+            CsvSchema.Builder schema = CsvSchema.builder().setArrayElementSeparator(";");
+
+            if (header != null) {
+                for (String column : header.split(",")) {
+                    schema.addColumn(column.trim());
+                }
+            }
+
+            objectReader = csvMapper.readerFor(type).with(schema.build());
+        } else {
+            objectReader = objectMapper.readerFor(type);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null) {
+                String text = readLine();
+
+                if (text == null) {
+                    return false;
+                }
+
+                if (StringUtils.isBlank(text)) {
+                    continue;
+                }
+
+                D dto;
+                try {
+                    dto = objectReader.readValue(text);
+                } catch (JsonProcessingException e) {
+                    reject(line, "The line could not be parsed: " + e.getOriginalMessage());
+                    continue;
+                }
+
+                String error = validator.apply(dto);
+                if (error != null) {
+                    reject(line, error);
+                    continue;
+                }
+
+                next = new ImportRow<>(line, mapper.apply(dto));
+            }
+
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public ImportRow<E> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        ImportRow<E> row = next;
+        next = null;
+        return row;
+    }
+
+    // Adds the rejects found while reading to the ones the database found while merging
+    public ImportResult merge(ImportResult result) {
+        List<ImportReject> allRejects = new ArrayList<>(rejects);
+        allRejects.addAll(result.getRejects());
+        allRejects.sort(Comparator.comparing(ImportReject::getLine));
+
+        return result.toBuilder()
+                .rejected(rejected + result.getRejected())
+                .rejects(allRejects.subList(0, Math.min(allRejects.size(), ImportResult.MAX_REJECTS)))
+                .build();
+    }
+
+    private String readLine() throws IOException {
+        String text = reader.readLine();
+
+        if (text != null) {
+            line++;
+        }
+
+        return text;
+    }
+
+    private void reject(long rejectedLine, String reason) {
+        rejected++;
+
+        if (rejects.size() < ImportResult.MAX_REJECTS) {
+            rejects.add(new ImportReject(rejectedLine, reason));
+        }
+    }
+}
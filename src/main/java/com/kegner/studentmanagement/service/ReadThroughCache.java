@@ -0,0 +1,44 @@
+package com.kegner.studentmanagement.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+
+/**
+ * Read-through lookups that keep the database call out of the cache's own compute. A synchronous Caffeine
+ * get(key, loader) runs the loader while holding a ConcurrentHashMap bin lock, which pins a virtual thread to
+ * its carrier for as long as the query takes. Here only an empty future goes in under that lock, and the
+ * caller that placed it runs the load on its own thread. Concurrent callers for the same id wait on it.
+ */
+final class ReadThroughCache {
+    private ReadThroughCache() {
+    }
+
+    // Null results and failures are dropped from the cache by Caffeine once the future completes
+    static <V> V get(AsyncCache<Long, V> cache, Long id, Function<Long, V> loader) {
+        CompletableFuture<V> placed = new CompletableFuture<>();
+        CompletableFuture<V> future = cache.get(id, (key, executor) -> placed);
+
+        if (future == placed) {
+            try {
+                placed.complete(loader.apply(id));
+            } catch (RuntimeException e) {
+                placed.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow what the loading caller saw, e.g. a data access exception
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+}
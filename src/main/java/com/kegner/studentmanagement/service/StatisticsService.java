@@ -0,0 +1,495 @@
+package com.kegner.studentmanagement.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.kegner.studentmanagement.config.ReplicaDataSource;
+import com.kegner.studentmanagement.model.EnrollmentStatistics;
+import com.kegner.studentmanagement.model.GpaStatistics;
+import com.kegner.studentmanagement.persistence.CourseChangedEvent;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
+import com.kegner.studentmanagement.persistence.StatisticsRepository;
+import com.kegner.studentmanagement.persistence.StudentChangedEvent;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * GPA by major and enrollment by course, department and semester, kept in memory so reading them costs the
+ * number of groups rather than a scan of the tables. Writes are applied as deltas from the events the
+ * repositories publish after commit. The first read loads everything, as do bulk imports (in the background)
+ * and a periodic recompute. The changes that arrive while a load is reading are recorded and replayed onto what
+ * it read before it's swapped in, see {@link #recompute()}.
+ */
+@Service
+public class StatisticsService {
+    // GPA histogram buckets in tenths from 0.0, anything past 4.0 goes in the last one
+    static final double bucketWidth = 0.1;
+    static final int bucketCount = 41;
+
+    private static final int[] percentiles = { 10, 25, 50, 75, 90 };
+
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsService.class);
+
+    @Autowired
+    private StatisticsRepository repository;
+
+    // Null until the first load, replaced as a whole by a recompute. The maps inside are guarded by lock.
+    private volatile State state;
+
+    // Changes that arrived while a load is reading, null when none is running. Guarded by lock.
+    private List<Object> changedDuringLoad;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // One recompute at a time, so reads that all find nothing loaded yet run the first one only once
+    private final ReentrantLock recomputeLock = new ReentrantLock();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private record Grade(String major, Double gpa) {
+    }
+
+    private record Pair(long studentId, long courseId) {
+    }
+
+    private static class Distribution {
+        private long students;
+        private long graded;
+        private double sum;
+        private final long[] histogram = new long[bucketCount];
+
+        private void add(Double gpa, int sign) {
+            students += sign;
+            if (gpa != null) {
+                graded += sign;
+                sum += sign * gpa;
+                histogram[getBucket(gpa)] += sign;
+            }
+        }
+    }
+
+    private static class Course {
+        private String departmentName;
+        private String semester;
+        private long students;
+    }
+
+    private static class Group {
+        private long courses;
+        private long students;
+    }
+
+    // The previous grade per student is what lets an update or delete take the old values back out
+    private static class State {
+        private final Map<Long, Grade> grades = new HashMap<>();
+        private final Map<String, Distribution> majors = new HashMap<>();
+        private final Distribution overall = new Distribution();
+        private final Map<Long, Course> courses = new HashMap<>();
+        private final Map<String, Group> departments = new HashMap<>();
+        private final Map<String, Group> semesters = new HashMap<>();
+
+        private void apply(StudentChangedEvent event) {
+            Grade previous = event.isDeleted() ? grades.remove(event.getId())
+                    : grades.put(event.getId(), new Grade(event.getMajor(), event.getGpa()));
+
+            if (previous != null) {
+                addGrade(previous, -1);
+            }
+
+            if (!event.isDeleted()) {
+                addGrade(new Grade(event.getMajor(), event.getGpa()), 1);
+            }
+        }
+
+        private void apply(CourseChangedEvent event) {
+            Course course = event.isDeleted() ? courses.remove(event.getId()) : courses.get(event.getId());
+
+            // Take the course out of its old groups, then back into the new ones with its enrollment
+            if (course != null) {
+                addCourse(course, -1);
+            }
+
+            if (!event.isDeleted()) {
+                if (course == null) {
+                    course = new Course();
+                    courses.put(event.getId(), course);
+                }
+
+                course.departmentName = event.getDepartmentName();
+                course.semester = event.getSemester();
+                addCourse(course, 1);
+            }
+        }
+
+        private void apply(EnrollmentChangedEvent event) {
+            event.getAdded().forEach(enrollment -> addEnrollment(enrollment.getCourseId(), 1));
+            event.getRemoved().forEach(enrollment -> addEnrollment(enrollment.getCourseId(), -1));
+        }
+
+        private void addGrade(Grade grade, int sign) {
+            overall.add(grade.gpa(), sign);
+            Distribution distribution = majors.computeIfAbsent(grade.major(), major -> new Distribution());
+            distribution.add(grade.gpa(), sign);
+
+            if (distribution.students <= 0) {
+                majors.remove(grade.major());
+            }
+        }
+
+        private void addCourse(Course course, int sign) {
+            addToGroup(departments, course.departmentName, sign, sign * course.students);
+            addToGroup(semesters, course.semester, sign, sign * course.students);
+        }
+
+        private void addEnrollment(Long courseId, int sign) {
+            // Unknown when the course was inserted after the last load read the table, the recompute catches up
+            Course course = courses.get(courseId);
+            if (course != null) {
+                course.students += sign;
+                addToGroup(departments, course.departmentName, 0, sign);
+                addToGroup(semesters, course.semester, 0, sign);
+            }
+        }
+
+        private static void addToGroup(Map<String, Group> groups, String name, long courses, long students) {
+            Group group = groups.computeIfAbsent(name, key -> new Group());
+            group.courses += courses;
+            group.students += students;
+
+            if (group.courses <= 0) {
+                groups.remove(name);
+            }
+        }
+    }
+
+    public GpaStatistics getGpa() {
+        // The first read loads everything, later ones only copy the aggregates
+        loadIfNeeded();
+
+        lock.lock();
+        try {
+            State current = state;
+            List<GpaStatistics.Distribution> majors = new ArrayList<>();
+            current.majors.forEach((major, distribution) -> majors.add(toDistribution(major, distribution)));
+            majors.sort(Comparator.comparing(GpaStatistics.Distribution::getMajor,
+                    Comparator.nullsLast(Comparator.naturalOrder())));
+
+            return GpaStatistics.builder()
+                    .overall(toDistribution(null, current.overall))
+                    .majors(majors)
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public EnrollmentStatistics getEnrollment() {
+        // The first read loads everything, later ones only copy the aggregates
+        loadIfNeeded();
+
+        lock.lock();
+        try {
+            State current = state;
+            List<EnrollmentStatistics.Course> courses = new ArrayList<>();
+            current.courses.forEach((id, course) -> courses.add(EnrollmentStatistics.Course.builder()
+                    .id(id)
+                    .departmentName(course.departmentName)
+                    .semester(course.semester)
+                    .students(course.students)
+                    .build()));
+            courses.sort(Comparator.comparing(EnrollmentStatistics.Course::getId));
+
+            return EnrollmentStatistics.builder()
+                    .courses(courses)
+                    .departments(toGroups(current.departments))
+                    .semesters(toGroups(current.semesters))
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener
+    public void onStudentChanged(StudentChangedEvent event) {
+        lock.lock();
+        try {
+            recordDuringLoad(event);
+
+            // Nothing to apply to before the first load, which reads the committed row or replays this
+            if (state != null) {
+                state.apply(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener
+    public void onCourseChanged(CourseChangedEvent event) {
+        lock.lock();
+        try {
+            recordDuringLoad(event);
+
+            if (state != null) {
+                state.apply(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener
+    public void onEnrollmentChanged(EnrollmentChangedEvent event) {
+        // A bulk import can touch any row, so read everything back rather than tracking it. The scans run in the
+        // background, the importing request's commit doesn't wait for them.
+        if (event.isReload()) {
+            executor.execute(this::recompute);
+            return;
+        }
+
+        lock.lock();
+        try {
+            recordDuringLoad(event);
+
+            if (state != null) {
+                state.apply(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reads everything into a new state and swaps it in. The scans hold no lock, so the endpoints and the writers'
+     * listeners don't wait on them, and the listeners keep updating the current state meanwhile. The changes they
+     * apply are also recorded and replayed onto the new state before the swap, since the scans may have read the
+     * rows before those changes committed. Student and course changes carry the whole row and are replayed as
+     * is. Enrollment changes are only counts, so each pair's last change is compared with whether the scans'
+     * snapshot had the pair, and only the difference is applied. All of it reads one snapshot on the primary,
+     * since a lagging replica could miss changes that committed before the recording started.
+     */
+    @Scheduled(fixedDelayString = "${statistics.recompute.interval}",
+            initialDelayString = "${statistics.recompute.interval}")
+    public void recompute() {
+        recomputeLock.lock();
+        try {
+            load();
+        } finally {
+            recomputeLock.unlock();
+        }
+    }
+
+    private void loadIfNeeded() {
+        if (state != null) {
+            return;
+        }
+
+        recomputeLock.lock();
+        try {
+            if (state == null) {
+                load();
+            }
+        } finally {
+            recomputeLock.unlock();
+        }
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        State loaded = new State();
+
+        lock.lock();
+        try {
+            changedDuringLoad = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+
+        try (ReplicaDataSource.Pin pin = ReplicaDataSource.pinToPrimary()) {
+            repository.inSnapshot(() -> {
+                repository.getGrades(student -> {
+                    Grade grade = new Grade(student.getMajor(), student.getGpa());
+                    loaded.grades.put(student.getId(), grade);
+                    loaded.addGrade(grade, 1);
+                });
+
+                repository.getEnrollments(row -> {
+                    Course course = new Course();
+                    course.departmentName = row.getDepartmentName();
+                    course.semester = row.getSemester();
+                    course.students = row.getStudents();
+                    loaded.courses.put(row.getId(), course);
+                    loaded.addCourse(course, 1);
+                });
+
+                swapIn(loaded);
+            });
+        } finally {
+            lock.lock();
+            try {
+                changedDuringLoad = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        logger.info("Recomputed statistics for {} students and {} courses in {} ms", loaded.grades.size(),
+                loaded.courses.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Runs inside the load's snapshot. The pairs recorded so far are looked up without the lock, only the few
+    // recorded while that query ran are looked up while holding it.
+    private void swapIn(State loaded) {
+        Set<Pair> checked = new HashSet<>();
+        Set<Pair> enrolled = new HashSet<>();
+        lookUpEnrolled(getChangedDuringLoad(), checked, enrolled);
+
+        lock.lock();
+        try {
+            lookUpEnrolled(changedDuringLoad, checked, enrolled);
+
+            Map<Pair, Boolean> lastChanges = new LinkedHashMap<>();
+            for (Object change : changedDuringLoad) {
+                if (change instanceof StudentChangedEvent event) {
+                    loaded.apply(event);
+                } else if (change instanceof CourseChangedEvent event) {
+                    loaded.apply(event);
+                } else if (change instanceof EnrollmentChangedEvent event) {
+                    event.getAdded().forEach(enrollment -> lastChanges.put(toPair(enrollment), true));
+                    event.getRemoved().forEach(enrollment -> lastChanges.put(toPair(enrollment), false));
+                }
+            }
+
+            lastChanges.forEach((pair, added) -> {
+                if (added != enrolled.contains(pair)) {
+                    loaded.addEnrollment(pair.courseId(), added ? 1 : -1);
+                }
+            });
+
+            state = loaded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Object> getChangedDuringLoad() {
+        lock.lock();
+        try {
+            return new ArrayList<>(changedDuringLoad);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void lookUpEnrolled(List<Object> changes, Set<Pair> checked, Set<Pair> enrolled) {
+        List<EnrollmentChangedEvent.Enrollment> unchecked = new ArrayList<>();
+        for (Object change : changes) {
+            if (change instanceof EnrollmentChangedEvent event) {
+                for (List<EnrollmentChangedEvent.Enrollment> enrollments : List.of(event.getAdded(),
+                        event.getRemoved())) {
+                    for (EnrollmentChangedEvent.Enrollment enrollment : enrollments) {
+                        if (checked.add(toPair(enrollment))) {
+                            unchecked.add(enrollment);
+                        }
+                    }
+                }
+            }
+        }
+
+        repository.getEnrolled(unchecked).forEach(enrollment -> enrolled.add(toPair(enrollment)));
+    }
+
+    // Reload events aren't recorded, they start a load of their own
+    private void recordDuringLoad(Object change) {
+        if (changedDuringLoad != null) {
+            changedDuringLoad.add(change);
+        }
+    }
+
+    private static Pair toPair(EnrollmentChangedEvent.Enrollment enrollment) {
+        return new Pair(enrollment.getStudentId(), enrollment.getCourseId());
+    }
+
+    private static int getBucket(double gpa) {
+        return (int) Math.max(0, Math.min(bucketCount - 1, Math.floor(gpa / bucketWidth + 1e-9)));
+    }
+
+    private static GpaStatistics.Distribution toDistribution(String major, Distribution distribution) {
+        List<Long> histogram = new ArrayList<>();
+        for (long count : distribution.histogram) {
+            histogram.add(count);
+        }
+
+        return GpaStatistics.Distribution.builder()
+                .major(major)
+                .students(distribution.students)
+                .graded(distribution.graded)
+                .mean(distribution.graded > 0 ? round(distribution.sum / distribution.graded) : null)
+                .percentiles(getPercentiles(distribution))
+                .bucketWidth(bucketWidth)
+                .histogram(histogram)
+                .build();
+    }
+
+    // Nearest rank, read off the histogram so it's as precise as the bucket width
+    private static Map<String, Double> getPercentiles(Distribution distribution) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        if (distribution.graded <= 0) {
+            return values;
+        }
+
+        for (int percentile : percentiles) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * distribution.graded));
+            long seen = 0;
+
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                seen += distribution.histogram[bucket];
+                if (seen >= rank) {
+                    values.put("p" + percentile, round(bucket * bucketWidth));
+                    break;
+                }
+            }
+        }
+
+        return values;
+    }
+
+    private static List<EnrollmentStatistics.Group> toGroups(Map<String, Group> groups) {
+        List<EnrollmentStatistics.Group> result = new ArrayList<>();
+        groups.forEach((name, group) -> result.add(EnrollmentStatistics.Group.builder()
+                .name(name)
+                .courses(group.courses)
+                .students(group.students)
+                .meanStudents(group.courses > 0 ? round((double) group.students / group.courses) : null)
+                .build()));
+        result.sort(Comparator.comparing(EnrollmentStatistics.Group::getName,
+                Comparator.nullsLast(Comparator.naturalOrder())));
+
+        return result;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -1,33 +1,84 @@
 package com.kegner.studentmanagement.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
-import org.modelmapper.ModelMapper;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
 import com.kegner.studentmanagement.exceptions.ResourceExistsException;
 import com.kegner.studentmanagement.exceptions.ResourceNotFoundException;
+import com.kegner.studentmanagement.exceptions.VersionConflictException;
+import com.kegner.studentmanagement.mapper.StudentMapper;
+import com.kegner.studentmanagement.model.CourseDto;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.EnrollmentChange;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.QueuedEnrollmentChange;
+import com.kegner.studentmanagement.model.RowVersion;
 import com.kegner.studentmanagement.model.StudentDto;
 import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.model.StudentSummary;
+import com.kegner.studentmanagement.model.WriteResult;
+import com.kegner.studentmanagement.persistence.BaseRepository;
 import com.kegner.studentmanagement.persistence.StudentRepository;
 
 @Service
 public class StudentService implements BaseService<StudentDto> {
+    // What a roster shows of each student
+    private static final List<String> summaryFields = List.of("firstName", "lastName", "email", "major");
+
     @Autowired
     private StudentRepository repository;
 
     @Autowired
-    private ModelMapper modelMapper;
+    private StudentMapper mapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AsyncCache<Long, StudentDto> studentCache;
+
+    // Concurrent lookups by id are answered by one query
+    @Autowired
+    private BatchLoader<StudentEntity> studentLoader;
+
+    // Courses embed their student ids, so enrollment changes here have to evict them too
+    @Autowired
+    private AsyncCache<Long, CourseDto> courseCache;
+
+    // Enrollment changes accepted but not yet written are overlaid on every student read
+    @Autowired
+    private EnrollmentQueue enrollmentQueue;
 
     @Override
     public StudentDto get(Long id) {
-        StudentEntity entity = repository.get(id);
-        if (entity != null) {
-            return modelMapper.map(entity, StudentDto.class);
+        // A null from the loader isn't cached, so unknown ids always go back to the database
+        StudentDto dto = ReadThroughCache.get(studentCache, id, key -> {
+            StudentEntity entity = studentLoader.load(key);
+            return entity != null ? mapper.toDto(entity) : null;
+        });
+        if (dto != null) {
+            return enrollmentQueue.overlay(dto);
         }
 
         throw new ResourceNotFoundException("A student with the ID " + id + " could not be found.");
@@ -39,16 +90,101 @@ public class StudentService implements BaseService<StudentDto> {
         List<StudentDto> studentDtos = new ArrayList<>();
 
         for (StudentEntity entity : students.getData()) {
-            studentDtos.add(modelMapper.map(entity, StudentDto.class));
+            studentDtos.add(enrollmentQueue.overlay(mapper.toDto(entity)));
         }
 
         return ListWrapper.<StudentDto>builder()
                 .data(studentDtos)
                 .count(students.getCount())
                 .total(students.getTotal())
+                .countMode(students.getCountMode())
+                .hasMore(students.getHasMore())
+                .nextCursor(students.getNextCursor())
+                .build();
+    }
+
+    // A page of a course's students, sparse so it's read without the junction table
+    public ListWrapper<StudentSummary> getRoster(Long courseId, DataQuery query) {
+        ListWrapper<StudentEntity> students = repository.getAll(query.toBuilder()
+                .enrolledWith(courseId)
+                .fields(summaryFields)
+                .build());
+
+        return toSummaries(students);
+    }
+
+    // The same page of students for each course, courses without students get an empty page
+    public Map<Long, ListWrapper<StudentSummary>> getRosters(List<Long> courseIds, DataQuery query) {
+        if (courseIds.size() * query.getPageSize() > BaseRepository.MAX_LIMIT) {
+            throw new InvalidRequestException("At most " + BaseRepository.MAX_LIMIT
+                    + " students can be returned across rosters, ask for fewer courses or a smaller page size.");
+        }
+
+        Map<Long, ListWrapper<StudentSummary>> rosters = new LinkedHashMap<>();
+        repository.getRosters(courseIds, query)
+                .forEach((courseId, students) -> rosters.put(courseId, toSummaries(students)));
+
+        return rosters;
+    }
+
+    @Override
+    public RowVersion getVersion(Long id) {
+        RowVersion version = repository.getVersion(id);
+        if (version != null) {
+            return version;
+        }
+
+        throw new ResourceNotFoundException("A student with the ID " + id + " could not be found.");
+    }
+
+    @Override
+    public ListWrapper<RowVersion> getAllVersions(DataQuery query) {
+        return repository.getAllVersions(query);
+    }
+
+    // Reads of these students show enrollment changes their versions don't reflect yet
+    public boolean hasPendingEnrollments(Collection<Long> ids) {
+        return enrollmentQueue.hasPending(ids);
+    }
+
+    private ListWrapper<StudentSummary> toSummaries(ListWrapper<StudentEntity> students) {
+        List<StudentSummary> summaries = new ArrayList<>();
+
+        for (StudentEntity entity : students.getData()) {
+            summaries.add(mapper.toSummary(entity));
+        }
+
+        return ListWrapper.<StudentSummary>builder()
+                .data(summaries)
+                .count(students.getCount())
+                .total(students.getTotal())
+                .countMode(students.getCountMode())
+                .hasMore(students.getHasMore())
+                .nextCursor(students.getNextCursor())
                 .build();
     }
 
+    @Override
+    public void export(OutputStream out) throws IOException {
+        // Skip the flush after every row, the response buffer decides when to send
+        ObjectWriter writer = objectMapper.writerFor(StudentDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // One object per line, without the default space between root values
+            generator.setRootValueSeparator(null);
+
+            repository.export(entity -> {
+                try {
+                    writer.writeValue(generator, mapper.toDto(entity));
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
     @Override
     public void insert(StudentDto dto) {
         // enforce that POST should create resources
@@ -56,18 +192,108 @@ public class StudentService implements BaseService<StudentDto> {
             throw new ResourceExistsException("A student with the ID " + dto.getId() + " already exists.");
         }
 
-        StudentEntity entity = modelMapper.map(dto, StudentEntity.class);
-        repository.insert(entity);
+        StudentEntity entity = mapper.toEntity(dto);
+        evict(repository.insert(entity));
     }
 
     @Override
     public void update(StudentDto dto) {
-        StudentEntity entity = modelMapper.map(dto, StudentEntity.class);
-        repository.update(entity);
+        StudentEntity entity = mapper.toEntity(dto);
+        WriteResult result = repository.update(entity);
+
+        // Someone else wrote first, answer with the row as it is now rather than whatever was cached
+        if (result.isConflict()) {
+            studentCache.synchronous().invalidate(dto.getId());
+            throw new VersionConflictException("The student with the ID " + dto.getId()
+                    + " was changed since it was read.", get(dto.getId()));
+        }
+
+        evict(result);
+    }
+
+    /**
+     * Enrolls the student in or drops them from the given courses. Returns null once the change is written, or
+     * the stored change as soon as the write-behind queue has accepted it unless the caller asked to wait for the
+     * write. Courses that don't exist are skipped.
+     */
+    public QueuedEnrollmentChange updateEnrollments(Long id, EnrollmentChange change, boolean wait) {
+        List<Long> add = Objects.requireNonNullElse(change.getAdd(), List.of());
+        List<Long> remove = Objects.requireNonNullElse(change.getRemove(), List.of());
+
+        if (add.stream().anyMatch(remove::contains)) {
+            throw new InvalidRequestException("A course can't be both added and removed in one change.");
+        }
+
+        // Unknown students are turned away here rather than silently skipped when the batch is written
+        get(id);
+
+        EnrollmentQueue.Submission submission = enrollmentQueue.submit(id, add, remove);
+        if (!wait && submission.change() != null) {
+            return submission.change();
+        }
+
+        try {
+            submission.written().join();
+        } catch (CompletionException e) {
+            // Rethrow what the flush saw, e.g. a data access exception
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+
+        return null;
+    }
+
+    public QueuedEnrollmentChange getEnrollmentChange(Long id, Long changeId) {
+        QueuedEnrollmentChange change = enrollmentQueue.getChange(id, changeId);
+        if (change != null) {
+            return change;
+        }
+
+        throw new ResourceNotFoundException("An enrollment change with the ID " + changeId
+                + " could not be found for the student with the ID " + id + ".");
     }
 
     @Override
     public void delete(Long id) {
-        repository.delete(id);
+        evict(repository.delete(id));
+    }
+
+    @Override
+    public ImportResult bulkInsert(InputStream body, ImportFormat format) throws IOException {
+        ImportReader<StudentDto, StudentEntity> reader = new ImportReader<>(body, format, StudentDto.class,
+                objectMapper, this::validateImport, mapper::toEntity);
+
+        // The repository pulls rows from the reader as it copies them, then the parse rejects are added in
+        ImportResult result = reader.merge(repository.bulkInsert(reader));
+
+        // New rows can enroll in any course, so don't try to work out which ones
+        courseCache.synchronous().invalidateAll();
+        return result;
+    }
+
+    // Runs after the repository call has committed, so a concurrent load can't put the old state back
+    private void evict(WriteResult result) {
+        // Nothing was written, so whatever is cached is still current
+        if (!result.isChanged()) {
+            return;
+        }
+
+        if (result.getId() != null) {
+            studentCache.synchronous().invalidate(result.getId());
+        }
+        courseCache.synchronous().invalidateAll(result.getLinkedIds());
+    }
+
+    // Columns the student table requires, checked before the row ever reaches the database
+    private String validateImport(StudentDto dto) {
+        if (StringUtils.isAnyBlank(dto.getFirstName(), dto.getLastName(), dto.getEmail(), dto.getPhoneNumber())
+                || dto.getDateOfBirth() == null) {
+            return "firstName, lastName, email, phoneNumber and dateOfBirth are required.";
+        }
+
+        return null;
     }
 }
@@ -1,5 +1,8 @@
 BEGIN;
 
+-- Trigram indexes back substring and typo tolerant search
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
 CREATE TABLE student (
     id BIGSERIAL PRIMARY KEY,
     first_name text NOT NULL,
@@ -10,11 +13,16 @@ CREATE TABLE student (
     gpa decimal,
     major text,
     created_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
-    modified_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+    modified_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    search_text text GENERATED ALWAYS AS (
+        lower(first_name || ' ' || last_name || ' ' || email || ' ' || coalesce(major, ''))
+    ) STORED
 );
 
+CREATE INDEX idx_student_search ON student USING gin (search_text gin_trgm_ops);
+
 CREATE TABLE course (
-    id bigserial PRIMARY KEY,
+    id BIGSERIAL PRIMARY KEY,
     course_name text NOT NULL,
     department_name text NOT NULL,
     semester text NOT NULL,
@@ -22,13 +30,36 @@ CREATE TABLE course (
     credits int NOT NULL,
     professor_name text NOT NULL,
     created_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
-    modified_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+    modified_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    search_text text GENERATED ALWAYS AS (
+        lower(course_name || ' ' || professor_name || ' ' || department_name)
+    ) STORED
 );
 
+CREATE INDEX idx_course_search ON course USING gin (search_text gin_trgm_ops);
+
 CREATE TABLE student_course (
     student_id bigint REFERENCES student(id),
     course_id bigint REFERENCES course(id),
     CONSTRAINT pk_student_course PRIMARY KEY (student_id, course_id)
 );
 
+-- Rosters look up the students of a course, the primary key only covers a student's courses
+CREATE INDEX idx_student_course_course ON student_course (course_id, student_id);
+
+-- Write-behind enrollment changes, appended before they're acknowledged and marked once they're in
+-- student_course. Written and failed ones are pruned after enrollment.write-behind.retention.
+CREATE TABLE enrollment_change (
+    id BIGSERIAL PRIMARY KEY,
+    student_id bigint NOT NULL,
+    added bigint[] NOT NULL,
+    removed bigint[] NOT NULL,
+    status text NOT NULL DEFAULT 'PENDING',
+    error text,
+    created_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    modified_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_enrollment_change_pending ON enrollment_change (id) WHERE status = 'PENDING';
+
 COMMIT;
\ No newline at end of file
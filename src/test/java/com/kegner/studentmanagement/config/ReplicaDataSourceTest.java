@@ -0,0 +1,165 @@
+package com.kegner.studentmanagement.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Embedded databases stand in for the primary and the replicas, each one knows its own name
+class ReplicaDataSourceTest {
+    private EmbeddedDatabase primary;
+    private EmbeddedDatabase replica1;
+    private EmbeddedDatabase replica2;
+
+    @BeforeEach
+    void setUp() {
+        primary = getDatabase("primary");
+        replica1 = getDatabase("replica-1");
+        replica2 = getDatabase("replica-2");
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.shutdown();
+        replica1.shutdown();
+        replica2.shutdown();
+    }
+
+    @Test
+    void testReadOnlyTransactionsOnReplicas() {
+        DataSource dataSource = getRoutingDataSource(getReplicas("SELECT 0", replica1, replica2));
+
+        // Taking turns between the two replicas
+        assertEquals("replica-1", getName(dataSource, true));
+        assertEquals("replica-2", getName(dataSource, true));
+        assertEquals("replica-1", getName(dataSource, true));
+
+        // Read-write transactions and plain statements stay on the primary
+        assertEquals("primary", getName(dataSource, false));
+        assertEquals("primary", new JdbcTemplate(dataSource).queryForObject("SELECT name FROM node", String.class));
+    }
+
+    @Test
+    void testPinnedToPrimary() {
+        DataSource dataSource = getRoutingDataSource(getReplicas("SELECT 0", replica1));
+
+        try (ReplicaDataSource.Pin pin = ReplicaDataSource.pinToPrimary()) {
+            try (ReplicaDataSource.Pin nested = ReplicaDataSource.pinToPrimary()) {
+                assertEquals("primary", getName(dataSource, true));
+            }
+
+            // Still pinned after the nested pin is closed
+            assertEquals("primary", getName(dataSource, true));
+        }
+
+        assertEquals("replica-1", getName(dataSource, true));
+    }
+
+    @Test
+    void testLaggingReplicaSkipped() {
+        ReplicaDataSource replicas = getReplicas("SELECT 10", replica1);
+        DataSource dataSource = getRoutingDataSource(replicas);
+
+        // Ten seconds behind with a limit of five, so the primary serves the read
+        assertEquals("primary", getName(dataSource, true));
+        assertEquals(false, ((Map<?, ?>) replicas.getStatus().get("replica-1")).get("healthy"));
+    }
+
+    @Test
+    void testFailingReplicaSkipped() {
+        DataSource dataSource = getRoutingDataSource(getReplicas("SELECT lag FROM missing_table", replica1, replica2));
+
+        assertEquals("primary", getName(dataSource, true));
+    }
+
+    @Test
+    void testReplicasCheckedInParallel() {
+        // Each connection waits for the other replica's check to start, which only happens if they run together
+        CountDownLatch started = new CountDownLatch(2);
+        ReplicaDataSource replicas = getReplicas("SELECT 0", waitFor(started, replica1), waitFor(started, replica2));
+
+        assertEquals(true, ((Map<?, ?>) replicas.getStatus().get("replica-1")).get("healthy"));
+        assertEquals(true, ((Map<?, ?>) replicas.getStatus().get("replica-2")).get("healthy"));
+    }
+
+    private static DataSource waitFor(CountDownLatch started, DataSource dataSource) {
+        return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                started.countDown();
+                try {
+                    if (!started.await(5, TimeUnit.SECONDS)) {
+                        throw new SQLTimeoutException("Connection is not available, request timed out.");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException(e);
+                }
+
+                return super.getConnection();
+            }
+        };
+    }
+
+    private ReplicaDataSource getReplicas(String lagQuery, DataSource... dataSources) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < dataSources.length; i++) {
+            replicas.put("replica-" + (i + 1), dataSources[i]);
+        }
+
+        ReplicaDataSource replicaDataSource = new ReplicaDataSource(primary, replicas, lagQuery,
+                Duration.ofSeconds(5), new SimpleMeterRegistry());
+        replicaDataSource.check();
+        return replicaDataSource;
+    }
+
+    // Wired the same as ReplicaConfig
+    private DataSource getRoutingDataSource(ReplicaDataSource replicas) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replicas);
+        return dataSource;
+    }
+
+    private static String getName(DataSource dataSource, boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transaction.setReadOnly(readOnly);
+
+        return transaction.execute(status -> new JdbcTemplate(dataSource)
+                .queryForObject("SELECT name FROM node", String.class));
+    }
+
+    private static EmbeddedDatabase getDatabase(String name) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName(name + "-" + UUID.randomUUID())
+                .build();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE node (name VARCHAR(20))");
+        jdbcTemplate.update("INSERT INTO node (name) VALUES (?)", name);
+        return database;
+    }
+}
@@ -0,0 +1,143 @@
+package com.kegner.studentmanagement.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.cors.CorsConfiguration;
+
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BulkheadTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testRejectedWhenQueueFull() {
+        Bulkhead bulkhead = new Bulkhead("list", "limit=1,min=1,max=4,queue=0,wait=2s,latency=1h", meterRegistry);
+
+        bulkhead.acquire();
+        ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class, bulkhead::acquire);
+
+        assertEquals("2", exception.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1.0, meterRegistry.get("bulkhead.rejected").tag("reason", "queue-full").counter().count());
+    }
+
+    @Test
+    void testQueuedUntilReleased() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("list", "limit=1,min=1,max=1,queue=1,wait=10s,latency=1h", meterRegistry);
+        Bulkhead.Permit first = bulkhead.acquire();
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        Future<Bulkhead.Permit> second = executor.submit(bulkhead::acquire);
+
+        // Wait for it to queue, then the only other slot in the queue is taken
+        while (meterRegistry.get("bulkhead.queue").gauge().value() < 1) {
+            Thread.onSpinWait();
+        }
+        assertThrows(ServiceUnavailableException.class, bulkhead::acquire);
+
+        first.release();
+        // Releasing twice doesn't free a second slot
+        first.release();
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(1.0, meterRegistry.get("bulkhead.in-flight").gauge().value());
+        executor.shutdown();
+    }
+
+    @Test
+    void testRejectedAfterWaiting() {
+        Bulkhead bulkhead = new Bulkhead("write", "limit=1,min=1,max=1,queue=5,wait=20ms,latency=1h", meterRegistry);
+
+        bulkhead.acquire();
+        assertThrows(ServiceUnavailableException.class, bulkhead::acquire);
+        assertEquals(1.0, meterRegistry.get("bulkhead.rejected").tag("reason", "timeout").counter().count());
+    }
+
+    @Test
+    void testLimitAdaptsToLatency() {
+        // Every request is within an hour, so the limit grows up to its maximum
+        Bulkhead fast = new Bulkhead("detail", "limit=2,min=1,max=4,queue=0,wait=0ms,latency=1h", meterRegistry);
+        for (int i = 0; i < 20; i++) {
+            fast.acquire().release();
+        }
+        assertEquals(4.0, fast.getLimit());
+
+        // No request finishes within zero, so it shrinks down to its minimum
+        Bulkhead slow = new Bulkhead("list", "limit=8,min=2,max=8,queue=0,wait=0ms,latency=0ms", meterRegistry);
+        slow.acquire().release();
+        assertEquals(7.2, slow.getLimit(), 0.001);
+        for (int i = 0; i < 50; i++) {
+            slow.acquire().release();
+        }
+        assertEquals(2.0, slow.getLimit());
+    }
+
+    @Test
+    void testInvalidSpec() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new Bulkhead("list", "limit=1,min=1,max=1,queue=0,wait=0ms,latency=1s,size=3", meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new Bulkhead("list", "limit", meterRegistry));
+    }
+
+    @Test
+    void testRejectionReadableCrossOrigin() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("list", "limit=1,min=1,max=1,queue=0,wait=0ms,latency=1h", meterRegistry);
+        CorsConfiguration cors = new CorsConfiguration();
+        cors.addAllowedOrigin("http://localhost:4200");
+        cors.addAllowedMethod(CorsConfiguration.ALL);
+        cors.addExposedHeader(HttpHeaders.RETRY_AFTER);
+        Bulkheads filter = new Bulkheads(Map.of(Bulkheads.LIST, bulkhead), cors);
+
+        bulkhead.acquire();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/students");
+        request.addHeader(HttpHeaders.ORIGIN, "http://localhost:4200");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+
+        // Without these the browser reports a network error instead of the 503
+        assertEquals(503, response.getStatus());
+        assertEquals("http://localhost:4200", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(HttpHeaders.RETRY_AFTER, response.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+        // Not the latency target, that's no hint for when to come back
+        assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void testConfiguredRetryAfter() {
+        Bulkhead bulkhead = new Bulkhead("export", "limit=1,min=1,max=1,queue=0,wait=0ms,latency=60s,retry=1500ms",
+                meterRegistry);
+
+        bulkhead.acquire();
+        ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class, bulkhead::acquire);
+
+        // Rounded up to whole seconds
+        assertEquals("2", exception.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void testEndpointClasses() {
+        assertEquals(Bulkheads.DETAIL, Bulkheads.getEndpointClass("GET", "/api/v1/students/5"));
+        assertEquals(Bulkheads.LIST, Bulkheads.getEndpointClass("GET", "/api/v1/students"));
+        assertEquals(Bulkheads.LIST, Bulkheads.getEndpointClass("GET", "/api/v1/courses/5/roster"));
+        assertEquals(Bulkheads.WRITE, Bulkheads.getEndpointClass("PUT", "/api/v1/students"));
+        assertEquals(Bulkheads.WRITE, Bulkheads.getEndpointClass("POST", "/api/v1/students/5/enrollments"));
+        assertEquals(Bulkheads.EXPORT, Bulkheads.getEndpointClass("GET", "/api/v1/courses/export"));
+        assertNull(Bulkheads.getEndpointClass("GET", "/actuator/health"));
+        assertNull(Bulkheads.getEndpointClass("OPTIONS", "/api/v1/students"));
+        assertNull(Bulkheads.getEndpointClass("GET", "/api/v1/changes/stream"));
+        assertEquals(Bulkheads.DETAIL, Bulkheads.getEndpointClass("HEAD", "/api/v1/students/5"));
+    }
+}
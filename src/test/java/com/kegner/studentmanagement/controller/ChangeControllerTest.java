@@ -0,0 +1,61 @@
+package com.kegner.studentmanagement.controller;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+
+@WebMvcTest(ChangeController.class)
+class ChangeControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private ChangeStreams changeStreams;
+
+    @Test
+    void testStreamResumesFromLastEventId() throws Exception {
+        when(changeStreams.subscribe(any())).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/v1/changes/stream").header("Last-Event-ID", "42").param("since", "7"))
+                .andExpect(request().asyncStarted());
+
+        verify(changeStreams).subscribe(42L);
+    }
+
+    @Test
+    void testStreamSince() throws Exception {
+        when(changeStreams.subscribe(any())).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/v1/changes/stream").param("since", "7"))
+                .andExpect(request().asyncStarted());
+
+        verify(changeStreams).subscribe(7L);
+    }
+
+    @Test
+    void testTooManyStreams() throws Exception {
+        when(changeStreams.subscribe(any())).thenThrow(
+                new ServiceUnavailableException("Too many open change streams.", Duration.ofSeconds(15)));
+
+        mockMvc.perform(get("/api/v1/changes/stream"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "15"));
+    }
+}
@@ -0,0 +1,116 @@
+package com.kegner.studentmanagement.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+import com.kegner.studentmanagement.model.Change;
+import com.kegner.studentmanagement.persistence.CourseChangedEvent;
+import com.kegner.studentmanagement.persistence.StudentChangedEvent;
+import com.kegner.studentmanagement.service.ChangeFeed;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ChangeStreamsTest {
+    private ChangeFeed feed;
+
+    private ChangeStreams streams;
+
+    @BeforeEach
+    void setUp() {
+        feed = new ChangeFeed();
+        ReflectionTestUtils.setField(feed, "bufferSize", 4);
+        ReflectionTestUtils.setField(feed, "meterRegistry", new SimpleMeterRegistry());
+        feed.init();
+
+        streams = new ChangeStreams();
+        ReflectionTestUtils.setField(streams, "feed", feed);
+        ReflectionTestUtils.setField(streams, "maxSubscribers", 1);
+        ReflectionTestUtils.setField(streams, "batchSize", 10);
+        ReflectionTestUtils.setField(streams, "heartbeat", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(streams, "timeout", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(streams, "meterRegistry", new SimpleMeterRegistry());
+        streams.init();
+    }
+
+    @Test
+    void testStreamsChangesAfterCursor() throws IOException {
+        feed.onStudentChanged(StudentChangedEvent.created(7L, "Physics", 3.5));
+        feed.onStudentChanged(StudentChangedEvent.saved(7L, "History", 3.5));
+        feed.onCourseChanged(CourseChangedEvent.deleted(2L));
+
+        List<String> events = stream(1, 2);
+
+        assertTrue(events.get(0).startsWith("id:2\nevent:student-updated\ndata:"), events.get(0));
+        assertTrue(events.get(0).contains("\"id\":7"), events.get(0));
+        assertTrue(events.get(1).startsWith("id:3\nevent:course-deleted\n"), events.get(1));
+    }
+
+    @Test
+    void testHeartbeatWhenIdle() throws IOException {
+        List<String> events = stream(0, 1);
+
+        assertEquals(":heartbeat\n\n", events.get(0));
+    }
+
+    @Test
+    void testFallenBehindReloads() throws IOException {
+        for (long id = 1; id <= 6; id++) {
+            feed.onCourseChanged(CourseChangedEvent.saved(id, "Math", "Fall"));
+        }
+
+        // Nothing is queued up for a client that fell behind, it picks up after the reload
+        List<String> events = stream(0, 2);
+
+        assertTrue(events.get(0).startsWith("id:6\nevent:reload\n"), events.get(0));
+        assertEquals(":heartbeat\n\n", events.get(1));
+    }
+
+    @Test
+    void testTooManySubscribers() {
+        ReflectionTestUtils.setField(streams, "maxSubscribers", 0);
+
+        assertThrows(ServiceUnavailableException.class, () -> streams.subscribe(null));
+    }
+
+    // Streams until count events were sent, then fails the next send the way a closed connection would
+    private List<String> stream(long after, int count) throws IOException {
+        List<String> events = new ArrayList<>();
+        SseEmitter emitter = mock(SseEmitter.class);
+
+        doAnswer(invocation -> {
+            if (events.size() == count) {
+                throw new IOException("Broken pipe");
+            }
+
+            StringBuilder event = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : invocation.<SseEmitter.SseEventBuilder>getArgument(0)
+                    .build()) {
+                event.append(part.getData() instanceof Change change
+                        ? "{\"sequence\":" + change.getSequence() + ",\"id\":" + change.getId() + "}"
+                        : part.getData());
+            }
+
+            events.add(event.toString());
+            return null;
+        }).when(emitter).send(any(SseEmitter.SseEventBuilder.class));
+
+        streams.stream(emitter, after, () -> true);
+        return events;
+    }
+}
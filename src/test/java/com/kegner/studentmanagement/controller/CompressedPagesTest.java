@@ -0,0 +1,126 @@
+package com.kegner.studentmanagement.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.StudentDto;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CompressedPagesTest {
+    private CompressedPages pages;
+
+    private int loads;
+
+    @BeforeEach
+    void setup() {
+        pages = new CompressedPages();
+        ReflectionTestUtils.setField(pages, "jsonConverter", new MappingJackson2HttpMessageConverter());
+        ReflectionTestUtils.setField(pages, "cborConverter", new MappingJackson2CborHttpMessageConverter());
+        ReflectionTestUtils.setField(pages, "smileConverter", new MappingJackson2SmileHttpMessageConverter());
+        ReflectionTestUtils.setField(pages, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(pages, "pageCacheSpec", "maximumWeight=1000000");
+        pages.init();
+        loads = 0;
+    }
+
+    @Test
+    void testCachedWhileETagMatches() throws IOException {
+        DataQuery query = DataQuery.builder().sort("lastName:asc").build();
+
+        MockHttpServletResponse first = write(query, "W/\"v1\"", "application/json");
+        MockHttpServletResponse second = write(query, "W/\"v1\"", "application/json");
+        MockHttpServletResponse changed = write(query, "W/\"v2\"", "application/json");
+
+        assertEquals(2, loads);
+        assertEquals("application/json", first.getContentType());
+        assertEquals("gzip", first.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("W/\"v1\"", second.getHeader(HttpHeaders.ETAG));
+        assertEquals("W/\"v2\"", changed.getHeader(HttpHeaders.ETAG));
+        assertEquals("Bob", new ObjectMapper().readTree(gunzip(second)).at("/data/0/firstName").asText());
+    }
+
+    @Test
+    void testFormatsCachedSeparately() throws IOException {
+        DataQuery query = DataQuery.builder().build();
+
+        write(query, "W/\"v1\"", "application/json");
+        MockHttpServletResponse cbor = write(query, "W/\"v1\"", "application/json;q=0.5, application/cbor");
+
+        assertEquals(2, loads);
+        assertEquals("application/cbor", cbor.getContentType());
+        JsonNode page = new CBORMapper().readTree(gunzip(cbor));
+        assertEquals("Bob", page.at("/data/0/firstName").asText());
+    }
+
+    @Test
+    void testNotAcceptable() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.ACCEPT, "text/csv");
+
+        assertFalse(pages.write("students", DataQuery.builder().build(), "W/\"v1\"",
+                new ServletWebRequest(request, new MockHttpServletResponse()), this::load));
+        assertEquals(0, loads);
+    }
+
+    @Test
+    void testIsCacheable() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        ServletWebRequest webRequest = new ServletWebRequest(request);
+
+        assertTrue(pages.isCacheable(DataQuery.builder().sort("gpa:desc").build(), webRequest));
+        assertFalse(pages.isCacheable(DataQuery.builder().search("Bob").build(), webRequest));
+        assertFalse(pages.isCacheable(DataQuery.builder().ids(List.of(1L)).build(), webRequest));
+        assertFalse(pages.isCacheable(DataQuery.builder().fields(List.of("email")).build(), webRequest));
+
+        // No Accept-Encoding, so the client can't take the gzipped bytes
+        assertFalse(pages.isCacheable(DataQuery.builder().build(),
+                new ServletWebRequest(new MockHttpServletRequest())));
+    }
+
+    private MockHttpServletResponse write(DataQuery query, String eTag, String accept) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.ACCEPT, accept);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(pages.write("students", query, eTag, new ServletWebRequest(request, response), this::load));
+        return response;
+    }
+
+    private ListWrapper<StudentDto> load() {
+        loads++;
+        return ListWrapper.<StudentDto>builder()
+                .data(List.of(StudentDto.builder().id(1L).firstName("Bob").build()))
+                .count(1)
+                .build();
+    }
+
+    private static byte[] gunzip(MockHttpServletResponse response) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -2,8 +2,13 @@ package com.kegner.studentmanagement.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -12,24 +17,41 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kegner.studentmanagement.exceptions.VersionConflictException;
 import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.CountMode;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.RowVersion;
+import com.kegner.studentmanagement.model.StudentSummary;
 import com.kegner.studentmanagement.service.CourseService;
+import com.kegner.studentmanagement.service.StudentService;
 
 @WebMvcTest(CourseController.class)
 class CourseControllerTest {
@@ -40,6 +62,13 @@ class CourseControllerTest {
     @MockitoBean
     private CourseService service;
 
+    // Not cacheable unless a test says so, so the page comes from the service
+    @MockitoBean
+    private CompressedPages pages;
+
+    @MockitoBean
+    private StudentService studentService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -64,6 +93,18 @@ class CourseControllerTest {
         assertEquals(20L, idCaptor.getValue());
     }
 
+    @Test
+    void testGetNotModified() throws Exception {
+        OffsetDateTime modifiedDate = OffsetDateTime.parse("2025-01-01T10:00:00Z");
+        when(service.getVersion(anyLong())).thenReturn(new RowVersion(20L, modifiedDate));
+
+        mockMvc.perform(get("/api/v1/courses/{id}", 20L)
+                .header(HttpHeaders.IF_NONE_MATCH, ETags.of(20L, modifiedDate)))
+                .andExpect(status().isNotModified());
+
+        verify(service, never()).get(anyLong());
+    }
+
     @Test
     void testGetAll() throws Exception {
         when(service.getAll(any(DataQuery.class)))
@@ -74,6 +115,8 @@ class CourseControllerTest {
                 .param("page", "0")
                 .param("pageSize", "10")
                 .param("sort", "courseName:asc")
+                .param("cursor", "abc")
+                .param("count", "estimated")
                 .param("search", "History"))
                 .andExpect(status().isOk());
 
@@ -83,6 +126,89 @@ class CourseControllerTest {
         assertEquals(10, queryCaptor.getValue().getPageSize());
         assertEquals("History", queryCaptor.getValue().getSearch());
         assertEquals("courseName:asc", queryCaptor.getValue().getSort());
+        assertEquals("abc", queryCaptor.getValue().getCursor());
+        assertEquals(CountMode.ESTIMATED, queryCaptor.getValue().getCountMode());
+    }
+
+    @Test
+    void testGetAllSparseFields() throws Exception {
+        CourseDto course = CourseDto.builder().id(1L).courseName("History").credits(3).build();
+        when(service.getAll(any(DataQuery.class)))
+                .thenReturn(ListWrapper.<CourseDto>builder().data(List.of(course)).count(1).build());
+
+        mockMvc.perform(get("/api/v1/courses")
+                .param("fields", "courseName", "studentIds"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[0].id").value(1L))
+                .andExpect(jsonPath("$.data[0].courseName").value("History"))
+                .andExpect(jsonPath("$.data[0].studentIds").isArray())
+                .andExpect(jsonPath("$.data[0].credits").doesNotExist());
+
+        verify(service).getAll(queryCaptor.capture());
+        assertEquals(List.of("courseName", "studentIds"), queryCaptor.getValue().getFields());
+    }
+
+    @Test
+    void testGetRoster() throws Exception {
+        when(service.get(anyLong())).thenReturn(CourseDto.builder().id(30L).courseName("History").build());
+        when(studentService.getRoster(eq(30L), any(DataQuery.class))).thenReturn(ListWrapper.<StudentSummary>builder()
+                .data(List.of(StudentSummary.builder().id(5L).firstName("Bob").lastName("Smith").build()))
+                .count(1)
+                .build());
+
+        mockMvc.perform(get("/api/v1/courses/{id}/roster", 30L)
+                .param("sort", "lastName:asc")
+                .param("pageSize", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.course.courseName").value("History"))
+                .andExpect(jsonPath("$.students.data[0].fullName").value("Bob Smith"));
+
+        verify(studentService).getRoster(eq(30L), queryCaptor.capture());
+        assertEquals("lastName:asc", queryCaptor.getValue().getSort());
+        assertEquals(10, queryCaptor.getValue().getPageSize());
+    }
+
+    @Test
+    void testGetRosters() throws Exception {
+        when(service.getAll(any(DataQuery.class))).thenReturn(ListWrapper.<CourseDto>builder()
+                .data(List.of(CourseDto.builder().id(1L).build(), CourseDto.builder().id(2L).build()))
+                .build());
+        when(studentService.getRosters(anyList(), any(DataQuery.class))).thenAnswer(invocation -> {
+            Map<Long, ListWrapper<StudentSummary>> rosters = new LinkedHashMap<>();
+            for (Long courseId : invocation.<List<Long>>getArgument(0)) {
+                rosters.put(courseId, ListWrapper.<StudentSummary>builder().count(0).build());
+            }
+            return rosters;
+        });
+
+        // 3 doesn't exist, the rest keep the order they were asked for in
+        mockMvc.perform(get("/api/v1/courses/rosters")
+                .param("ids", "2,3,1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].course.id").value(2L))
+                .andExpect(jsonPath("$[1].course.id").value(1L));
+
+        verify(studentService).getRosters(eq(List.of(2L, 1L)), queryCaptor.capture());
+        assertEquals(20, queryCaptor.getValue().getPageSize());
+    }
+
+    @Test
+    void testExport() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(service).export(any(OutputStream.class));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/courses/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"id\":1}\n{\"id\":2}\n"));
     }
 
     @Test
@@ -115,6 +241,40 @@ class CourseControllerTest {
         assertEquals(15L, courseCaptor.getValue().getId());
     }
 
+    @Test
+    void testUpdateKeepsVersion() throws Exception {
+        doNothing().when(service).update(any(CourseDto.class));
+
+        // The modified date from the last read is what the update is checked against
+        mockMvc.perform(put("/api/v1/courses")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\": 15, \"modifiedDate\": \"2024-03-01T10:15:30.123456Z\"}"))
+                .andExpect(status().isOk());
+
+        verify(service).update(courseCaptor.capture());
+        assertEquals(OffsetDateTime.parse("2024-03-01T10:15:30.123456Z").toInstant(),
+                courseCaptor.getValue().getModifiedDate().toInstant());
+    }
+
+    @Test
+    void testUpdateConflict() throws Exception {
+        OffsetDateTime modified = OffsetDateTime.parse("2024-03-01T10:15:30Z");
+        doThrow(new VersionConflictException("changed",
+                CourseDto.builder().id(15L).courseName("Algebra II").modifiedDate(modified).build()))
+                .when(service).update(any(CourseDto.class));
+
+        String requestBody = objectMapper.writeValueAsString(CourseDto.builder().id(15L).courseName("Algebra")
+                .modifiedDate(modified.minusDays(1)).build());
+
+        // The body is the current row, ready to merge and retry with
+        mockMvc.perform(put("/api/v1/courses")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.courseName").value("Algebra II"))
+                .andExpect(jsonPath("$.id").value(15));
+    }
+
     @Test
     void testDelete() throws Exception {
         doNothing().when(service).delete(anyLong());
@@ -125,4 +285,26 @@ class CourseControllerTest {
         verify(service).delete(idCaptor.capture());
         assertEquals(30L, idCaptor.getValue());
     }
+
+    @Test
+    void testBulkInsert() throws Exception {
+        when(service.bulkInsert(any(), any()))
+                .thenReturn(ImportResult.builder().inserted(2).rejected(0).build());
+
+        mockMvc.perform(post("/api/v1/courses/bulk")
+                .contentType(ImportFormat.NDJSON_VALUE)
+                .content("{}\n{}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(2));
+
+        verify(service).bulkInsert(any(), eq(ImportFormat.NDJSON));
+    }
+
+    @Test
+    void testBulkInsertUnsupportedType() throws Exception {
+        mockMvc.perform(post("/api/v1/courses/bulk")
+                .contentType(MediaType.APPLICATION_XML)
+                .content("<rows/>"))
+                .andExpect(status().isUnsupportedMediaType());
+    }
 }
@@ -0,0 +1,58 @@
+package com.kegner.studentmanagement.controller;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.kegner.studentmanagement.model.EnrollmentStatistics;
+import com.kegner.studentmanagement.model.GpaStatistics;
+import com.kegner.studentmanagement.service.StatisticsService;
+
+@WebMvcTest(StatisticsController.class)
+class StatisticsControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private StatisticsService service;
+
+    @Test
+    void testGetGpa() throws Exception {
+        GpaStatistics.Distribution biology = GpaStatistics.Distribution.builder()
+                .major("Biology").students(2).graded(2).mean(3.5).percentiles(Map.of("p50", 3.2)).build();
+        when(service.getGpa()).thenReturn(GpaStatistics.builder().overall(biology).majors(List.of(biology)).build());
+
+        mockMvc.perform(get("/api/v1/statistics/gpa"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.overall.mean").value(3.5))
+                .andExpect(jsonPath("$.majors[0].major").value("Biology"))
+                .andExpect(jsonPath("$.majors[0].percentiles.p50").value(3.2));
+    }
+
+    @Test
+    void testGetEnrollment() throws Exception {
+        when(service.getEnrollment()).thenReturn(EnrollmentStatistics.builder()
+                .courses(List.of(EnrollmentStatistics.Course.builder().id(1L).departmentName("Math").students(30)
+                        .build()))
+                .departments(List.of(EnrollmentStatistics.Group.builder().name("Math").courses(1).students(30)
+                        .meanStudents(30.0).build()))
+                .build());
+
+        mockMvc.perform(get("/api/v1/statistics/enrollment"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.courses[0].students").value(30))
+                .andExpect(jsonPath("$.departments[0].meanStudents").value(30.0))
+                .andExpect(jsonPath("$.semesters").isEmpty());
+    }
+}
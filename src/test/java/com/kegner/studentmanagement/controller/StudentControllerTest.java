@@ -1,9 +1,13 @@
 package com.kegner.studentmanagement.controller;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -12,23 +16,46 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.util.List;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.kegner.studentmanagement.exceptions.ResourceNotFoundException;
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+import com.kegner.studentmanagement.model.CountMode;
+import com.kegner.studentmanagement.model.CourseDto;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.EnrollmentChange;
+import com.kegner.studentmanagement.model.EnrollmentChangeStatus;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.QueuedEnrollmentChange;
+import com.kegner.studentmanagement.model.RowVersion;
 import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.service.CourseService;
 import com.kegner.studentmanagement.service.StudentService;
 
 @WebMvcTest(StudentController.class)
@@ -40,6 +67,13 @@ class StudentControllerTest {
     @MockitoBean
     private StudentService service;
 
+    // Not cacheable unless a test says so, so the page comes from the service
+    @MockitoBean
+    private CompressedPages pages;
+
+    @MockitoBean
+    private CourseService courseService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -64,6 +98,67 @@ class StudentControllerTest {
         assertEquals(20L, idCaptor.getValue());
     }
 
+    @Test
+    void testGetNotModified() throws Exception {
+        OffsetDateTime modifiedDate = OffsetDateTime.parse("2025-01-01T10:00:00Z");
+        when(service.getVersion(anyLong())).thenReturn(new RowVersion(20L, modifiedDate));
+
+        mockMvc.perform(get("/api/v1/students/{id}", 20L)
+                .header(HttpHeaders.IF_NONE_MATCH, ETags.of(20L, modifiedDate)))
+                .andExpect(status().isNotModified());
+
+        // Answered from the version alone
+        verify(service, never()).get(anyLong());
+    }
+
+    @Test
+    void testGetModified() throws Exception {
+        OffsetDateTime modifiedDate = OffsetDateTime.parse("2025-01-01T10:00:00Z");
+        when(service.getVersion(anyLong())).thenReturn(new RowVersion(20L, modifiedDate));
+        when(service.get(anyLong())).thenReturn(StudentDto.builder().id(20L).modifiedDate(modifiedDate).build());
+
+        mockMvc.perform(get("/api/v1/students/{id}", 20L)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"stale\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, ETags.of(20L, modifiedDate)))
+                .andExpect(header().stringValues(HttpHeaders.VARY,
+                        hasItem(HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING)))
+                .andExpect(jsonPath("$.id").value(20L));
+    }
+
+    @Test
+    void testGetPendingEnrollments() throws Exception {
+        OffsetDateTime modifiedDate = OffsetDateTime.parse("2025-01-01T10:00:00Z");
+        when(service.hasPendingEnrollments(List.of(20L))).thenReturn(true);
+        when(service.get(anyLong())).thenReturn(StudentDto.builder().id(20L).modifiedDate(modifiedDate).build());
+
+        // The tag still matches the row, but the body shows a change that isn't written yet
+        mockMvc.perform(get("/api/v1/students/{id}", 20L)
+                .header(HttpHeaders.IF_NONE_MATCH, ETags.of(20L, modifiedDate)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+
+        verify(service, never()).getVersion(anyLong());
+    }
+
+    @Test
+    void testGetAllNotModified() throws Exception {
+        ListWrapper<RowVersion> versions = ListWrapper.<RowVersion>builder()
+                .data(List.of(new RowVersion(1L, OffsetDateTime.parse("2025-01-01T10:00:00Z"))))
+                .count(1)
+                .total(1)
+                .hasMore(false)
+                .build();
+        when(service.getAllVersions(any(DataQuery.class))).thenReturn(versions);
+
+        mockMvc.perform(get("/api/v1/students")
+                .header(HttpHeaders.IF_NONE_MATCH,
+                        ETags.of(versions, RowVersion::getId, RowVersion::getModifiedDate)))
+                .andExpect(status().isNotModified());
+
+        verify(service, never()).getAll(any(DataQuery.class));
+    }
+
     @Test
     void testGetAll() throws Exception {
         when(service.getAll(any(DataQuery.class)))
@@ -74,6 +169,8 @@ class StudentControllerTest {
                 .param("page", "0")
                 .param("pageSize", "10")
                 .param("sort", "firstName:asc")
+                .param("cursor", "abc")
+                .param("count", "estimated")
                 .param("search", "Bob"))
                 .andExpect(status().isOk());
 
@@ -83,6 +180,142 @@ class StudentControllerTest {
         assertEquals(10, queryCaptor.getValue().getPageSize());
         assertEquals("Bob", queryCaptor.getValue().getSearch());
         assertEquals("firstName:asc", queryCaptor.getValue().getSort());
+        assertEquals("abc", queryCaptor.getValue().getCursor());
+        assertEquals(CountMode.ESTIMATED, queryCaptor.getValue().getCountMode());
+    }
+
+    @Test
+    void testGetAllSparseFields() throws Exception {
+        StudentDto student = StudentDto.builder().id(1L).firstName("Bob").email("bob@example.com").build();
+        when(service.getAll(any(DataQuery.class)))
+                .thenReturn(ListWrapper.<StudentDto>builder().data(List.of(student)).count(1).build());
+
+        mockMvc.perform(get("/api/v1/students")
+                .param("fields", "firstName,email"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(1))
+                .andExpect(jsonPath("$.data[0].id").value(1L))
+                .andExpect(jsonPath("$.data[0].firstName").value("Bob"))
+                .andExpect(jsonPath("$.data[0].email").value("bob@example.com"))
+                .andExpect(jsonPath("$.data[0].lastName").doesNotExist())
+                .andExpect(jsonPath("$.data[0].courseIds").doesNotExist());
+
+        verify(service).getAll(queryCaptor.capture());
+        assertEquals(List.of("firstName", "email"), queryCaptor.getValue().getFields());
+    }
+
+    @Test
+    void testGetSparseFields() throws Exception {
+        when(service.get(anyLong()))
+                .thenReturn(StudentDto.builder().id(20L).firstName("Bob").lastName("Smith").build());
+
+        mockMvc.perform(get("/api/v1/students/{id}", 20L)
+                .param("fields", "lastName"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(20L))
+                .andExpect(jsonPath("$.lastName").value("Smith"))
+                .andExpect(jsonPath("$.firstName").doesNotExist());
+    }
+
+    @Test
+    void testGetAllCbor() throws Exception {
+        StudentDto student = StudentDto.builder().id(1L).firstName("Bob").build();
+        when(service.getAll(any(DataQuery.class)))
+                .thenReturn(ListWrapper.<StudentDto>builder().data(List.of(student)).count(1).build());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/students")
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().stringValues(HttpHeaders.VARY,
+                        hasItem(HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING)))
+                .andReturn();
+
+        JsonNode page = new CBORMapper().readTree(result.getResponse().getContentAsByteArray());
+        assertEquals("Bob", page.at("/data/0/firstName").asText());
+    }
+
+    @Test
+    void testGetAllFromCompressedPages() throws Exception {
+        when(pages.isCacheable(any(DataQuery.class), any())).thenReturn(true);
+        when(pages.write(eq("students"), any(DataQuery.class), any(), any(), any())).thenReturn(true);
+        when(service.getAllVersions(any(DataQuery.class)))
+                .thenReturn(ListWrapper.<RowVersion>builder().data(List.of(new RowVersion(1L, null))).build());
+
+        mockMvc.perform(get("/api/v1/students")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk());
+
+        // Checked against the versions, the full page is only loaded by the cache on a miss
+        verify(service).getAllVersions(any(DataQuery.class));
+        verify(service, never()).getAll(any(DataQuery.class));
+    }
+
+    @Test
+    void testGetAllPendingEnrollments() throws Exception {
+        ListWrapper<RowVersion> versions = ListWrapper.<RowVersion>builder()
+                .data(List.of(new RowVersion(1L, OffsetDateTime.parse("2025-01-01T10:00:00Z"))))
+                .build();
+        when(pages.isCacheable(any(DataQuery.class), any())).thenReturn(true);
+        when(service.getAllVersions(any(DataQuery.class))).thenReturn(versions);
+        when(service.hasPendingEnrollments(List.of(1L))).thenReturn(true);
+        when(service.getAll(any(DataQuery.class))).thenReturn(ListWrapper.<StudentDto>builder()
+                .data(List.of(StudentDto.builder().id(1L).courseIds(List.of(3L)).build())).build());
+
+        // Neither a 304 nor the cached bytes, both would be from before the queued change
+        mockMvc.perform(get("/api/v1/students")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH,
+                        ETags.of(versions, RowVersion::getId, RowVersion::getModifiedDate)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+                .andExpect(jsonPath("$.data[0].courseIds[0]").value(3));
+
+        verify(pages, never()).write(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void testGetAllInvalidCountMode() throws Exception {
+        mockMvc.perform(get("/api/v1/students")
+                .param("count", "sometimes"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetSchedule() throws Exception {
+        when(service.get(anyLong())).thenReturn(StudentDto.builder().id(5L).firstName("Bob").build());
+        when(courseService.getAll(any(DataQuery.class))).thenReturn(ListWrapper.<CourseDto>builder()
+                .data(List.of(CourseDto.builder().id(30L).courseName("History").credits(3).build()))
+                .count(1)
+                .build());
+
+        mockMvc.perform(get("/api/v1/students/{id}/schedule", 5L)
+                .param("sort", "courseName:asc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.student.firstName").value("Bob"))
+                .andExpect(jsonPath("$.courses.data[0].credits").value(3));
+
+        verify(courseService).getAll(queryCaptor.capture());
+        assertEquals(5L, queryCaptor.getValue().getEnrolledWith());
+        assertEquals("courseName:asc", queryCaptor.getValue().getSort());
+    }
+
+    @Test
+    void testExport() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(service).export(any(OutputStream.class));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/students/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"id\":1}\n{\"id\":2}\n"));
     }
 
     @Test
@@ -100,6 +333,62 @@ class StudentControllerTest {
         assertEquals(5L, studentCaptor.getValue().getId());
     }
 
+    @Test
+    void testUpdateEnrollments() throws Exception {
+        when(service.updateEnrollments(eq(5L), any(EnrollmentChange.class), eq(false)))
+                .thenReturn(QueuedEnrollmentChange.builder().id(42L).status(EnrollmentChangeStatus.PENDING).build());
+        when(service.updateEnrollments(eq(5L), any(EnrollmentChange.class), eq(true))).thenReturn(null);
+        when(service.get(5L)).thenReturn(StudentDto.builder().id(5L).courseIds(List.of(3L)).build());
+
+        String requestBody = objectMapper.writeValueAsString(EnrollmentChange.builder().add(List.of(3L)).build());
+
+        // Queued, then written before answering
+        mockMvc.perform(post("/api/v1/students/5/enrollments")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/api/v1/students/5/enrollments/42"))
+                .andExpect(jsonPath("$.courseIds[0]").value(3));
+        mockMvc.perform(post("/api/v1/students/5/enrollments?wait=true")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LOCATION));
+    }
+
+    @Test
+    void testGetEnrollmentChange() throws Exception {
+        when(service.getEnrollmentChange(5L, 42L)).thenReturn(QueuedEnrollmentChange.builder()
+                .id(42L)
+                .studentId(5L)
+                .add(List.of(3L))
+                .remove(List.of())
+                .status(EnrollmentChangeStatus.FAILED)
+                .error("student_course_course_id_fkey")
+                .build());
+        when(service.getEnrollmentChange(5L, 43L))
+                .thenThrow(new ResourceNotFoundException("Enrollment change not found"));
+
+        mockMvc.perform(get("/api/v1/students/5/enrollments/42"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("failed"))
+                .andExpect(jsonPath("$.error").value("student_course_course_id_fkey"));
+        mockMvc.perform(get("/api/v1/students/5/enrollments/43"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testUpdateEnrollmentsQueueFull() throws Exception {
+        when(service.updateEnrollments(eq(5L), any(EnrollmentChange.class), eq(false)))
+                .thenThrow(new ServiceUnavailableException("Queue full", Duration.ofMillis(1500)));
+
+        mockMvc.perform(post("/api/v1/students/5/enrollments")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"add\": [3]}"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+    }
+
     @Test
     void testUpdate() throws Exception {
         doNothing().when(service).update(any(StudentDto.class));
@@ -115,6 +404,21 @@ class StudentControllerTest {
         assertEquals(15L, studentCaptor.getValue().getId());
     }
 
+    @Test
+    void testUpdateKeepsVersion() throws Exception {
+        doNothing().when(service).update(any(StudentDto.class));
+
+        // The modified date from the last read is what the update is checked against
+        mockMvc.perform(put("/api/v1/students")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\": 15, \"modifiedDate\": \"2024-03-01T10:15:30.123456Z\"}"))
+                .andExpect(status().isOk());
+
+        verify(service).update(studentCaptor.capture());
+        assertEquals(OffsetDateTime.parse("2024-03-01T10:15:30.123456Z").toInstant(),
+                studentCaptor.getValue().getModifiedDate().toInstant());
+    }
+
     @Test
     void testDelete() throws Exception {
         doNothing().when(service).delete(anyLong());
@@ -125,4 +429,26 @@ class StudentControllerTest {
         verify(service).delete(idCaptor.capture());
         assertEquals(30L, idCaptor.getValue());
     }
+
+    @Test
+    void testBulkInsert() throws Exception {
+        when(service.bulkInsert(any(), any()))
+                .thenReturn(ImportResult.builder().inserted(2).rejected(0).build());
+
+        mockMvc.perform(post("/api/v1/students/bulk")
+                .contentType(ImportFormat.NDJSON_VALUE)
+                .content("{}\n{}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(2));
+
+        verify(service).bulkInsert(any(), eq(ImportFormat.NDJSON));
+    }
+
+    @Test
+    void testBulkInsertUnsupportedType() throws Exception {
+        mockMvc.perform(post("/api/v1/students/bulk")
+                .contentType(MediaType.APPLICATION_XML)
+                .content("<rows/>"))
+                .andExpect(status().isUnsupportedMediaType());
+    }
 }
@@ -0,0 +1,42 @@
+package com.kegner.studentmanagement.mapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.CourseEntity;
+
+class CourseMapperTest {
+    private final CourseMapper mapper = new CourseMapperImpl();
+
+    @Test
+    void testToDto() {
+        CourseEntity entity = CourseEntity.builder()
+                .id(3L)
+                .courseName("World History")
+                .departmentName("History")
+                .semester("Fall")
+                .courseYear(2025)
+                .credits(3)
+                .professorName("Jones")
+                .studentIds(List.of(7L))
+                .build();
+
+        CourseDto dto = mapper.toDto(entity);
+        assertEquals(3L, dto.getId());
+        assertEquals("World History", dto.getCourseName());
+        assertEquals(2025, dto.getCourseYear());
+        assertEquals(List.of(7L), dto.getStudentIds());
+    }
+
+    @Test
+    void testToEntity() {
+        CourseEntity entity = mapper.toEntity(CourseDto.builder().id(4L).credits(4).build());
+        assertEquals(4L, entity.getId());
+        assertEquals(4, entity.getCredits());
+        assertEquals(List.of(), entity.getStudentIds());
+    }
+}
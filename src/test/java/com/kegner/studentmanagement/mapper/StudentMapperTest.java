@@ -0,0 +1,50 @@
+package com.kegner.studentmanagement.mapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.StudentEntity;
+
+class StudentMapperTest {
+    private final StudentMapper mapper = new StudentMapperImpl();
+
+    @Test
+    void testToDto() {
+        OffsetDateTime now = OffsetDateTime.now();
+        StudentEntity entity = StudentEntity.builder()
+                .id(1L)
+                .firstName("Bob")
+                .lastName("Smith")
+                .email("bob@example.edu")
+                .phoneNumber("555-0100")
+                .dateOfBirth(LocalDate.of(2004, 5, 1))
+                .gpa(3.2)
+                .major("History")
+                .courseIds(List.of(4L, 5L))
+                .createdDate(now)
+                .modifiedDate(now)
+                .build();
+
+        StudentDto dto = mapper.toDto(entity);
+        assertEquals(1L, dto.getId());
+        assertEquals("Bob Smith", dto.getFullName());
+        assertEquals(LocalDate.of(2004, 5, 1), dto.getDateOfBirth());
+        assertEquals(3.2, dto.getGpa());
+        assertEquals(List.of(4L, 5L), dto.getCourseIds());
+        assertEquals(now, dto.getModifiedDate());
+    }
+
+    @Test
+    void testToEntity() {
+        StudentEntity entity = mapper.toEntity(StudentDto.builder().id(2L).email("a@example.edu").build());
+        assertEquals(2L, entity.getId());
+        assertEquals("a@example.edu", entity.getEmail());
+        assertEquals(List.of(), entity.getCourseIds());
+    }
+}
@@ -0,0 +1,78 @@
+package com.kegner.studentmanagement.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class EnrollmentIndexTest {
+    @Test
+    void testChangesKeptSortedInBothDirections() {
+        EnrollmentIndex index = new EnrollmentIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+
+        index.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(1L, List.of(10L, 5L), List.of()));
+        index.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(2L, List.of(5L), List.of()));
+        // Adding a pair twice is a no-op
+        index.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(2L, List.of(5L), List.of()));
+
+        assertEquals(List.of(5L, 10L), index.getCourseIds(1L));
+        assertEquals(List.of(1L, 2L), index.getStudentIds(5L));
+
+        index.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(1L, List.of(), List.of(10L)));
+        index.onEnrollmentChanged(EnrollmentChangedEvent.forCourseRemoval(5L, List.of(1L, 2L)));
+
+        assertEquals(List.of(), index.getCourseIds(1L));
+        assertEquals(List.of(), index.getStudentIds(5L));
+        assertEquals(List.of(), index.getStudentIds(10L));
+    }
+
+    @Test
+    void testReloadKeepsChangesMadeDuringScan() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        NamedParameterJdbcTemplate namedJdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+        when(namedJdbcTemplate.getJdbcTemplate()).thenReturn(jdbcTemplate);
+
+        EnrollmentIndex index = new EnrollmentIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "jdbcTemplate", namedJdbcTemplate);
+
+        // The scan reads 1-10 and 1-11, then student 1 swaps 10 for 12 before the reload swaps its maps in
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong(1)).thenReturn(1L, 1L);
+        when(rs.getLong(2)).thenReturn(10L, 11L);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(rs);
+            handler.processRow(rs);
+            index.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(1L, List.of(12L), List.of(10L)));
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+
+        index.reload();
+
+        assertEquals(List.of(11L, 12L), index.getCourseIds(1L));
+        assertEquals(List.of(), index.getStudentIds(10L));
+        assertEquals(List.of(1L), index.getStudentIds(12L));
+    }
+
+    @Test
+    void testDisabledIgnoresChanges() {
+        EnrollmentIndex index = new EnrollmentIndex();
+
+        index.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(1L, List.of(10L), List.of()));
+
+        assertEquals(List.of(), index.getCourseIds(1L));
+    }
+}
@@ -0,0 +1,122 @@
+package com.kegner.studentmanagement.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+import com.kegner.studentmanagement.model.DataQuery;
+
+class PageCursorTest {
+    private static final List<String> validColumns = List.of("id", "first_name", "gpa", "modified_date");
+
+    @Test
+    void testRoundTrip() {
+        SortKey sortKey = new SortKey("first_name", "ASC");
+        String token = new PageCursor("first_name", "ASC", 42L, "Bob:Smith").encode();
+
+        PageCursor cursor = PageCursor.decode(token, sortKey);
+        assertEquals(42L, cursor.getId());
+        assertEquals("Bob:Smith", cursor.getValue());
+    }
+
+    @Test
+    void testRoundTripNullValue() {
+        SortKey sortKey = new SortKey("gpa", "DESC");
+        String token = new PageCursor("gpa", "DESC", 7L, null).encode();
+
+        assertNull(PageCursor.decode(token, sortKey).getValue());
+    }
+
+    @Test
+    void testSortMismatch() {
+        String token = new PageCursor("first_name", "ASC", 42L, "Bob").encode();
+
+        InvalidRequestException exception = assertThrows(
+                InvalidRequestException.class,
+                () -> PageCursor.decode(token, new SortKey("first_name", "DESC")));
+
+        assertEquals("The cursor " + token + " does not match the requested sort.", exception.getMessage());
+    }
+
+    @Test
+    void testInvalidCursor() {
+        assertThrows(InvalidRequestException.class,
+                () -> PageCursor.decode("not a cursor", new SortKey("id", "ASC")));
+    }
+
+    @Test
+    void testSortKey() {
+        SortKey sortKey = BaseRepository.getSortKey(DataQuery.builder().sort("firstName:asc").build(), validColumns);
+        assertEquals(" ORDER BY first_name ASC NULLS LAST, id ASC ", sortKey.getOrderByClause());
+
+        SortKey invalid = BaseRepository.getSortKey(DataQuery.builder().sort("password:asc").build(), validColumns);
+        assertEquals(" ORDER BY modified_date DESC NULLS LAST, id DESC ", invalid.getOrderByClause());
+    }
+
+    @Test
+    void testSeekClause() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String clause = BaseRepository.getSeekClause(new SortKey("gpa", "DESC"),
+                new PageCursor("gpa", "DESC", 3L, "3.5"), params);
+
+        assertEquals(" AND ((gpa, id) < (:cursorValue, :cursorId) OR gpa IS NULL) ", clause);
+        assertEquals(3L, params.getValue("cursorId"));
+
+        String nullClause = BaseRepository.getSeekClause(new SortKey("gpa", "DESC"),
+                new PageCursor("gpa", "DESC", 3L, null), new MapSqlParameterSource());
+        assertEquals(" AND gpa IS NULL AND id < :cursorId ", nullClause);
+    }
+
+    @Test
+    void testShape() {
+        DataQuery query = DataQuery.builder().sort("gpa:desc").ids(List.of(1L, 2L)).build();
+        String nullCursor = new PageCursor("gpa", "DESC", 3L, null).encode();
+
+        PageQuery offset = BaseRepository.getPageQuery(query, validColumns, "courseIds", "",
+                new MapSqlParameterSource());
+        PageQuery seekNull = BaseRepository.getPageQuery(query.toBuilder().cursor(nullCursor).build(), validColumns,
+                "courseIds", "", new MapSqlParameterSource());
+
+        // The null cursor seeks with a different clause, so it has to be a different statement
+        assertEquals("ids:gpa:desc:offset", offset.getShape());
+        assertEquals("ids:gpa:desc:seek-null", seekNull.getShape());
+
+        // A roster or schedule filters by enrollment, which is another statement too
+        assertEquals("search+enrolled",
+                BaseRepository.getFilterShape(DataQuery.builder().search("bob").enrolledWith(3L).build()));
+        assertEquals("all", BaseRepository.getFilterShape(DataQuery.builder().build()));
+    }
+
+    @Test
+    void testSparseFields() {
+        DataQuery query = DataQuery.builder().sort("gpa:desc").fields(List.of("firstName", "courseIds")).build();
+
+        // Always the id and modified date, and the sort column for the cursor, in table order
+        PageQuery pageQuery = BaseRepository.getPageQuery(query, validColumns, "courseIds", "",
+                new MapSqlParameterSource());
+        assertEquals(List.of("id", "first_name", "gpa", "modified_date"), pageQuery.getColumns());
+        assertTrue(pageQuery.isLinked());
+        assertEquals("SELECT id, first_name, gpa, modified_date ", pageQuery.getSelectClause("SELECT *"));
+
+        PageQuery unlinked = BaseRepository.getPageQuery(query.toBuilder().fields(List.of("firstName")).build(),
+                validColumns, "courseIds", "", new MapSqlParameterSource());
+        assertFalse(unlinked.isLinked());
+
+        PageQuery full = BaseRepository.getPageQuery(DataQuery.builder().build(), validColumns, "courseIds", "",
+                new MapSqlParameterSource());
+        assertEquals("SELECT *", full.getSelectClause("SELECT *"));
+        assertTrue(full.isLinked());
+
+        assertThrows(InvalidRequestException.class, () -> BaseRepository.getPageQuery(
+                query.toBuilder().fields(List.of("password")).build(), validColumns, "courseIds", "",
+                new MapSqlParameterSource()));
+    }
+}
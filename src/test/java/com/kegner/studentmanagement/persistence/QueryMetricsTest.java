@@ -0,0 +1,55 @@
+package com.kegner.studentmanagement.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class QueryMetricsTest {
+    private SimpleMeterRegistry meterRegistry;
+
+    private QueryMetrics queryMetrics;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        queryMetrics = new QueryMetrics();
+        ReflectionTestUtils.setField(queryMetrics, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void testTimeTaggedByShape() {
+        assertEquals(3, queryMetrics.time("student", "page", "all:id:asc:seek", () -> 3));
+        queryMetrics.time("student", "page", "all:id:asc:seek", () -> 4);
+        queryMetrics.time("student", "page", "search:relevance:desc:offset", () -> 5);
+
+        assertEquals(2, meterRegistry.get("repository.query")
+                .tags("table", "student", "operation", "page", "shape", "all:id:asc:seek").timer().count());
+        assertEquals(1, meterRegistry.get("repository.query")
+                .tags("shape", "search:relevance:desc:offset").timer().count());
+    }
+
+    @Test
+    void testRecordRows() {
+        queryMetrics.recordRows("course", "page", 20);
+        queryMetrics.recordRows("course", "page", 5);
+
+        assertEquals(25, meterRegistry.get("repository.rows")
+                .tags("table", "course", "operation", "page").summary().totalAmount());
+    }
+
+    @Test
+    void testTimeExtraction() throws Exception {
+        ResultSetExtractor<Map<Long, String>> extractor = queryMetrics.timeExtraction("student",
+                rs -> Map.of(1L, "extracted"));
+
+        assertEquals(Map.of(1L, "extracted"), extractor.extractData(null));
+        assertEquals(1, meterRegistry.get("repository.extract").tags("table", "student").timer().count());
+    }
+}
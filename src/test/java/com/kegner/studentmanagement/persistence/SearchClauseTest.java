@@ -0,0 +1,55 @@
+package com.kegner.studentmanagement.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+import com.kegner.studentmanagement.model.DataQuery;
+
+class SearchClauseTest {
+    private static final List<String> validColumns = List.of("id", "first_name", "modified_date");
+
+    @Test
+    void testWildcardsEscaped() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        BaseRepository.getSearchClause("  50%_Off\\ ", params);
+
+        assertEquals("50%_off\\", params.getValue("search"));
+        assertEquals("%50\\%\\_off\\\\%", params.getValue("searchPattern"));
+    }
+
+    @Test
+    void testSearchDefaultsToRelevance() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        PageQuery pageQuery = BaseRepository.getPageQuery(DataQuery.builder().search("smith").build(),
+                validColumns, "courseIds", " WHERE 1=1 ", params);
+
+        assertEquals(BaseRepository.RELEVANCE, pageQuery.getSortKey().getColumn());
+        assertTrue(pageQuery.getRelevanceColumn().contains("word_similarity(:search, search_text)"));
+    }
+
+    @Test
+    void testExplicitSortWinsOverRelevance() {
+        PageQuery pageQuery = BaseRepository.getPageQuery(
+                DataQuery.builder().search("smith").sort("firstName:asc").build(),
+                validColumns, "courseIds", " WHERE 1=1 ", new MapSqlParameterSource());
+
+        assertEquals("first_name", pageQuery.getSortKey().getColumn());
+        assertEquals("", pageQuery.getRelevanceColumn());
+    }
+
+    @Test
+    void testCursorWithRelevance() {
+        String token = new PageCursor(BaseRepository.RELEVANCE, "DESC", 42L, "0.5").encode();
+
+        assertThrows(InvalidRequestException.class, () -> BaseRepository.getPageQuery(
+                DataQuery.builder().search("smith").cursor(token).build(),
+                validColumns, "courseIds", " WHERE 1=1 ", new MapSqlParameterSource()));
+    }
+}
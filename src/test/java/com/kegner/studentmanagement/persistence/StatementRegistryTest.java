@@ -0,0 +1,68 @@
+package com.kegner.studentmanagement.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.sql.Types;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class StatementRegistryTest {
+    private SimpleMeterRegistry meterRegistry;
+
+    private StatementRegistry statements;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        statements = new StatementRegistry();
+        ReflectionTestUtils.setField(statements, "meterRegistry", meterRegistry);
+        statements.registerMeters();
+    }
+
+    @Test
+    void testBuiltOncePerShape() {
+        int[] builds = { 0 };
+
+        String first = statements.get("student", "page", "all:id:asc:offset", () -> "SELECT " + ++builds[0]);
+        String second = statements.get("student", "page", "all:id:asc:offset", () -> "SELECT " + ++builds[0]);
+        statements.get("student", "page", "all:id:desc:offset", () -> "SELECT " + ++builds[0]);
+
+        assertSame(first, second);
+        assertEquals(2, builds[0]);
+        assertEquals(2, meterRegistry.get("repository.statements").gauge().value());
+        assertEquals(1, meterRegistry.get("repository.statement.lookups").tags("result", "hit").counter().count());
+        assertEquals(2, meterRegistry.get("repository.statement.lookups").tags("result", "build").counter().count());
+    }
+
+    @Test
+    void testBuiltEveryTimePastLimit() {
+        ReflectionTestUtils.setField(statements, "limit", 1);
+        int[] builds = { 0 };
+
+        statements.get("student", "page", "all:id:asc:offset", () -> "SELECT " + ++builds[0]);
+        statements.get("student", "page", "all:id:desc:offset", () -> "SELECT " + ++builds[0]);
+        statements.get("student", "page", "all:id:desc:offset", () -> "SELECT " + ++builds[0]);
+        statements.get("student", "page", "all:id:asc:offset", () -> "SELECT " + ++builds[0]);
+
+        // The first shape is still kept, the second is never stored
+        assertEquals(3, builds[0]);
+        assertEquals(1, meterRegistry.get("repository.statements").gauge().value());
+    }
+
+    @Test
+    void testIdArray() {
+        SqlParameterValue ids = BaseRepository.getIdArray(List.of(3L, 1L, 2L));
+
+        // One array parameter whatever the number of ids, so the statement text doesn't change
+        assertEquals(Types.ARRAY, ids.getSqlType());
+        assertArrayEquals(new long[] { 3L, 1L, 2L }, (long[]) ids.getValue());
+    }
+}
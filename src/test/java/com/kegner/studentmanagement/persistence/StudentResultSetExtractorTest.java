@@ -0,0 +1,51 @@
+package com.kegner.studentmanagement.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.kegner.studentmanagement.model.StudentEntity;
+
+class StudentResultSetExtractorTest {
+    private final StudentResultSetExtractor extractor = new StudentResultSetExtractor();
+
+    @Test
+    void testExtractData() throws Exception {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(3);
+        when(metaData.getColumnLabel(1)).thenReturn("id");
+        when(metaData.getColumnLabel(2)).thenReturn("gpa");
+        when(metaData.getColumnLabel(3)).thenReturn("course_id");
+
+        // Student 1 in two courses, student 2 in none
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metaData);
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getLong(1)).thenReturn(1L, 1L, 2L);
+        when(rs.getDouble(2)).thenReturn(3.5, 0d);
+        when(rs.getLong(3)).thenReturn(10L, 11L, 0L);
+        when(rs.wasNull()).thenReturn(false, false, false, true, true);
+
+        Map<Long, StudentEntity> students = extractor.extractData(rs);
+
+        assertEquals(List.of(1L, 2L), List.copyOf(students.keySet()));
+        assertEquals(List.of(10L, 11L), students.get(1L).getCourseIds());
+        assertEquals(3.5, students.get(1L).getGpa());
+        assertEquals(List.of(), students.get(2L).getCourseIds());
+        assertNull(students.get(2L).getGpa());
+
+        // Columns that aren't selected are never read
+        assertNull(students.get(1L).getFirstName());
+        verify(rs, never()).getString("first_name");
+    }
+}
@@ -0,0 +1,119 @@
+package com.kegner.studentmanagement.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.persistence.StudentRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BatchLoaderTest {
+    private StudentRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(StudentRepository.class);
+
+        // Every id exists except 404
+        when(repository.getAllById(anyList())).thenAnswer(invocation -> {
+            List<Long> ids = invocation.getArgument(0);
+            return ids.stream().filter(id -> id != 404L).map(id -> StudentEntity.builder().id(id).build()).toList();
+        });
+    }
+
+    @Test
+    void testConcurrentLookupsCoalesced() throws Exception {
+        BatchLoader<StudentEntity> loader = getLoader(Duration.ofMillis(500), 100);
+
+        List<Long> ids = List.of(1L, 2L, 3L, 1L, 404L);
+        List<Future<StudentEntity>> results = loadConcurrently(loader, ids);
+
+        assertEquals(1L, results.get(0).get(5, TimeUnit.SECONDS).getId());
+        assertEquals(2L, results.get(1).get(5, TimeUnit.SECONDS).getId());
+        assertEquals(3L, results.get(2).get(5, TimeUnit.SECONDS).getId());
+        assertEquals(1L, results.get(3).get(5, TimeUnit.SECONDS).getId());
+        assertNull(results.get(4).get(5, TimeUnit.SECONDS));
+
+        // One query, and the repeated id only asked for once
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Long>> idsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(repository, times(1)).getAllById(idsCaptor.capture());
+        verify(repository, never()).get(anyLong());
+        assertEquals(4, idsCaptor.getValue().size());
+    }
+
+    @Test
+    void testFullBatchRunsWithoutWaiting() throws Exception {
+        // The window is far longer than the timeout, so only filling the batch can finish it in time
+        BatchLoader<StudentEntity> loader = getLoader(Duration.ofMinutes(1), 3);
+
+        List<Future<StudentEntity>> results = loadConcurrently(loader, List.of(1L, 2L, 3L));
+
+        for (Future<StudentEntity> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        verify(repository, times(1)).getAllById(anyList());
+    }
+
+    @Test
+    void testSingleLookupUsesGet() {
+        when(repository.get(7L)).thenReturn(StudentEntity.builder().id(7L).build());
+        BatchLoader<StudentEntity> loader = getLoader(Duration.ofMillis(1), 100);
+
+        assertEquals(7L, loader.load(7L).getId());
+        verify(repository, never()).getAllById(anyList());
+    }
+
+    @Test
+    void testFailureReachesEveryCaller() throws Exception {
+        when(repository.getAllById(anyList())).thenThrow(new IllegalStateException("database down"));
+        BatchLoader<StudentEntity> loader = getLoader(Duration.ofMillis(500), 100);
+
+        List<Future<StudentEntity>> results = loadConcurrently(loader, List.of(1L, 2L));
+
+        for (Future<StudentEntity> result : results) {
+            ExecutionException exception = assertThrows(ExecutionException.class,
+                    () -> result.get(5, TimeUnit.SECONDS));
+            assertEquals("database down", exception.getCause().getMessage());
+        }
+    }
+
+    private BatchLoader<StudentEntity> getLoader(Duration window, int maxSize) {
+        return new BatchLoader<>("students", repository, StudentEntity::getId, window, maxSize,
+                new SimpleMeterRegistry());
+    }
+
+    private List<Future<StudentEntity>> loadConcurrently(BatchLoader<StudentEntity> loader, List<Long> ids) {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<StudentEntity>> results = new ArrayList<>();
+
+        for (Long id : ids) {
+            results.add(executor.submit(() -> loader.load(id)));
+        }
+
+        executor.shutdown();
+        return results;
+    }
+}
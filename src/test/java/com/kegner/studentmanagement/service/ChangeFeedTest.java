@@ -0,0 +1,116 @@
+package com.kegner.studentmanagement.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.kegner.studentmanagement.model.Change;
+import com.kegner.studentmanagement.model.ChangeType;
+import com.kegner.studentmanagement.persistence.CourseChangedEvent;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
+import com.kegner.studentmanagement.persistence.StudentChangedEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ChangeFeedTest {
+    private ChangeFeed feed;
+
+    @BeforeEach
+    void setUp() {
+        feed = new ChangeFeed();
+        ReflectionTestUtils.setField(feed, "bufferSize", 4);
+        ReflectionTestUtils.setField(feed, "meterRegistry", new SimpleMeterRegistry());
+        feed.init();
+    }
+
+    @Test
+    void testChangesInOrder() throws Exception {
+        feed.onStudentChanged(StudentChangedEvent.created(7L, "Physics", 3.5));
+        feed.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(7L, List.of(2L), List.of(3L)));
+        feed.onCourseChanged(CourseChangedEvent.deleted(2L));
+
+        List<Change> changes = feed.read(0, 10, Duration.ZERO);
+
+        assertEquals(List.of(ChangeType.STUDENT_CREATED, ChangeType.ENROLLED, ChangeType.UNENROLLED,
+                ChangeType.COURSE_DELETED), changes.stream().map(Change::getType).toList());
+        assertEquals(List.of(1L, 2L, 3L, 4L), changes.stream().map(Change::getSequence).toList());
+        assertEquals(7L, changes.get(1).getId());
+        assertEquals(2L, changes.get(1).getCourseId());
+        assertEquals(4L, feed.getLastSequence());
+    }
+
+    @Test
+    void testResumeAfterSequence() throws Exception {
+        feed.onStudentChanged(StudentChangedEvent.created(7L, "Physics", 3.5));
+        feed.onStudentChanged(StudentChangedEvent.saved(7L, "History", 3.5));
+        feed.onStudentChanged(StudentChangedEvent.deleted(7L));
+
+        List<Change> changes = feed.read(1, 1, Duration.ZERO);
+
+        // Only up to max at a time
+        assertEquals(1, changes.size());
+        assertEquals(ChangeType.STUDENT_UPDATED, changes.get(0).getType());
+        assertEquals(ChangeType.STUDENT_DELETED, feed.read(2, 10, Duration.ZERO).get(0).getType());
+        assertTrue(feed.read(3, 10, Duration.ZERO).isEmpty());
+    }
+
+    @Test
+    void testReloadWhenOverwritten() throws Exception {
+        for (long id = 1; id <= 6; id++) {
+            feed.onCourseChanged(CourseChangedEvent.saved(id, "Math", "Fall"));
+        }
+
+        // Changes 1 and 2 are gone, so readers after 0 or 1 missed one, a reader after 2 didn't
+        List<Change> missed = feed.read(0, 10, Duration.ZERO);
+        assertEquals(1, missed.size());
+        assertEquals(ChangeType.RELOAD, missed.get(0).getType());
+        assertEquals(6L, missed.get(0).getSequence());
+
+        assertEquals(3L, feed.read(2, 10, Duration.ZERO).get(0).getSequence());
+    }
+
+    @Test
+    void testReloadAfterRestart() throws Exception {
+        feed.onStudentChanged(StudentChangedEvent.deleted(7L));
+
+        // A sequence from before the restart is ahead of this process
+        List<Change> changes = feed.read(500, 10, Duration.ZERO);
+        assertEquals(ChangeType.RELOAD, changes.get(0).getType());
+        assertEquals(1L, changes.get(0).getSequence());
+    }
+
+    @Test
+    void testReadWaitsForChange() throws Exception {
+        CompletableFuture<List<Change>> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return feed.read(0, 10, Duration.ofSeconds(10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        feed.onStudentChanged(StudentChangedEvent.created(7L, "Physics", 3.5));
+
+        assertEquals(ChangeType.STUDENT_CREATED, read.get(5, TimeUnit.SECONDS).get(0).getType());
+    }
+
+    @Test
+    void testBulkImportReloads() throws Exception {
+        feed.onEnrollmentChanged(EnrollmentChangedEvent.reload());
+
+        Change change = feed.read(0, 10, Duration.ZERO).get(0);
+        assertEquals(ChangeType.RELOAD, change.getType());
+        assertEquals(1L, change.getSequence());
+        assertNull(change.getId());
+    }
+}
@@ -1,29 +1,43 @@
 package com.kegner.studentmanagement.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.modelmapper.ModelMapper;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.kegner.studentmanagement.exceptions.ResourceExistsException;
 import com.kegner.studentmanagement.exceptions.ResourceNotFoundException;
+import com.kegner.studentmanagement.exceptions.VersionConflictException;
+import com.kegner.studentmanagement.mapper.CourseMapper;
 import com.kegner.studentmanagement.model.CourseDto;
 import com.kegner.studentmanagement.model.CourseEntity;
 import com.kegner.studentmanagement.model.DataQuery;
 import com.kegner.studentmanagement.model.ListWrapper;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.model.WriteResult;
 import com.kegner.studentmanagement.persistence.CourseRepository;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @SpringBootTest
 public class CourseServiceTest {
     @InjectMocks
@@ -33,7 +47,11 @@ public class CourseServiceTest {
     private CourseRepository repository;
 
     @Mock
-    private ModelMapper modelMapper;
+    private CourseMapper mapper;
+
+    private final AsyncCache<Long, CourseDto> courseCache = Caffeine.newBuilder().buildAsync();
+
+    private final AsyncCache<Long, StudentDto> studentCache = Caffeine.newBuilder().buildAsync();
 
     @Captor
     private ArgumentCaptor<Long> idCaptor;
@@ -44,10 +62,19 @@ public class CourseServiceTest {
     @Captor
     private ArgumentCaptor<CourseEntity> courseCaptor;
 
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "courseCache", courseCache);
+        // No window, so each lookup goes straight to repository.get
+        ReflectionTestUtils.setField(service, "courseLoader", new BatchLoader<>("courses", repository,
+                CourseEntity::getId, Duration.ZERO, 100, new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(service, "studentCache", studentCache);
+    }
+
     @Test
     void testGet() throws Exception {
         when(repository.get(anyLong())).thenReturn(CourseEntity.builder().id(20L).build());
-        when(modelMapper.map(any(), any())).thenReturn(CourseDto.builder().id(20L).build());
+        when(mapper.toDto(any())).thenReturn(CourseDto.builder().id(20L).build());
 
         CourseDto dto = service.get(20L);
         verify(repository).get(idCaptor.capture());
@@ -55,10 +82,21 @@ public class CourseServiceTest {
         assertEquals(20L, dto.getId());
     }
 
+    @Test
+    void testGetCached() throws Exception {
+        when(repository.get(anyLong())).thenReturn(CourseEntity.builder().id(20L).build());
+        when(mapper.toDto(any())).thenReturn(CourseDto.builder().id(20L).build());
+
+        service.get(20L);
+        CourseDto dto = service.get(20L);
+        verify(repository, times(1)).get(20L);
+        assertEquals(20L, dto.getId());
+    }
+
     @Test
     void testGetNotFound() throws Exception {
         when(repository.get(anyLong())).thenReturn(null);
-        when(modelMapper.map(any(), any())).thenReturn(CourseDto.builder().id(20L).build());
+        when(mapper.toDto(any())).thenReturn(CourseDto.builder().id(20L).build());
         ResourceNotFoundException exception = assertThrows(
                 ResourceNotFoundException.class,
                 () -> service.get(20L));
@@ -72,7 +110,7 @@ public class CourseServiceTest {
     void testGetAll() throws Exception {
         when(repository.getAll(any(DataQuery.class)))
                 .thenReturn(ListWrapper.<CourseEntity>builder().count(10).build());
-        when(modelMapper.map(any(), any())).thenReturn(CourseDto.builder().id(50L).build());
+        when(mapper.toDto(any())).thenReturn(CourseDto.builder().id(50L).build());
 
         ListWrapper<CourseDto> list = service.getAll(DataQuery.builder().page(0).build());
         verify(repository).getAll(queryCaptor.capture());
@@ -84,9 +122,9 @@ public class CourseServiceTest {
     void testInsert() throws Exception {
         CourseEntity student = CourseEntity.builder().id(25L).build();
 
-        doNothing().when(repository).insert(any(CourseEntity.class));
+        when(repository.insert(any(CourseEntity.class))).thenReturn(WriteResult.builder().id(25L).build());
         when(repository.get(anyLong())).thenReturn(null);
-        when(modelMapper.map(any(), any())).thenReturn(student);
+        when(mapper.toEntity(any())).thenReturn(student);
 
         service.insert(CourseDto.builder().id(25L).build());
         verify(repository).get(idCaptor.capture());
@@ -99,9 +137,9 @@ public class CourseServiceTest {
     void testInsertResourceExists() throws Exception {
         CourseEntity student = CourseEntity.builder().id(25L).build();
 
-        doNothing().when(repository).insert(any(CourseEntity.class));
+        when(repository.insert(any(CourseEntity.class))).thenReturn(WriteResult.builder().id(25L).build());
         when(repository.get(anyLong())).thenReturn(student);
-        when(modelMapper.map(any(), any())).thenReturn(student);
+        when(mapper.toEntity(any())).thenReturn(student);
 
         ResourceExistsException exception = assertThrows(
                 ResourceExistsException.class,
@@ -116,20 +154,50 @@ public class CourseServiceTest {
     void testUpdate() throws Exception {
         CourseEntity student = CourseEntity.builder().id(25L).build();
 
-        doNothing().when(repository).update(any(CourseEntity.class));
-        when(modelMapper.map(any(), any())).thenReturn(student);
+        when(repository.update(any(CourseEntity.class))).thenReturn(
+                WriteResult.builder().id(25L).rowsAffected(1).build());
+        when(mapper.toEntity(any())).thenReturn(student);
+
+        courseCache.put(25L, CompletableFuture.completedFuture(CourseDto.builder().id(25L).build()));
 
         service.update(CourseDto.builder().id(25L).build());
         verify(repository).update(courseCaptor.capture());
         assertEquals(25L, courseCaptor.getValue().getId());
+        assertNull(courseCache.getIfPresent(25L));
+    }
+
+    @Test
+    void testUpdateConflict() throws Exception {
+        when(repository.update(any(CourseEntity.class))).thenReturn(
+                WriteResult.builder().id(25L).conflict(true).build());
+        when(mapper.toEntity(any())).thenReturn(CourseEntity.builder().id(25L).build());
+        when(repository.get(25L)).thenReturn(CourseEntity.builder().id(25L).courseName("Algebra II").build());
+        when(mapper.toDto(any())).thenReturn(CourseDto.builder().id(25L).courseName("Algebra II").build());
+
+        // A stale copy in the cache must not be what the client gets back
+        courseCache.put(25L,
+                CompletableFuture.completedFuture(CourseDto.builder().id(25L).courseName("Algebra").build()));
+
+        VersionConflictException exception = assertThrows(VersionConflictException.class,
+                () -> service.update(CourseDto.builder().id(25L).courseName("Geometry").build()));
+
+        verify(repository).get(25L);
+        assertEquals("The course with the ID 25 was changed since it was read.", exception.getMessage());
+        assertEquals("Algebra II", ((CourseDto) exception.getCurrent()).getCourseName());
     }
 
     @Test
     void testDelete() throws Exception {
-        doNothing().when(repository).delete(anyLong());
+        when(repository.delete(anyLong())).thenReturn(
+                WriteResult.builder().id(35L).removedIds(List.of(7L)).rowsAffected(2).build());
+
+        courseCache.put(35L, CompletableFuture.completedFuture(CourseDto.builder().id(35L).build()));
+        studentCache.put(7L, CompletableFuture.completedFuture(StudentDto.builder().id(7L).build()));
 
         service.delete(35L);
         verify(repository).delete(idCaptor.capture());
         assertEquals(35L, idCaptor.getValue());
+        assertNull(courseCache.getIfPresent(35L));
+        assertNull(studentCache.getIfPresent(7L));
     }
 }
@@ -0,0 +1,253 @@
+package com.kegner.studentmanagement.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
+import com.kegner.studentmanagement.exceptions.ServiceUnavailableException;
+import com.kegner.studentmanagement.model.CourseDto;
+import com.kegner.studentmanagement.model.EnrollmentChangeStatus;
+import com.kegner.studentmanagement.model.QueuedEnrollmentChange;
+import com.kegner.studentmanagement.model.StudentDto;
+import com.kegner.studentmanagement.persistence.EnrollmentChangeRepository;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
+import com.kegner.studentmanagement.persistence.StudentRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class EnrollmentQueueTest {
+    private StudentRepository repository;
+
+    private EnrollmentChangeRepository changeRepository;
+
+    private final AsyncCache<Long, StudentDto> studentCache = Caffeine.newBuilder().buildAsync();
+
+    private EnrollmentQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(StudentRepository.class);
+        changeRepository = mock(EnrollmentChangeRepository.class);
+
+        // Stored with increasing ids, like the bigserial
+        AtomicLong ids = new AtomicLong();
+        when(changeRepository.append(anyLong(), anyList(), anyList())).thenAnswer(invocation -> QueuedEnrollmentChange
+                .builder()
+                .id(ids.incrementAndGet())
+                .studentId(invocation.getArgument(0))
+                .add(invocation.getArgument(1))
+                .remove(invocation.getArgument(2))
+                .status(EnrollmentChangeStatus.PENDING)
+                .build());
+
+        queue = getQueue(10, 5);
+    }
+
+    @Test
+    void testChangesCoalescedPerPair() {
+        queue.submit(1L, List.of(10L), List.of());
+        queue.submit(1L, List.of(11L), List.of(10L));
+        queue.submit(2L, List.of(10L), List.of());
+        verify(changeRepository, times(3)).append(anyLong(), anyList(), anyList());
+        verify(changeRepository, never()).write(anyList(), anyList(), anyList());
+
+        queue.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Long>> idsCaptor = ArgumentCaptor.forClass(List.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EnrollmentChangedEvent.Enrollment>> captor = ArgumentCaptor.forClass(List.class);
+        verify(changeRepository, times(1)).write(idsCaptor.capture(), captor.capture(), captor.capture());
+        List<EnrollmentChangedEvent.Enrollment> added = captor.getAllValues().get(0);
+        List<EnrollmentChangedEvent.Enrollment> removed = captor.getAllValues().get(1);
+
+        // All three stored changes are marked written with the batch
+        assertEquals(List.of(1L, 2L, 3L), idsCaptor.getValue());
+
+        // The enroll in 10 was replaced by the drop, so it's only removed once
+        assertEquals(2, added.size());
+        assertEquals(11L, added.get(0).getCourseId());
+        assertEquals(2L, added.get(1).getStudentId());
+        assertEquals(1, removed.size());
+        assertEquals(10L, removed.get(0).getCourseId());
+    }
+
+    @Test
+    void testQueuedChangesOverlaid() {
+        StudentDto student = StudentDto.builder().id(1L).courseIds(List.of(10L, 12L)).build();
+
+        queue.submit(1L, List.of(11L), List.of(10L));
+
+        assertEquals(List.of(12L, 11L), queue.overlay(student).getCourseIds());
+        StudentDto other = student.toBuilder().id(2L).build();
+        assertSame(other, queue.overlay(other));
+
+        // Written and evicted, so reads go back to the database and the overlay is gone
+        studentCache.put(1L, CompletableFuture.completedFuture(student));
+        queue.flush();
+
+        assertSame(student, queue.overlay(student));
+        assertNull(studentCache.getIfPresent(1L));
+    }
+
+    @Test
+    void testHasPending() {
+        queue.submit(1L, List.of(11L), List.of());
+
+        assertTrue(queue.hasPending(List.of(2L, 1L)));
+        assertFalse(queue.hasPending(List.of(2L)));
+
+        queue.flush();
+        assertFalse(queue.hasPending(List.of(1L)));
+    }
+
+    @Test
+    void testFullQueueRejected() {
+        queue = getQueue(2, 100);
+
+        queue.submit(1L, List.of(10L, 11L), List.of());
+        // Replacing a queued pair doesn't take more room
+        queue.submit(1L, List.of(), List.of(11L));
+
+        ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class,
+                () -> queue.submit(2L, List.of(10L), List.of()));
+        assertEquals("1", exception.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        queue.flush();
+        queue.submit(2L, List.of(10L), List.of());
+    }
+
+    @Test
+    void testFullBatchWrittenBySubmitter() {
+        CompletableFuture<Void> first = queue.submit(1L, List.of(10L, 11L), List.of()).written();
+        assertFalse(first.isDone());
+
+        CompletableFuture<Void> second = queue.submit(2L, List.of(10L, 11L, 12L), List.of()).written();
+
+        verify(changeRepository, times(1)).write(anyList(), anyList(), anyList());
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+    }
+
+    @Test
+    void testFailedBatchRetried() {
+        when(changeRepository.write(anyList(), anyList(), anyList()))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenReturn(1);
+        StudentDto student = StudentDto.builder().id(1L).build();
+
+        CompletableFuture<Void> written = queue.submit(1L, List.of(10L), List.of()).written();
+        queue.flush();
+
+        // The waiter hears about it, but the change is still stored and queued
+        CompletionException exception = assertThrows(CompletionException.class, written::join);
+        assertEquals("database down", exception.getCause().getMessage());
+        assertEquals(List.of(10L), queue.overlay(student).getCourseIds());
+
+        queue.flush();
+
+        verify(changeRepository, times(2)).write(eq(List.of(1L)), anyList(), anyList());
+        assertSame(student, queue.overlay(student));
+    }
+
+    @Test
+    void testConstraintFailureOnlyDropsThatStudent() {
+        // The batch fails, then so does student 2 alone, e.g. because it was deleted after the change was queued
+        when(changeRepository.write(anyList(), anyList(), anyList())).thenAnswer(invocation -> {
+            List<EnrollmentChangedEvent.Enrollment> added = invocation.getArgument(1);
+            if (added.stream().anyMatch(enrollment -> enrollment.getStudentId() == 2L)) {
+                throw new DataIntegrityViolationException("student_course_student_id_fkey");
+            }
+
+            return added.size();
+        });
+
+        CompletableFuture<Void> first = queue.submit(1L, List.of(10L), List.of()).written();
+        CompletableFuture<Void> second = queue.submit(2L, List.of(10L), List.of()).written();
+        queue.flush();
+
+        first.join();
+        CompletionException exception = assertThrows(CompletionException.class, second::join);
+        assertTrue(exception.getCause() instanceof DataIntegrityViolationException);
+        verify(changeRepository, times(3)).write(anyList(), anyList(), anyList());
+        verify(changeRepository).fail(List.of(2L), "student_course_student_id_fkey");
+    }
+
+    @Test
+    void testPendingChangesQueuedOnStart() {
+        when(changeRepository.getPending()).thenReturn(List.of(QueuedEnrollmentChange.builder()
+                .id(7L).studentId(1L).add(List.of(11L)).remove(List.of(10L)).build()));
+
+        queue = getQueue(10, 5);
+        StudentDto student = StudentDto.builder().id(1L).courseIds(List.of(10L)).build();
+        assertEquals(List.of(11L), queue.overlay(student).getCourseIds());
+
+        queue.flush();
+        verify(changeRepository).write(eq(List.of(7L)), anyList(), anyList());
+    }
+
+    @Test
+    void testMoreThanCapacityRejected() {
+        queue = getQueue(2, 100);
+
+        // Could never fit, so it isn't worth retrying
+        assertThrows(InvalidRequestException.class, () -> queue.submit(1L, List.of(10L, 11L, 12L), List.of()));
+    }
+
+    @Test
+    void testDisabledWritesStraightAway() {
+        ReflectionTestUtils.setField(queue, "enabled", false);
+
+        EnrollmentQueue.Submission submission = queue.submit(1L, List.of(10L), List.of());
+
+        assertTrue(submission.written().isDone());
+        assertNull(submission.change());
+        verify(repository, times(1)).updateEnrollments(anyList(), anyList());
+        verify(changeRepository, never()).append(anyLong(), anyList(), anyList());
+    }
+
+    private EnrollmentQueue getQueue(int capacity, int batchSize) {
+        EnrollmentQueue enrollmentQueue = new EnrollmentQueue();
+        ReflectionTestUtils.setField(enrollmentQueue, "enabled", true);
+        ReflectionTestUtils.setField(enrollmentQueue, "capacity", capacity);
+        ReflectionTestUtils.setField(enrollmentQueue, "batchSize", batchSize);
+        ReflectionTestUtils.setField(enrollmentQueue, "interval", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(enrollmentQueue, "repository", repository);
+        ReflectionTestUtils.setField(enrollmentQueue, "changeRepository", changeRepository);
+        ReflectionTestUtils.setField(enrollmentQueue, "studentCache", studentCache);
+        ReflectionTestUtils.setField(enrollmentQueue, "courseCache", Caffeine.newBuilder()
+                .<Long, CourseDto>buildAsync());
+        ReflectionTestUtils.setField(enrollmentQueue, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(enrollmentQueue, "init");
+        return enrollmentQueue;
+    }
+}
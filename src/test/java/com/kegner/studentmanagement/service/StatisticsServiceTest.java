@@ -0,0 +1,238 @@
+package com.kegner.studentmanagement.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.kegner.studentmanagement.model.EnrollmentStatistics;
+import com.kegner.studentmanagement.model.GpaStatistics;
+import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.persistence.CourseChangedEvent;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
+import com.kegner.studentmanagement.persistence.StatisticsRepository;
+import com.kegner.studentmanagement.persistence.StudentChangedEvent;
+
+class StatisticsServiceTest {
+    private StatisticsRepository repository;
+
+    private StatisticsService service;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(StatisticsRepository.class);
+
+        // Four Biology students, one without a GPA, and two Math courses
+        doAnswer(invocation -> {
+            Consumer<StudentEntity> consumer = invocation.getArgument(0);
+            consumer.accept(StudentEntity.builder().id(1L).major("Biology").gpa(2.0).build());
+            consumer.accept(StudentEntity.builder().id(2L).major("Biology").gpa(3.0).build());
+            consumer.accept(StudentEntity.builder().id(3L).major("Biology").gpa(4.0).build());
+            consumer.accept(StudentEntity.builder().id(4L).major("Biology").build());
+            return null;
+        }).when(repository).getGrades(any());
+        doAnswer(invocation -> {
+            Consumer<EnrollmentStatistics.Course> consumer = invocation.getArgument(0);
+            consumer.accept(EnrollmentStatistics.Course.builder().id(10L).departmentName("Math").semester("Fall")
+                    .students(3).build());
+            consumer.accept(EnrollmentStatistics.Course.builder().id(11L).departmentName("Math").semester("Spring")
+                    .students(1).build());
+            return null;
+        }).when(repository).getEnrollments(any());
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(repository).inSnapshot(any());
+
+        service = new StatisticsService();
+        ReflectionTestUtils.setField(service, "repository", repository);
+    }
+
+    @Test
+    void testLoadedOnFirstRead() {
+        GpaStatistics.Distribution biology = service.getGpa().getMajors().get(0);
+
+        assertEquals("Biology", biology.getMajor());
+        assertEquals(4, biology.getStudents());
+        assertEquals(3, biology.getGraded());
+        assertEquals(3.0, biology.getMean());
+        assertEquals(2.0, biology.getPercentiles().get("p10"));
+        assertEquals(3.0, biology.getPercentiles().get("p50"));
+        assertEquals(4.0, biology.getPercentiles().get("p90"));
+        assertEquals(1L, biology.getHistogram().get(30));
+        assertEquals(4, service.getGpa().getOverall().getStudents());
+
+        // Both reads and the enrollment one after them share the single load
+        service.getEnrollment();
+        verify(repository, times(1)).getGrades(any());
+    }
+
+    @Test
+    void testStudentChangesApplied() {
+        service.getGpa();
+
+        // A major change moves the student, a delete takes the old grade back out
+        service.onStudentChanged(StudentChangedEvent.saved(3L, "Physics", 3.5));
+        service.onStudentChanged(StudentChangedEvent.deleted(1L));
+        service.onStudentChanged(StudentChangedEvent.saved(5L, "Physics", 2.5));
+
+        GpaStatistics gpa = service.getGpa();
+        GpaStatistics.Distribution biology = gpa.getMajors().get(0);
+        GpaStatistics.Distribution physics = gpa.getMajors().get(1);
+
+        assertEquals(2, biology.getStudents());
+        assertEquals(3.0, biology.getMean());
+        assertEquals(2, physics.getStudents());
+        assertEquals(3.0, physics.getMean());
+        assertEquals(3.5, physics.getPercentiles().get("p90"));
+        assertEquals(4, gpa.getOverall().getStudents());
+
+        service.onStudentChanged(StudentChangedEvent.deleted(3L));
+        service.onStudentChanged(StudentChangedEvent.deleted(5L));
+
+        assertEquals(1, service.getGpa().getMajors().size());
+    }
+
+    @Test
+    void testEnrollmentChangesApplied() {
+        service.getEnrollment();
+
+        service.onCourseChanged(CourseChangedEvent.saved(12L, "History", "Fall"));
+        service.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(1L, List.of(12L, 11L), List.of(10L)));
+        // Moving a course takes its students to the new department
+        service.onCourseChanged(CourseChangedEvent.saved(11L, "History", "Spring"));
+
+        EnrollmentStatistics enrollment = service.getEnrollment();
+
+        assertEquals(3, enrollment.getCourses().size());
+        assertEquals(2, enrollment.getCourses().get(0).getStudents());
+        assertEquals("History", enrollment.getDepartments().get(0).getName());
+        assertEquals(2, enrollment.getDepartments().get(0).getCourses());
+        assertEquals(3, enrollment.getDepartments().get(0).getStudents());
+        assertEquals(1.5, enrollment.getDepartments().get(0).getMeanStudents());
+        assertEquals(2, enrollment.getDepartments().get(1).getStudents());
+        assertEquals(3, enrollment.getSemesters().get(0).getStudents());
+
+        service.onEnrollmentChanged(EnrollmentChangedEvent.forCourseRemoval(10L, List.of(2L, 3L)));
+        service.onCourseChanged(CourseChangedEvent.deleted(10L));
+
+        enrollment = service.getEnrollment();
+        assertEquals(2, enrollment.getCourses().size());
+        assertEquals(1, enrollment.getDepartments().size());
+        assertEquals(1, enrollment.getSemesters().get(0).getStudents());
+    }
+
+    @Test
+    void testChangesBeforeLoadIgnored() {
+        service.onStudentChanged(StudentChangedEvent.saved(1L, "Physics", 1.0));
+
+        GpaStatistics.Distribution biology = service.getGpa().getMajors().get(0);
+        assertEquals("Biology", biology.getMajor());
+        assertEquals(2.0, biology.getPercentiles().get("p10"));
+    }
+
+    @Test
+    void testChangesDuringFirstLoadReplayed() {
+        // Commits while the courses are read: student 1 moves to Physics and from course 10 to 11. The snapshot
+        // still had 1-10, the removal wasn't seen, but it already had 1-11.
+        doAnswer(invocation -> {
+            service.onStudentChanged(StudentChangedEvent.saved(1L, "Physics", 3.5));
+            service.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(1L, List.of(11L), List.of(10L)));
+
+            Consumer<EnrollmentStatistics.Course> consumer = invocation.getArgument(0);
+            consumer.accept(EnrollmentStatistics.Course.builder().id(10L).departmentName("Math").semester("Fall")
+                    .students(3).build());
+            consumer.accept(EnrollmentStatistics.Course.builder().id(11L).departmentName("Math").semester("Spring")
+                    .students(2).build());
+            return null;
+        }).when(repository).getEnrollments(any());
+        when(repository.getEnrolled(any())).thenReturn(List.of(new EnrollmentChangedEvent.Enrollment(1L, 10L),
+                new EnrollmentChangedEvent.Enrollment(1L, 11L)));
+
+        GpaStatistics gpa = service.getGpa();
+        assertEquals(3, gpa.getMajors().get(0).getStudents());
+        assertEquals("Physics", gpa.getMajors().get(1).getMajor());
+        assertEquals(4, gpa.getOverall().getStudents());
+
+        EnrollmentStatistics enrollment = service.getEnrollment();
+        assertEquals(2, enrollment.getCourses().get(0).getStudents());
+        assertEquals(2, enrollment.getCourses().get(1).getStudents());
+        assertEquals(4, enrollment.getDepartments().get(0).getStudents());
+    }
+
+    @Test
+    void testChangesDuringRecomputeReplayed() {
+        service.getGpa();
+
+        // Student 2 is deleted after the snapshot, student 4 is added to course 11 before it
+        doAnswer(invocation -> {
+            service.onStudentChanged(StudentChangedEvent.deleted(2L));
+            service.onEnrollmentChanged(EnrollmentChangedEvent.forStudent(4L, List.of(11L), List.of()));
+
+            Consumer<StudentEntity> consumer = invocation.getArgument(0);
+            consumer.accept(StudentEntity.builder().id(1L).major("Biology").gpa(2.0).build());
+            consumer.accept(StudentEntity.builder().id(2L).major("Biology").gpa(3.0).build());
+            return null;
+        }).when(repository).getGrades(any());
+        when(repository.getEnrolled(any())).thenReturn(List.of(new EnrollmentChangedEvent.Enrollment(4L, 11L)));
+
+        service.recompute();
+
+        assertEquals(1, service.getGpa().getOverall().getStudents());
+        // Seen by the snapshot, so not counted twice
+        assertEquals(1, service.getEnrollment().getCourses().get(1).getStudents());
+    }
+
+    @Test
+    void testReloadRecomputes() {
+        service.getGpa();
+        service.onEnrollmentChanged(EnrollmentChangedEvent.reload());
+
+        // In the background, the listener returns before the scans
+        verify(repository, timeout(5000).times(2)).getGrades(any());
+        assertEquals(4, service.getGpa().getOverall().getStudents());
+    }
+
+    @Test
+    void testConcurrentFirstReadsLoadOnce() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            reading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            invocation.<Consumer<StudentEntity>>getArgument(0)
+                    .accept(StudentEntity.builder().id(1L).major("Biology").gpa(2.0).build());
+            return null;
+        }).when(repository).getGrades(any());
+
+        List<CompletableFuture<GpaStatistics>> reads = new ArrayList<>();
+        reads.add(CompletableFuture.supplyAsync(service::getGpa));
+        reading.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            reads.add(CompletableFuture.supplyAsync(service::getGpa));
+        }
+
+        Thread.sleep(50);
+        release.countDown();
+
+        for (CompletableFuture<GpaStatistics> read : reads) {
+            assertEquals(1, read.get(5, TimeUnit.SECONDS).getOverall().getStudents());
+        }
+        verify(repository, times(1)).getGrades(any());
+    }
+}
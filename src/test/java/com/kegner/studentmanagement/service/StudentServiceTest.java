@@ -1,29 +1,61 @@
 package com.kegner.studentmanagement.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.modelmapper.ModelMapper;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kegner.studentmanagement.exceptions.InvalidRequestException;
 import com.kegner.studentmanagement.exceptions.ResourceExistsException;
 import com.kegner.studentmanagement.exceptions.ResourceNotFoundException;
+import com.kegner.studentmanagement.exceptions.VersionConflictException;
+import com.kegner.studentmanagement.mapper.StudentMapper;
+import com.kegner.studentmanagement.model.CourseDto;
 import com.kegner.studentmanagement.model.DataQuery;
+import com.kegner.studentmanagement.model.EnrollmentChange;
+import com.kegner.studentmanagement.model.ImportFormat;
+import com.kegner.studentmanagement.model.ImportResult;
+import com.kegner.studentmanagement.model.ImportRow;
 import com.kegner.studentmanagement.model.ListWrapper;
 import com.kegner.studentmanagement.model.StudentDto;
 import com.kegner.studentmanagement.model.StudentEntity;
+import com.kegner.studentmanagement.model.StudentSummary;
+import com.kegner.studentmanagement.model.WriteResult;
+import com.kegner.studentmanagement.persistence.EnrollmentChangedEvent;
 import com.kegner.studentmanagement.persistence.StudentRepository;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @SpringBootTest
 class StudentServiceTest {
     @InjectMocks
@@ -33,7 +65,15 @@ class StudentServiceTest {
     private StudentRepository repository;
 
     @Mock
-    private ModelMapper modelMapper;
+    private StudentMapper mapper;
+
+    private final AsyncCache<Long, StudentDto> studentCache = Caffeine.newBuilder().buildAsync();
+
+    private final AsyncCache<Long, CourseDto> courseCache = Caffeine.newBuilder().buildAsync();
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
     @Captor
     private ArgumentCaptor<Long> idCaptor;
@@ -44,10 +84,32 @@ class StudentServiceTest {
     @Captor
     private ArgumentCaptor<StudentEntity> studentCaptor;
 
+    @Captor
+    private ArgumentCaptor<StudentDto> dtoCaptor;
+
+    @Captor
+    private ArgumentCaptor<List<EnrollmentChangedEvent.Enrollment>> enrollmentsCaptor;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "studentCache", studentCache);
+        // No window, so each lookup goes straight to repository.get
+        ReflectionTestUtils.setField(service, "studentLoader", new BatchLoader<>("students", repository,
+                StudentEntity::getId, Duration.ZERO, 100, new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(service, "courseCache", courseCache);
+
+        // Write-behind off, so enrollment changes are written straight away
+        EnrollmentQueue enrollmentQueue = new EnrollmentQueue();
+        ReflectionTestUtils.setField(enrollmentQueue, "repository", repository);
+        ReflectionTestUtils.setField(enrollmentQueue, "studentCache", studentCache);
+        ReflectionTestUtils.setField(enrollmentQueue, "courseCache", courseCache);
+        ReflectionTestUtils.setField(service, "enrollmentQueue", enrollmentQueue);
+    }
+
     @Test
     void testGet() throws Exception {
         when(repository.get(anyLong())).thenReturn(StudentEntity.builder().id(20L).build());
-        when(modelMapper.map(any(), any())).thenReturn(StudentDto.builder().id(20L).build());
+        when(mapper.toDto(any())).thenReturn(StudentDto.builder().id(20L).build());
 
         StudentDto dto = service.get(20L);
         verify(repository).get(idCaptor.capture());
@@ -55,10 +117,21 @@ class StudentServiceTest {
         assertEquals(20L, dto.getId());
     }
 
+    @Test
+    void testGetCached() throws Exception {
+        when(repository.get(anyLong())).thenReturn(StudentEntity.builder().id(20L).build());
+        when(mapper.toDto(any())).thenReturn(StudentDto.builder().id(20L).build());
+
+        service.get(20L);
+        StudentDto dto = service.get(20L);
+        verify(repository, times(1)).get(20L);
+        assertEquals(20L, dto.getId());
+    }
+
     @Test
     void testGetNotFound() throws Exception {
         when(repository.get(anyLong())).thenReturn(null);
-        when(modelMapper.map(any(), any())).thenReturn(StudentDto.builder().id(20L).build());
+        when(mapper.toDto(any())).thenReturn(StudentDto.builder().id(20L).build());
         ResourceNotFoundException exception = assertThrows(
                 ResourceNotFoundException.class,
                 () -> service.get(20L));
@@ -72,7 +145,7 @@ class StudentServiceTest {
     void testGetAll() throws Exception {
         when(repository.getAll(any(DataQuery.class)))
                 .thenReturn(ListWrapper.<StudentEntity>builder().count(10).build());
-        when(modelMapper.map(any(), any())).thenReturn(StudentDto.builder().id(50L).build());
+        when(mapper.toDto(any())).thenReturn(StudentDto.builder().id(50L).build());
 
         ListWrapper<StudentDto> list = service.getAll(DataQuery.builder().page(0).build());
         verify(repository).getAll(queryCaptor.capture());
@@ -80,13 +153,60 @@ class StudentServiceTest {
         assertEquals(10, list.getCount());
     }
 
+    @Test
+    void testGetRoster() throws Exception {
+        when(repository.getAll(any(DataQuery.class))).thenReturn(ListWrapper.<StudentEntity>builder()
+                .data(List.of(StudentEntity.builder().id(5L).build()))
+                .count(1)
+                .build());
+        when(mapper.toSummary(any())).thenReturn(StudentSummary.builder().id(5L).build());
+
+        ListWrapper<StudentSummary> roster = service.getRoster(30L, DataQuery.builder().sort("lastName:asc").build());
+        verify(repository).getAll(queryCaptor.capture());
+
+        // Limited to the course and to summary fields, so the junction table isn't joined
+        assertEquals(30L, queryCaptor.getValue().getEnrolledWith());
+        assertEquals(List.of("firstName", "lastName", "email", "major"), queryCaptor.getValue().getFields());
+        assertEquals("lastName:asc", queryCaptor.getValue().getSort());
+        assertEquals(5L, roster.getData().get(0).getId());
+    }
+
+    @Test
+    void testGetRostersTooLarge() throws Exception {
+        InvalidRequestException exception = assertThrows(InvalidRequestException.class,
+                () -> service.getRosters(List.of(1L, 2L), DataQuery.builder().pageSize(600).build()));
+
+        assertEquals("At most 1000 students can be returned across rosters, ask for fewer courses or a smaller"
+                + " page size.", exception.getMessage());
+    }
+
+    @Test
+    void testExport() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<StudentEntity> consumer = invocation.getArgument(0);
+            consumer.accept(StudentEntity.builder().id(1L).build());
+            consumer.accept(StudentEntity.builder().id(2L).build());
+            return null;
+        }).when(repository).export(any());
+        when(mapper.toDto(any())).thenReturn(
+                StudentDto.builder().id(1L).build(), StudentDto.builder().id(2L).build());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(1L, objectMapper.readValue(lines[0], StudentDto.class).getId());
+        assertEquals(2L, objectMapper.readValue(lines[1], StudentDto.class).getId());
+    }
+
     @Test
     void testInsert() throws Exception {
         StudentEntity student = StudentEntity.builder().id(25L).build();
 
-        doNothing().when(repository).insert(any(StudentEntity.class));
+        when(repository.insert(any(StudentEntity.class))).thenReturn(WriteResult.builder().id(25L).build());
         when(repository.get(anyLong())).thenReturn(null);
-        when(modelMapper.map(any(), any())).thenReturn(student);
+        when(mapper.toEntity(any())).thenReturn(student);
 
         service.insert(StudentDto.builder().id(25L).build());
         verify(repository).get(idCaptor.capture());
@@ -99,9 +219,9 @@ class StudentServiceTest {
     void testInsertResourceExists() throws Exception {
         StudentEntity student = StudentEntity.builder().id(25L).build();
 
-        doNothing().when(repository).insert(any(StudentEntity.class));
+        when(repository.insert(any(StudentEntity.class))).thenReturn(WriteResult.builder().id(25L).build());
         when(repository.get(anyLong())).thenReturn(student);
-        when(modelMapper.map(any(), any())).thenReturn(student);
+        when(mapper.toEntity(any())).thenReturn(student);
 
         ResourceExistsException exception = assertThrows(
                 ResourceExistsException.class,
@@ -116,20 +236,127 @@ class StudentServiceTest {
     void testUpdate() throws Exception {
         StudentEntity student = StudentEntity.builder().id(25L).build();
 
-        doNothing().when(repository).update(any(StudentEntity.class));
-        when(modelMapper.map(any(), any())).thenReturn(student);
+        when(repository.update(any(StudentEntity.class))).thenReturn(
+                WriteResult.builder().id(25L).addedIds(List.of(3L)).removedIds(List.of(4L)).rowsAffected(3).build());
+        when(mapper.toEntity(any())).thenReturn(student);
+
+        studentCache.put(25L, CompletableFuture.completedFuture(StudentDto.builder().id(25L).build()));
+        for (long id : new long[] { 3L, 4L, 5L }) {
+            courseCache.put(id, CompletableFuture.completedFuture(CourseDto.builder().id(id).build()));
+        }
 
         service.update(StudentDto.builder().id(25L).build());
         verify(repository).update(studentCaptor.capture());
         assertEquals(25L, studentCaptor.getValue().getId());
+        assertNull(studentCache.getIfPresent(25L));
+        assertNull(courseCache.getIfPresent(3L));
+        assertNull(courseCache.getIfPresent(4L));
+        assertNotNull(courseCache.getIfPresent(5L));
+    }
+
+    @Test
+    void testUpdateConflict() throws Exception {
+        when(repository.update(any(StudentEntity.class))).thenReturn(
+                WriteResult.builder().id(25L).conflict(true).build());
+        when(mapper.toEntity(any())).thenReturn(StudentEntity.builder().id(25L).build());
+        when(repository.get(25L)).thenReturn(StudentEntity.builder().id(25L).major("Physics").build());
+        when(mapper.toDto(any())).thenReturn(StudentDto.builder().id(25L).major("Physics").build());
+
+        studentCache.put(25L, CompletableFuture.completedFuture(StudentDto.builder().id(25L).major("Biology").build()));
+        courseCache.put(3L, CompletableFuture.completedFuture(CourseDto.builder().id(3L).build()));
+
+        VersionConflictException exception = assertThrows(VersionConflictException.class,
+                () -> service.update(StudentDto.builder().id(25L).major("History").build()));
+
+        // Reloaded rather than answered from the stale cache entry, and nothing else evicted since nothing was written
+        verify(repository).get(25L);
+        assertEquals("Physics", ((StudentDto) exception.getCurrent()).getMajor());
+        assertNotNull(courseCache.getIfPresent(3L));
+    }
+
+    @Test
+    void testUpdateUnchanged() throws Exception {
+        when(repository.update(any(StudentEntity.class))).thenReturn(WriteResult.builder().id(25L).build());
+        when(mapper.toEntity(any())).thenReturn(StudentEntity.builder().id(25L).build());
+
+        studentCache.put(25L, CompletableFuture.completedFuture(StudentDto.builder().id(25L).build()));
+
+        // Nothing was written, so the cached student is still current
+        service.update(StudentDto.builder().id(25L).build());
+        assertNotNull(studentCache.getIfPresent(25L));
+    }
+
+    @Test
+    void testUpdateEnrollments() throws Exception {
+        when(repository.get(anyLong())).thenReturn(StudentEntity.builder().id(25L).build());
+        when(mapper.toDto(any())).thenReturn(StudentDto.builder().id(25L).build());
+        courseCache.put(3L, CompletableFuture.completedFuture(CourseDto.builder().id(3L).build()));
+
+        // Nothing left queued when write-behind is off
+        assertNull(service.updateEnrollments(25L,
+                EnrollmentChange.builder().add(List.of(3L)).remove(List.of(4L)).build(), false));
+
+        verify(repository).updateEnrollments(enrollmentsCaptor.capture(), enrollmentsCaptor.capture());
+        assertEquals(3L, enrollmentsCaptor.getAllValues().get(0).get(0).getCourseId());
+        assertEquals(4L, enrollmentsCaptor.getAllValues().get(1).get(0).getCourseId());
+        assertNull(studentCache.getIfPresent(25L));
+        assertNull(courseCache.getIfPresent(3L));
+    }
+
+    @Test
+    void testUpdateEnrollmentsInvalid() throws Exception {
+        assertThrows(InvalidRequestException.class, () -> service.updateEnrollments(25L,
+                EnrollmentChange.builder().add(List.of(3L)).remove(List.of(3L)).build(), false));
+
+        // Unknown students never reach the queue
+        assertThrows(ResourceNotFoundException.class, () -> service.updateEnrollments(404L,
+                EnrollmentChange.builder().add(List.of(3L)).build(), false));
+        verify(repository, times(0)).updateEnrollments(any(), any());
     }
 
     @Test
     void testDelete() throws Exception {
-        doNothing().when(repository).delete(anyLong());
+        when(repository.delete(anyLong())).thenReturn(
+                WriteResult.builder().id(35L).removedIds(List.of(7L)).rowsAffected(2).build());
+
+        studentCache.put(35L, CompletableFuture.completedFuture(StudentDto.builder().id(35L).build()));
+        courseCache.put(7L, CompletableFuture.completedFuture(CourseDto.builder().id(7L).build()));
 
         service.delete(35L);
         verify(repository).delete(idCaptor.capture());
         assertEquals(35L, idCaptor.getValue());
+        assertNull(studentCache.getIfPresent(35L));
+        assertNull(courseCache.getIfPresent(7L));
+    }
+
+    @Test
+    void testBulkInsert() throws Exception {
+        when(mapper.toEntity(any())).thenReturn(StudentEntity.builder().build());
+        when(repository.bulkInsert(any())).thenAnswer(invocation -> {
+            Iterator<ImportRow<StudentEntity>> rows = invocation.getArgument(0);
+            int inserted = 0;
+            while (rows.hasNext()) {
+                rows.next();
+                inserted++;
+            }
+            return ImportResult.builder().inserted(inserted).rejected(0).build();
+        });
+
+        String body = """
+                firstName,lastName,email,phoneNumber,dateOfBirth,courseIds
+                Bob,Smith,bob@example.edu,555-0100,2004-05-01,1;2
+                Ann,,ann@example.edu,555-0101,2004-06-01,
+                Sue,Jones,sue@example.edu,555-0102,not a date,
+                """;
+
+        ImportResult result = service.bulkInsert(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), ImportFormat.CSV);
+
+        verify(mapper).toEntity(dtoCaptor.capture());
+        assertEquals(List.of(1L, 2L), dtoCaptor.getValue().getCourseIds());
+        assertEquals(1, result.getInserted());
+        assertEquals(2, result.getRejected());
+        assertEquals(3L, result.getRejects().get(0).getLine());
+        assertEquals(4L, result.getRejects().get(1).getLine());
     }
 }